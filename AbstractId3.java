@@ -0,0 +1,505 @@
+import weka.classifiers.AbstractClassifier;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.NoSupportForMissingValuesException;
+import weka.core.Utils;
+
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.TreeMap;
+
+import J48.Classifier.CompiledTree;
+import J48.Classifier.PredictionCache;
+import J48.Classifier.ScoringMetrics;
+
+/**
+ * The tree shared by MyID3 and Id3: growing it on nominal data, scoring
+ * instances and rows with it, compiling it, and recording scoring metrics
+ * and caching predictions for it. Subclasses check the data and
+ * instances they accept and print the tree.
+ */
+public abstract class AbstractId3 extends AbstractClassifier {
+
+  /** for serialization */
+  private static final long serialVersionUID = 4721876025372651339L;
+
+  /** The node's successors. */
+  protected AbstractId3[] m_Successors;
+
+  /** Attribute used for splitting. */
+  protected Attribute m_Attribute;
+
+  /** Class value if node is leaf. */
+  protected double m_ClassValue;
+
+  /** Class distribution if node is leaf. */
+  protected double[] m_Distribution;
+
+  /** Class attribute of dataset. */
+  protected Attribute m_ClassAttribute;
+
+  /** Number of the node in prefix order, for scoring metrics. */
+  private int m_NodeId;
+
+  /** The metrics scoring is recorded into (root only, null = none). */
+  private transient volatile ScoringMetrics m_Metrics;
+
+  /** The cache of leaves reached (root only, null = none). */
+  private transient volatile PredictionCache<AbstractId3> m_Cache;
+
+  /**
+   * Returns a new, empty node of this tree's kind.
+   *
+   * @return the node
+   */
+  protected abstract AbstractId3 newNode();
+
+  /**
+   * Checks an instance before it is classified. Accepts all instances.
+   *
+   * @param instance the instance
+   * @throws NoSupportForMissingValuesException if the instance can't be
+   *   classified
+   */
+  protected void checkInstance(Instance instance)
+    throws NoSupportForMissingValuesException {
+  }
+
+  /**
+   * Checks the value a row is tested on at a node. Accepts all values.
+   *
+   * @param value the value
+   * @throws NoSupportForMissingValuesException if the row can't be
+   *   classified
+   */
+  protected void checkValue(double value)
+    throws NoSupportForMissingValuesException {
+  }
+
+  /**
+   * Grows the tree on data the subclass has checked, after removing the
+   * instances with a missing class. Stops scoring metrics and caching.
+   *
+   * @param data the training data
+   * @exception Exception if the tree can't be built successfully
+   */
+  protected void buildTree(Instances data) throws Exception {
+
+    data = new Instances(data);
+    data.deleteWithMissingClass();
+
+    m_Metrics = null;
+    m_Cache = null;
+    makeTree(data);
+  }
+
+  /**
+   * Method for building the tree.
+   *
+   * @param data the training data
+   * @exception Exception if decision tree can't be built successfully
+   */
+  private void makeTree(Instances data) throws Exception {
+
+    // Check if no instances have reached this node.
+    if (data.numInstances() == 0) {
+      m_Attribute = null;
+      m_ClassValue = Utils.missingValue();
+      m_Distribution = new double[data.numClasses()];
+      return;
+    }
+
+    // Compute attribute with maximum information gain.
+    double[] infoGains = new double[data.numAttributes()];
+    Enumeration attEnum = data.enumerateAttributes();
+    while (attEnum.hasMoreElements()) {
+      Attribute att = (Attribute) attEnum.nextElement();
+      infoGains[att.index()] = computeInfoGain(data, att);
+    }
+    m_Attribute = data.attribute(Utils.maxIndex(infoGains));
+
+    // Make leaf if information gain is zero.
+    // Otherwise create successors.
+    if (Utils.eq(infoGains[m_Attribute.index()], 0)) {
+      m_Attribute = null;
+      m_Distribution = new double[data.numClasses()];
+      Enumeration instEnum = data.enumerateInstances();
+      while (instEnum.hasMoreElements()) {
+        Instance inst = (Instance) instEnum.nextElement();
+        m_Distribution[(int) inst.classValue()]++;
+      }
+      Utils.normalize(m_Distribution);
+      m_ClassValue = Utils.maxIndex(m_Distribution);
+      m_ClassAttribute = data.classAttribute();
+    } else {
+      Instances[] splitData = splitData(data, m_Attribute);
+      m_Successors = new AbstractId3[m_Attribute.numValues()];
+      for (int j = 0; j < m_Attribute.numValues(); j++) {
+        m_Successors[j] = newNode();
+        m_Successors[j].makeTree(splitData[j]);
+      }
+    }
+  }
+
+  /**
+   * Classifies a given test instance using the decision tree.
+   *
+   * @param instance the instance to be classified
+   * @return the classification
+   * @throws NoSupportForMissingValuesException if the instance can't be
+   *   classified
+   */
+  public double classifyInstance(Instance instance)
+    throws NoSupportForMissingValuesException {
+
+    checkInstance(instance);
+    ScoringMetrics metrics = m_Metrics;
+    ScoringMetrics.Probe probe = (metrics == null) ? null : metrics.start();
+    double classValue = leaf(instance, m_Cache, probe).m_ClassValue;
+    if (probe != null) {
+      probe.finish();
+    }
+    return classValue;
+  }
+
+  /**
+   * Computes class distribution for instance using decision tree.
+   *
+   * @param instance the instance for which distribution is to be computed
+   * @return the class distribution for the given instance
+   * @throws NoSupportForMissingValuesException if the instance can't be
+   *   classified
+   */
+  public double[] distributionForInstance(Instance instance)
+    throws NoSupportForMissingValuesException {
+
+    checkInstance(instance);
+    ScoringMetrics metrics = m_Metrics;
+    ScoringMetrics.Probe probe = (metrics == null) ? null : metrics.start();
+    double[] distribution =
+      leaf(instance, m_Cache, probe).m_Distribution.clone();
+    if (probe != null) {
+      probe.finish();
+    }
+    return distribution;
+  }
+
+  /**
+   * Classifies a row given as an array of attribute values (as in
+   * Instance), without building an Instance.
+   *
+   * @param values the attribute values of the row
+   * @return the classification
+   * @throws NoSupportForMissingValuesException if the row can't be
+   *   classified
+   */
+  public double classify(double[] values)
+    throws NoSupportForMissingValuesException {
+
+    return leaf(values).m_ClassValue;
+  }
+
+  /**
+   * Computes the class distribution of a row given as an array of
+   * attribute values into an array of the caller's.
+   *
+   * @param values the attribute values of the row
+   * @param distribution the array the class distribution is written to
+   * @throws NoSupportForMissingValuesException if the row can't be
+   *   classified
+   */
+  public void distribution(double[] values, double[] distribution)
+    throws NoSupportForMissingValuesException {
+
+    double[] leafDistribution = leaf(values).m_Distribution;
+
+    System.arraycopy(leafDistribution, 0, distribution, 0,
+                     leafDistribution.length);
+  }
+
+  /**
+   * Returns the leaf a row reaches.
+   *
+   * @param values the attribute values of the row
+   * @return the leaf
+   * @throws NoSupportForMissingValuesException if the row can't be
+   *   classified
+   */
+  private AbstractId3 leaf(double[] values)
+    throws NoSupportForMissingValuesException {
+
+    AbstractId3 node = this;
+
+    while (node.m_Attribute != null) {
+      double value = values[node.m_Attribute.index()];
+      checkValue(value);
+      node = node.m_Successors[(int) value];
+    }
+    return node;
+  }
+
+  /**
+   * Returns the leaf an instance reaches, from a cache if it is cached,
+   * recording the nodes visited on the way if it isn't.
+   *
+   * @param instance the instance
+   * @param cache the cache of leaves reached (null = none)
+   * @param probe records the nodes visited (null = none)
+   * @return the leaf
+   */
+  private AbstractId3 leaf(Instance instance,
+                           PredictionCache<AbstractId3> cache,
+                           ScoringMetrics.Probe probe) {
+
+    long key = -1;
+
+    if (cache != null) {
+      key = 0;
+      for (int i = 0; i < cache.numAttributes(); i++) {
+        key = cache.pack(key, i, instance.value(cache.attribute(i)));
+      }
+      AbstractId3 leaf = (key < 0) ? null : cache.get(key);
+      if (leaf != null) {
+        return leaf;
+      }
+    }
+    AbstractId3 node = this;
+    if (probe != null) {
+      probe.visit(node.m_NodeId);
+    }
+    while (node.m_Attribute != null) {
+      node = node.m_Successors[(int) instance.value(node.m_Attribute)];
+      if (probe != null) {
+        probe.visit(node.m_NodeId);
+      }
+    }
+    if (key >= 0) {
+      cache.put(key, node);
+    }
+    return node;
+  }
+
+  /**
+   * Starts recording scoring metrics: the latency of predictions and the
+   * nodes they visit, numbered in prefix order with 0 at the root.
+   * Rebuilding the classifier stops them.
+   *
+   * @return the metrics predictions are recorded into
+   */
+  public ScoringMetrics enableScoringMetrics() {
+
+    ScoringMetrics metrics = new ScoringMetrics(numberNodes(0));
+
+    m_Metrics = metrics;
+    return metrics;
+  }
+
+  /**
+   * Stops recording scoring metrics.
+   */
+  public void disableScoringMetrics() {
+
+    m_Metrics = null;
+  }
+
+  /**
+   * Starts caching the leaves instances reach, keyed by the values of the
+   * attributes the tree tests. Rebuilding the classifier stops caching.
+   *
+   * @param capacity the largest number of cached leaves
+   * @return the cache
+   * @throws IllegalArgumentException if the tested attributes have too
+   * many values to be keyed
+   */
+  public PredictionCache<AbstractId3> enablePredictionCache(int capacity) {
+
+    TreeMap<Integer, Integer> tested = new TreeMap<Integer, Integer>();
+    testedAttributes(tested);
+    int[] attributes = new int[tested.size()];
+    int[] numValues = new int[tested.size()];
+    int i = 0;
+    for (Map.Entry<Integer, Integer> entry : tested.entrySet()) {
+      attributes[i] = entry.getKey();
+      numValues[i++] = entry.getValue();
+    }
+    PredictionCache<AbstractId3> cache =
+      new PredictionCache<AbstractId3>(attributes, numValues, capacity);
+
+    m_Cache = cache;
+    return cache;
+  }
+
+  /**
+   * Stops caching predictions.
+   */
+  public void disablePredictionCache() {
+
+    m_Cache = null;
+  }
+
+  /**
+   * Adds the attributes the nodes of this subtree test, with their
+   * numbers of values, to a map.
+   *
+   * @param tested the map
+   */
+  private void testedAttributes(Map<Integer, Integer> tested) {
+
+    if (m_Attribute != null) {
+      tested.put(m_Attribute.index(), m_Attribute.numValues());
+      for (int j = 0; j < m_Successors.length; j++) {
+        m_Successors[j].testedAttributes(tested);
+      }
+    }
+  }
+
+  /**
+   * Numbers the nodes of this subtree in prefix order.
+   *
+   * @param nodeId the number of this node
+   * @return the number of the next node after this subtree
+   */
+  private int numberNodes(int nodeId) {
+
+    m_NodeId = nodeId++;
+    if (m_Attribute != null) {
+      for (int j = 0; j < m_Successors.length; j++) {
+        nodeId = m_Successors[j].numberNodes(nodeId);
+      }
+    }
+    return nodeId;
+  }
+
+  /**
+   * Returns the tree in compiled form, for scoring many rows.
+   *
+   * @return the compiled tree
+   */
+  public CompiledTree compile() {
+
+    CompiledTree.Builder builder = new CompiledTree.Builder();
+
+    return builder.build(compileNode(builder), numClasses());
+  }
+
+  /**
+   * Returns the number of classes, from the distribution of a leaf.
+   *
+   * @return the number of classes
+   */
+  private int numClasses() {
+
+    if (m_Attribute == null) {
+      return m_Distribution.length;
+    }
+    return m_Successors[0].numClasses();
+  }
+
+  /**
+   * Adds the compiled nodes of this subtree to a builder, children first.
+   *
+   * @param builder the builder
+   * @return the index of this node
+   */
+  private int compileNode(CompiledTree.Builder builder) {
+
+    if (m_Attribute == null) {
+      return builder.addLeaf(m_Distribution, m_ClassValue, false);
+    }
+    int[] children = new int[m_Successors.length];
+    for (int j = 0; j < m_Successors.length; j++) {
+      children[j] = m_Successors[j].compileNode(builder);
+    }
+    return builder.addNominalNode(m_Attribute.index(), children, null);
+  }
+
+  /**
+   * Returns the number of nodes in the tree.
+   *
+   * @return the number of nodes
+   */
+  protected int numNodes() {
+
+    int numNodes = 1;
+
+    if (m_Attribute != null) {
+      for (int j = 0; j < m_Successors.length; j++) {
+        numNodes += m_Successors[j].numNodes();
+      }
+    }
+    return numNodes;
+  }
+
+  /**
+   * Computes information gain for an attribute.
+   *
+   * @param data the data for which info gain is to be computed
+   * @param att the attribute
+   * @return the information gain for the given attribute and data
+   * @throws Exception if computation fails
+   */
+  private double computeInfoGain(Instances data, Attribute att)
+    throws Exception {
+
+    double infoGain = computeEntropy(data);
+    Instances[] splitData = splitData(data, att);
+    for (int j = 0; j < att.numValues(); j++) {
+      if (splitData[j].numInstances() > 0) {
+        infoGain -= ((double) splitData[j].numInstances() /
+                     (double) data.numInstances()) *
+          computeEntropy(splitData[j]);
+      }
+    }
+    return infoGain;
+  }
+
+  /**
+   * Computes the entropy of a dataset.
+   *
+   * @param data the data for which entropy is to be computed
+   * @return the entropy of the data's class distribution
+   * @throws Exception if computation fails
+   */
+  private double computeEntropy(Instances data) throws Exception {
+
+    double [] classCounts = new double[data.numClasses()];
+    Enumeration instEnum = data.enumerateInstances();
+    while (instEnum.hasMoreElements()) {
+      Instance inst = (Instance) instEnum.nextElement();
+      classCounts[(int) inst.classValue()]++;
+    }
+    double entropy = 0;
+    for (int j = 0; j < data.numClasses(); j++) {
+      if (classCounts[j] > 0) {
+        entropy -= classCounts[j] * Utils.log2(classCounts[j]);
+      }
+    }
+    entropy /= (double) data.numInstances();
+    return entropy + Utils.log2(data.numInstances());
+  }
+
+  /**
+   * Splits a dataset according to the values of a nominal attribute.
+   *
+   * @param data the data which is to be split
+   * @param att the attribute to be used for splitting
+   * @return the sets of instances produced by the split
+   */
+  private Instances[] splitData(Instances data, Attribute att) {
+
+    Instances[] splitData = new Instances[att.numValues()];
+    for (int j = 0; j < att.numValues(); j++) {
+      splitData[j] = new Instances(data, data.numInstances());
+    }
+    Enumeration instEnum = data.enumerateInstances();
+    while (instEnum.hasMoreElements()) {
+      Instance inst = (Instance) instEnum.nextElement();
+      splitData[(int) inst.value(att)].add(inst);
+    }
+    for (int i = 0; i < splitData.length; i++) {
+      splitData[i].compactify();
+    }
+    return splitData;
+  }
+}
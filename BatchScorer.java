@@ -0,0 +1,217 @@
+import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.*;
+
+/**
+ * Scores a whole file of unseen rows, ARFF or CSV, and writes one line per
+ * row to an output file: the row number (from 1), the predicted class
+ * ('?' if there is none) and, for nominal classes, the probability of
+ * every class. The file is streamed: one thread reads it in chunks, a pool
+ * of workers scores the chunks and formats their lines, and the calling
+ * thread writes the chunks to a file channel in the order they were read.
+ * At most two chunks per worker are in flight, so memory stays bounded
+ * however large the file is.
+ *
+ * Rows are read against the header of the file, with the last attribute as
+ * the class, and must match the data the classifier was trained on. The
+ * classifier is shared by the workers; MyID3 and Id3 are scored in
+ * compiled form (see ScoringServer.Model), others must be safe to score
+ * from several threads at once.
+ */
+public class BatchScorer {
+
+  /**
+   * The lines of a scored chunk.
+   */
+  private static final class Chunk {
+
+    /** The lines, encoded. */
+    final ByteBuffer bytes;
+
+    /** The number of rows. */
+    final int numRows;
+
+    Chunk(ByteBuffer bytes, int numRows) {
+      this.bytes = bytes;
+      this.numRows = numRows;
+    }
+  }
+
+  /** Marks the end of the chunks. */
+  private static final Future<Chunk> END = CompletableFuture.completedFuture(null);
+
+  /** The classifier rows are scored with. */
+  private final Classifier m_classifier;
+
+  /** The number of workers. */
+  private final int m_numThreads;
+
+  /** The number of rows per chunk. */
+  private final int m_chunkSize;
+
+  /**
+   * Creates a scorer.
+   *
+   * @param classifier the trained classifier
+   * @param numThreads the number of workers
+   * @param chunkSize the number of rows per chunk
+   */
+  public BatchScorer(Classifier classifier, int numThreads, int chunkSize) {
+    if ((numThreads < 1) || (chunkSize < 1)) {
+      throw new IllegalArgumentException("Need at least one worker and one row per chunk");
+    }
+    m_classifier = classifier;
+    m_numThreads = numThreads;
+    m_chunkSize = chunkSize;
+  }
+
+  /**
+   * Scores all rows of a file.
+   *
+   * @param input the file of unseen rows
+   * @param output the file predictions are written to
+   * @return the number of rows scored
+   * @throws Exception if a row can't be read or scored, or the output
+   * can't be written
+   */
+  public long score(String input, File output) throws Exception {
+    DataSource source = new DataSource(input);
+    Instances structure = source.getStructure();
+    structure.setClassIndex(structure.numAttributes() - 1);
+    ScoringServer.Model model = new ScoringServer.Model(structure, m_classifier);
+
+    BlockingQueue<Future<Chunk>> chunks = new ArrayBlockingQueue<>(2 * m_numThreads);
+    ExecutorService workers = Executors.newFixedThreadPool(m_numThreads);
+    Thread reader = new Thread(() -> read(model, source, structure, chunks, workers), "batch-reader");
+    long numRows = 0;
+
+    reader.start();
+    try (FileChannel out = FileChannel.open(output.toPath(), StandardOpenOption.CREATE,
+                                            StandardOpenOption.TRUNCATE_EXISTING,
+                                            StandardOpenOption.WRITE)) {
+      write(out, StandardCharsets.UTF_8.encode(header(structure.classAttribute())));
+      Chunk chunk;
+      while ((chunk = take(chunks)) != null) {
+        write(out, chunk.bytes);
+        numRows += chunk.numRows;
+      }
+    } finally {
+      reader.interrupt();
+      workers.shutdownNow();
+      reader.join();
+    }
+    return numRows;
+  }
+
+  /**
+   * Reads the rows in chunks and hands them to the workers, ending with
+   * END, or with a failed chunk if a row can't be read. Stops when
+   * interrupted.
+   */
+  private void read(ScoringServer.Model model, DataSource source, Instances structure,
+                    BlockingQueue<Future<Chunk>> chunks, ExecutorService workers) {
+    try {
+      try {
+        long first = 1;
+        while (source.hasMoreElements(structure)) {
+          Instance[] rows = new Instance[m_chunkSize];
+          int numRows = 0;
+          while ((numRows < rows.length) && source.hasMoreElements(structure)) {
+            rows[numRows++] = source.nextElement(structure);
+          }
+          final long from = first;
+          final int count = numRows;
+          chunks.put(workers.submit(() -> score(model, rows, count, from)));
+          first += numRows;
+        }
+      } catch (InterruptedException e) {
+        return;
+      } catch (Exception e) {
+        CompletableFuture<Chunk> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        chunks.put(failed);
+        return;
+      }
+      chunks.put(END);
+    } catch (InterruptedException e) {
+      // the writer stopped
+    }
+  }
+
+  /**
+   * Scores a chunk of rows and formats their lines.
+   */
+  private static Chunk score(ScoringServer.Model model, Instance[] rows, int numRows, long first)
+    throws Exception {
+    StringBuilder lines = new StringBuilder(numRows * 32);
+    for (int i = 0; i < numRows; i++) {
+      Instance row = rows[i];
+      double[] dist = model.distribution(row);
+      Attribute classAttribute = row.classAttribute();
+
+      lines.append(first + i).append(',');
+      if (classAttribute.isNominal()) {
+        // as AbstractClassifier.classifyInstance()
+        lines.append(Utils.eq(Utils.sum(dist), 0) ? "?" : classAttribute.value(Utils.maxIndex(dist)));
+        for (double p : dist) {
+          lines.append(',').append(Utils.doubleToString(p, 6));
+        }
+      } else {
+        lines.append(Utils.isMissingValue(dist[0]) ? "?" : Utils.doubleToString(dist[0], 6));
+      }
+      lines.append('\n');
+    }
+    return new Chunk(StandardCharsets.UTF_8.encode(CharBuffer.wrap(lines)), numRows);
+  }
+
+  /**
+   * Returns the first line of the output.
+   */
+  private static String header(Attribute classAttribute) {
+    StringBuilder header = new StringBuilder("row,predicted");
+    if (classAttribute.isNominal()) {
+      for (int j = 0; j < classAttribute.numValues(); j++) {
+        header.append(",p(").append(classAttribute.value(j)).append(')');
+      }
+    }
+    return header.append('\n').toString();
+  }
+
+  /**
+   * Waits for the next chunk in order.
+   *
+   * @return the chunk, or null at the end
+   * @throws Exception the exception of a chunk that failed
+   */
+  private static Chunk take(BlockingQueue<Future<Chunk>> chunks) throws Exception {
+    try {
+      return chunks.take().get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Writes all of a buffer to a channel.
+   */
+  private static void write(FileChannel out, ByteBuffer bytes) throws IOException {
+    while (bytes.hasRemaining()) {
+      out.write(bytes);
+    }
+  }
+}
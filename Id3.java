@@ -19,8 +19,6 @@
  *
  */
 
-import weka.classifiers.AbstractClassifier;
-import weka.classifiers.Classifier;
 import weka.classifiers.Sourcable;
 import weka.core.Attribute;
 import weka.core.Capabilities;
@@ -35,7 +33,8 @@ import weka.core.Capabilities.Capability;
 import weka.core.TechnicalInformation.Field;
 import weka.core.TechnicalInformation.Type;
 
-import java.util.Enumeration;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 
 /**
  <!-- globalinfo-start -->
@@ -74,27 +73,12 @@ import java.util.Enumeration;
  * @version $Revision: 8109 $ 
  */
 public class Id3 
-  extends AbstractClassifier 
+  extends AbstractId3 
   implements TechnicalInformationHandler, Sourcable {
 
   /** for serialization */
   static final long serialVersionUID = -2693678647096322561L;
   
-  /** The node's successors. */ 
-  private Id3[] m_Successors;
-
-  /** Attribute used for splitting. */
-  private Attribute m_Attribute;
-
-  /** Class value if node is leaf. */
-  private double m_ClassValue;
-
-  /** Class distribution if node is leaf. */
-  private double[] m_Distribution;
-
-  /** Class attribute of dataset. */
-  private Attribute m_ClassAttribute;
-
   /**
    * Returns a string describing the classifier.
    * @return a description suitable for the GUI.
@@ -163,103 +147,68 @@ public class Id3
     // can classifier handle the data?
     getCapabilities().testWithFail(data);
 
-    // remove instances with missing class
-    data = new Instances(data);
-    data.deleteWithMissingClass();
-    
-    makeTree(data);
+    buildTree(data);
   }
 
   /**
-   * Method for building an Id3 tree.
+   * Returns a new, empty node.
    *
-   * @param data the training data
-   * @exception Exception if decision tree can't be built successfully
+   * @return the node
    */
-  private void makeTree(Instances data) throws Exception {
-
-    // Check if no instances have reached this node.
-    if (data.numInstances() == 0) {
-      m_Attribute = null;
-      m_ClassValue = Utils.missingValue();
-      m_Distribution = new double[data.numClasses()];
-      return;
-    }
+  protected AbstractId3 newNode() {
 
-    // Compute attribute with maximum information gain.
-    double[] infoGains = new double[data.numAttributes()];
-    Enumeration attEnum = data.enumerateAttributes();
-    while (attEnum.hasMoreElements()) {
-      Attribute att = (Attribute) attEnum.nextElement();
-      infoGains[att.index()] = computeInfoGain(data, att);
-    }
-    m_Attribute = data.attribute(Utils.maxIndex(infoGains));
-    
-    // Make leaf if information gain is zero. 
-    // Otherwise create successors.
-    if (Utils.eq(infoGains[m_Attribute.index()], 0)) {
-      m_Attribute = null;
-      m_Distribution = new double[data.numClasses()];
-      Enumeration instEnum = data.enumerateInstances();
-      while (instEnum.hasMoreElements()) {
-        Instance inst = (Instance) instEnum.nextElement();
-        m_Distribution[(int) inst.classValue()]++;
-      }
-      Utils.normalize(m_Distribution);
-      m_ClassValue = Utils.maxIndex(m_Distribution);
-      m_ClassAttribute = data.classAttribute();
-    } else {
-      Instances[] splitData = splitData(data, m_Attribute);
-      m_Successors = new Id3[m_Attribute.numValues()];
-      for (int j = 0; j < m_Attribute.numValues(); j++) {
-        m_Successors[j] = new Id3();
-        m_Successors[j].makeTree(splitData[j]);
-      }
+    return new Id3();
+  }
+
+  /**
+   * Reads a tree. Trees saved before the tree moved to AbstractId3 keep
+   * their fields in Id3's part of the stream; they are copied over.
+   *
+   * @param in the stream to read from
+   * @throws IOException if the tree can't be read
+   * @throws ClassNotFoundException if a class of the tree is unknown
+   */
+  private void readObject(ObjectInputStream in)
+    throws IOException, ClassNotFoundException {
+
+    ObjectInputStream.GetField fields = in.readFields();
+    if (fields.getObjectStreamClass().getField("m_Successors") != null) {
+      m_Successors = (Id3[]) fields.get("m_Successors", null);
+      m_Attribute = (Attribute) fields.get("m_Attribute", null);
+      m_ClassValue = fields.get("m_ClassValue", 0.0);
+      m_Distribution = (double[]) fields.get("m_Distribution", null);
+      m_ClassAttribute = (Attribute) fields.get("m_ClassAttribute", null);
     }
   }
 
   /**
-   * Classifies a given test instance using the decision tree.
+   * Rejects instances with missing values.
    *
-   * @param instance the instance to be classified
-   * @return the classification
+   * @param instance the instance
    * @throws NoSupportForMissingValuesException if instance has missing values
    */
-  public double classifyInstance(Instance instance) 
+  protected void checkInstance(Instance instance)
     throws NoSupportForMissingValuesException {
 
     if (instance.hasMissingValue()) {
       throw new NoSupportForMissingValuesException("Id3: no missing values, "
                                                    + "please.");
     }
-    if (m_Attribute == null) {
-      return m_ClassValue;
-    } else {
-      return m_Successors[(int) instance.value(m_Attribute)].
-        classifyInstance(instance);
-    }
   }
 
   /**
-   * Computes class distribution for instance using decision tree.
+   * Rejects rows with a missing value of a tested attribute.
    *
-   * @param instance the instance for which distribution is to be computed
-   * @return the class distribution for the given instance
-   * @throws NoSupportForMissingValuesException if instance has missing values
+   * @param value the value
+   * @throws NoSupportForMissingValuesException if the value is missing
    */
-  public double[] distributionForInstance(Instance instance) 
+  protected void checkValue(double value)
     throws NoSupportForMissingValuesException {
 
-    if (instance.hasMissingValue()) {
+    if (Double.isNaN(value)) {
       throw new NoSupportForMissingValuesException("Id3: no missing values, "
                                                    + "please.");
     }
-    if (m_Attribute == null) {
-      return m_Distribution;
-    } else { 
-      return m_Successors[(int) instance.value(m_Attribute)].
-        distributionForInstance(instance);
-    }
   }
 
   /**
@@ -275,78 +224,6 @@ public class Id3
     return "Id3\n\n" + toString(0);
   }
 
-  /**
-   * Computes information gain for an attribute.
-   *
-   * @param data the data for which info gain is to be computed
-   * @param att the attribute
-   * @return the information gain for the given attribute and data
-   * @throws Exception if computation fails
-   */
-  private double computeInfoGain(Instances data, Attribute att) 
-    throws Exception {
-
-    double infoGain = computeEntropy(data);
-    Instances[] splitData = splitData(data, att);
-    for (int j = 0; j < att.numValues(); j++) {
-      if (splitData[j].numInstances() > 0) {
-        infoGain -= ((double) splitData[j].numInstances() /
-                     (double) data.numInstances()) *
-          computeEntropy(splitData[j]);
-      }
-    }
-    return infoGain;
-  }
-
-  /**
-   * Computes the entropy of a dataset.
-   * 
-   * @param data the data for which entropy is to be computed
-   * @return the entropy of the data's class distribution
-   * @throws Exception if computation fails
-   */
-  private double computeEntropy(Instances data) throws Exception {
-
-    double [] classCounts = new double[data.numClasses()];
-    Enumeration instEnum = data.enumerateInstances();
-    while (instEnum.hasMoreElements()) {
-      Instance inst = (Instance) instEnum.nextElement();
-      classCounts[(int) inst.classValue()]++;
-    }
-    double entropy = 0;
-    for (int j = 0; j < data.numClasses(); j++) {
-      if (classCounts[j] > 0) {
-        entropy -= classCounts[j] * Utils.log2(classCounts[j]);
-      }
-    }
-    entropy /= (double) data.numInstances();
-    return entropy + Utils.log2(data.numInstances());
-  }
-
-  /**
-   * Splits a dataset according to the values of a nominal attribute.
-   *
-   * @param data the data which is to be split
-   * @param att the attribute to be used for splitting
-   * @return the sets of instances produced by the split
-   */
-  private Instances[] splitData(Instances data, Attribute att) {
-
-    Instances[] splitData = new Instances[att.numValues()];
-    for (int j = 0; j < att.numValues(); j++) {
-      splitData[j] = new Instances(data, data.numInstances());
-    }
-    Enumeration instEnum = data.enumerateInstances();
-    while (instEnum.hasMoreElements()) {
-      Instance inst = (Instance) instEnum.nextElement();
-      splitData[(int) inst.value(att)].add(inst);
-    }
-    for (int i = 0; i < splitData.length; i++) {
-      splitData[i].compactify();
-    }
-    return splitData;
-  }
-
   /**
    * Outputs a tree at a certain level.
    *
@@ -370,7 +247,7 @@ public class Id3
           text.append("|  ");
         }
         text.append(m_Attribute.name() + " = " + m_Attribute.value(j));
-        text.append(m_Successors[j].toString(level + 1));
+        text.append(((Id3) m_Successors[j]).toString(level + 1));
       }
     }
     return text.toString();
@@ -425,7 +302,7 @@ public class Id3
         buffer.append("      return node" + newID + "(i);\n");
 
         subBuffers[i] = new StringBuffer();
-        newID = m_Successors[i].toSource(newID, subBuffers[i]);
+        newID = ((Id3) m_Successors[i]).toSource(newID, subBuffers[i]);
       }
       buffer.append("    else\n");
       buffer.append("      throw new IllegalArgumentException(\"Value '\" + i["
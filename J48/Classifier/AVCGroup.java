@@ -0,0 +1,211 @@
+
+package J48.Classifier;
+
+import weka.core.Instances;
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class for the attribute-value-class counts (AVC-group) of the rows
+ * reaching one node, as used by RainForest-style tree induction. The
+ * counts are aggregated from a stream of rows and are sufficient to
+ * select a C4.5-type split without holding the rows themselves.
+ *
+ * @version $Revision$
+ */
+public class AVCGroup
+  implements RevisionHandler {
+
+  /** The dataset structure. */
+  private final Instances m_header;
+
+  /** Weight of rows per class. */
+  private final double [] m_perClass;
+
+  /** Number of rows. */
+  private int m_numRows;
+
+  /** Weight of rows per value and class, for nominal attributes. */
+  private final double [][][] m_nominalCounts;
+
+  /** Weight of rows per class for each distinct value of numeric attributes
+      (null for nominal attributes and the class). */
+  private final List<TreeMap<Double, double []>> m_numericCounts;
+
+  /** Weight of rows with missing values per attribute and class. */
+  private final double [][] m_missingCounts;
+
+  /** Number of rows with known values per attribute. */
+  private final int [] m_numKnown;
+
+  /**
+   * Creates an empty AVC-group for the given dataset structure.
+   *
+   * @param header the dataset structure, with the class index set
+   */
+  public AVCGroup(Instances header) {
+
+    int numClasses = header.numClasses();
+
+    m_header = header;
+    m_perClass = new double[numClasses];
+    m_nominalCounts = new double[header.numAttributes()][][];
+    m_numericCounts =
+      new ArrayList<TreeMap<Double, double []>>(header.numAttributes());
+    m_missingCounts = new double[header.numAttributes()][numClasses];
+    m_numKnown = new int[header.numAttributes()];
+    for (int i = 0; i < header.numAttributes(); i++) {
+      if (i == header.classIndex()) {
+	m_numericCounts.add(null);
+	continue;
+      }
+      if (header.attribute(i).isNominal()) {
+	m_nominalCounts[i] = new double[header.attribute(i).numValues()][numClasses];
+	m_numericCounts.add(null);
+      } else {
+	m_numericCounts.add(new TreeMap<Double, double []>());
+      }
+    }
+  }
+
+  /**
+   * Adds a row with the given weight. Missing values are NaN, as in
+   * Instance; the class value must not be missing.
+   *
+   * @param values the attribute values of the row
+   * @param weight the weight of the row
+   */
+  public final void add(double [] values, double weight) {
+
+    int classIndex = (int) values[m_header.classIndex()];
+    double [] counts;
+
+    m_perClass[classIndex] += weight;
+    m_numRows++;
+    for (int i = 0; i < values.length; i++) {
+      if (i == m_header.classIndex()) {
+	continue;
+      }
+      if (Double.isNaN(values[i])) {
+	m_missingCounts[i][classIndex] += weight;
+	continue;
+      }
+      m_numKnown[i]++;
+      if (m_nominalCounts[i] != null) {
+	m_nominalCounts[i][(int) values[i]][classIndex] += weight;
+      } else {
+	TreeMap<Double, double []> numericCounts = m_numericCounts.get(i);
+	counts = numericCounts.get(values[i]);
+	if (counts == null) {
+	  counts = new double[m_perClass.length];
+	  numericCounts.put(values[i], counts);
+	}
+	counts[classIndex] += weight;
+      }
+    }
+  }
+
+  /**
+   * Returns the dataset structure.
+   */
+  public final Instances header() {
+
+    return m_header;
+  }
+
+  /**
+   * Returns the class distribution of all rows, in one bag.
+   */
+  public final Distribution classDistribution() {
+
+    double [][] table = new double[1][];
+
+    table[0] = m_perClass.clone();
+    return new Distribution(table);
+  }
+
+  /**
+   * Returns the number of rows.
+   */
+  public final int numRows() {
+
+    return m_numRows;
+  }
+
+  /**
+   * Returns the number of rows with a known value for the attribute.
+   */
+  public final int numKnown(int attIndex) {
+
+    return m_numKnown[attIndex];
+  }
+
+  /**
+   * Returns the weight per class of the rows missing the attribute.
+   */
+  public final double [] missingCounts(int attIndex) {
+
+    return m_missingCounts[attIndex];
+  }
+
+  /**
+   * Returns the distribution of known rows over the values of a nominal
+   * attribute. The distribution is a new object.
+   */
+  public final Distribution nominalDistribution(int attIndex) {
+
+    double [][] table = new double[m_nominalCounts[attIndex].length][];
+
+    for (int i = 0; i < table.length; i++) {
+      table[i] = m_nominalCounts[attIndex][i].clone();
+    }
+    return new Distribution(table);
+  }
+
+  /**
+   * Returns the distinct known values of a numeric attribute in ascending
+   * order.
+   */
+  public final double [] numericValues(int attIndex) {
+
+    TreeMap<Double, double []> numericCounts = m_numericCounts.get(attIndex);
+    double [] values = new double[numericCounts.size()];
+    Iterator<Double> it = numericCounts.keySet().iterator();
+
+    for (int i = 0; i < values.length; i++) {
+      values[i] = it.next().doubleValue();
+    }
+    return values;
+  }
+
+  /**
+   * Returns the weight per class for each distinct known value of a
+   * numeric attribute, in the order of numericValues().
+   */
+  public final double [][] numericCounts(int attIndex) {
+
+    TreeMap<Double, double []> numericCounts = m_numericCounts.get(attIndex);
+    double [][] counts = new double[numericCounts.size()][];
+    int i = 0;
+
+    for (Map.Entry<Double, double []> entry : numericCounts.entrySet()) {
+      counts[i++] = entry.getValue();
+    }
+    return counts;
+  }
+
+  /**
+   * Returns the revision string.
+   * 
+   * @return		the revision
+   */
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+}
@@ -0,0 +1,102 @@
+
+package J48.Classifier;
+
+import weka.core.Instances;
+
+import java.util.Random;
+
+/**
+ * Class for a bootstrap sample drawn over a shared dataset. The sample is
+ * kept as a vector of integer draw counts per row; views handed to a
+ * learner reference the rows of the shared dataset instead of copying
+ * their attribute values. The views are built on the weka 3.6 API;
+ * callers running on weka 3.8 build them from count() instead.
+ *
+ * @version $Revision$
+ */
+public class BootstrapSample {
+
+  /** Number of times each row was drawn. */
+  private final int [] m_counts;
+
+  /** Number of distinct rows drawn. */
+  private final int m_numDistinct;
+
+  /**
+   * Draws a bootstrap sample of the given size with replacement.
+   *
+   * @param numRows the number of rows of the shared dataset
+   * @param random the random number generator to use
+   */
+  public BootstrapSample(int numRows, Random random) {
+
+    int numDistinct = 0;
+
+    m_counts = new int[numRows];
+    for (int i = 0; i < numRows; i++) {
+      if (m_counts[random.nextInt(numRows)]++ == 0) {
+	numDistinct++;
+      }
+    }
+    m_numDistinct = numDistinct;
+  }
+
+  /**
+   * Returns how often the given row was drawn.
+   */
+  public final int count(int row) {
+
+    return m_counts[row];
+  }
+
+  /**
+   * Returns the number of distinct rows in the sample.
+   */
+  public final int numDistinct() {
+
+    return m_numDistinct;
+  }
+
+  /**
+   * Returns a view of the sample for learners that handle instance
+   * weights: every drawn row appears once, weighted by its draw count.
+   * The rows share their attribute values with the given dataset, which
+   * is not modified.
+   *
+   * @param data the shared dataset the sample was drawn from
+   * @return the weighted view
+   */
+  public Instances weightedView(Instances data) {
+
+    Instances view = new Instances(data, m_numDistinct);
+
+    for (int i = 0; i < m_counts.length; i++) {
+      if (m_counts[i] > 0) {
+	view.add(data.instance(i));
+	view.lastInstance().setWeight(m_counts[i] * data.instance(i).weight());
+      }
+    }
+    return view;
+  }
+
+  /**
+   * Returns a view of the sample for learners that ignore instance
+   * weights: every drawn row appears as often as it was drawn. The rows
+   * share their attribute values with the given dataset, which is not
+   * modified.
+   *
+   * @param data the shared dataset the sample was drawn from
+   * @return the view with repeated rows
+   */
+  public Instances replicatedView(Instances data) {
+
+    Instances view = new Instances(data, m_counts.length);
+
+    for (int i = 0; i < m_counts.length; i++) {
+      for (int j = 0; j < m_counts[i]; j++) {
+	view.add(data.instance(i));
+      }
+    }
+    return view;
+  }
+}
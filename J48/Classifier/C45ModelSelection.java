@@ -2,11 +2,14 @@
 package J48.Classifier;
 
 import weka.core.Attribute;
+import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.RevisionUtils;
 import weka.core.Utils;
 
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Class for selecting a C4.5-type split for a given dataset.
@@ -26,6 +29,20 @@ public class C45ModelSelection
   /** All the training data */
   private Instances m_allData; // 
 
+  /** Distinct values of the numeric attributes in all the training data,
+      if the data itself is not given. */
+  private double [][] m_allValues;
+
+  /** Skip numeric candidates that provably cannot be selected? */
+  private boolean m_boundedSearch = false;
+
+  /** Number of candidate attributes evaluated in full (the selection may
+      be shared by builds in several threads). */
+  private final AtomicLong m_evaluated = new AtomicLong();
+
+  /** Number of candidate attributes skipped by the bounded search. */
+  private final AtomicLong m_skipped = new AtomicLong();
+
   /**
    * Initializes the split selection method with the given parameters.
    *
@@ -45,6 +62,76 @@ public class C45ModelSelection
   public void cleanup() {
 
     m_allData = null;
+    m_allValues = null;
+  }
+
+  /**
+   * Sets the FULL training dataset again after cleanup(), e.g. to select
+   * splits for a tree that is updated with new data.
+   *
+   * @param allData FULL training dataset
+   */
+  public void setAllData(Instances allData) {
+
+    m_allData = allData;
+  }
+
+  /**
+   * Sets the distinct values of the numeric attributes in the FULL
+   * training data from its AVC-group, for builders that don't hold the
+   * data. Split points are then moved to these values, as they are to the
+   * values of the full training data.
+   *
+   * @param group the AVC-group of the FULL training data, or null
+   */
+  public void setAllValues(AVCGroup group) {
+
+    Instances header;
+
+    if (group == null) {
+      m_allValues = null;
+      return;
+    }
+    header = group.header();
+    m_allValues = new double[header.numAttributes()][];
+    for (int i = 0; i < header.numAttributes(); i++) {
+      if ((i != header.classIndex()) && header.attribute(i).isNumeric()) {
+	m_allValues[i] = group.numericValues(i);
+      }
+    }
+  }
+
+  /**
+   * Sets whether numeric candidate attributes are first bounded and
+   * only evaluated in full if they could still be selected.
+   */
+  public void setBoundedSearch(boolean boundedSearch) {
+
+    m_boundedSearch = boundedSearch;
+  }
+
+  /**
+   * Gets whether the bounded search is used.
+   */
+  public boolean getBoundedSearch() {
+
+    return m_boundedSearch;
+  }
+
+  /**
+   * Returns the number of candidate attributes evaluated in full so far.
+   */
+  public long numEvaluated() {
+
+    return m_evaluated.get();
+  }
+
+  /**
+   * Returns the number of candidate attributes skipped so far.
+   */
+  public long numSkipped() {
+
+    return m_skipped.get();
   }
 
   /**
@@ -52,8 +139,19 @@ public class C45ModelSelection
    */
   public final ClassifierSplitModel selectModel(Instances data){
 
-    double minResult;
-    double currentResult;
+    long start = metrics().start();
+    try {
+      return selectSplit(data);
+    } finally {
+      metrics().record(TrainingMetrics.Phase.SELECT_MODEL, start);
+    }
+  }
+
+  /**
+   * Selects C4.5-type split for the given dataset.
+   */
+  private ClassifierSplitModel selectSplit(Instances data){
+
     C45Split [] currentModel;
     C45Split bestModel = null;
     NoSplit noSplitModel = null;
@@ -63,6 +161,9 @@ public class C45ModelSelection
     Distribution checkDistribution;
     Attribute attribute;
     double sumOfWeights;
+    double [] gainBounds, ratioBounds;
+    boolean [] candidates;
+    int numSkipped = 0;
     int i;
     
     try{
@@ -93,6 +194,14 @@ public class C45ModelSelection
 
       currentModel = new C45Split[data.numAttributes()];
       sumOfWeights = data.sumOfWeights();
+      candidates = selectCandidates(data);
+      gainBounds = null;
+      ratioBounds = null;
+      if (m_boundedSearch) {
+	gainBounds = new double[data.numAttributes()];
+	ratioBounds = new double[data.numAttributes()];
+	Arrays.fill(gainBounds, Double.NaN);
+      }
 
       // For each attribute.
       for (i = 0; i < data.numAttributes(); i++){
@@ -102,26 +211,52 @@ public class C45ModelSelection
 	  
 	  // Get models for current attribute.
 	  currentModel[i] = new C45Split(i,m_minNoObj,sumOfWeights);
-	  currentModel[i].buildClassifier(data);
+	  if ((candidates != null) && !candidates[i]) {
+	    continue;
+	  }
+
+	  // Numeric attributes are only bounded for now.
+	  if (m_boundedSearch && data.attribute(i).isNumeric()) {
+	    computeBounds(data, i, sumOfWeights, gainBounds, ratioBounds);
+	    continue;
+	  }
+	  evaluate(currentModel[i], data);
 	  
 	  // Check if useful split for current attribute
 	  // exists and check for enumerated attributes with 
 	  // a lot of values.
-	  if (currentModel[i].checkModel())
-	    if (m_allData != null) {
-	      if ((data.attribute(i).isNumeric()) ||
-		  (multiVal || Utils.sm((double)data.attribute(i).numValues(),
-					(0.3*(double)m_allData.numInstances())))){
-		averageInfoGain = averageInfoGain+currentModel[i].infoGain();
-		validModels++;
-	      } 
-	    } else {
-	      averageInfoGain = averageInfoGain+currentModel[i].infoGain();
-	      validModels++;
-	    }
+	  if (currentModel[i].checkModel() &&
+	      countsForAverage(data, i, multiVal)) {
+	    averageInfoGain = averageInfoGain+currentModel[i].infoGain();
+	    validModels++;
+	  }
 	}else
 	  currentModel[i] = null;
       }
+
+      // Evaluate the bounded candidates that could still be selected.
+      if (m_boundedSearch) {
+	while ((i = nextCandidate(gainBounds, ratioBounds)) != -1) {
+	  if ((validModels > 0) &&
+	      cannotBeSelected(data, currentModel, gainBounds, ratioBounds,
+			       averageInfoGain, validModels)) {
+	    break;
+	  }
+	  evaluate(currentModel[i], data);
+	  gainBounds[i] = ratioBounds[i] = Double.NaN;
+	  if (currentModel[i].checkModel()) {
+	    averageInfoGain = averageInfoGain+currentModel[i].infoGain();
+	    validModels++;
+	  }
+	}
+	for (i = 0; i < data.numAttributes(); i++) {
+	  if (!Double.isNaN(gainBounds[i])) {
+	    numSkipped++;
+	  }
+	}
+	m_skipped.addAndGet(numSkipped);
+	noSplitModel.m_numSkipped = numSkipped;
+      }
       
       // Check if any useful split was found.
       if (validModels == 0)
@@ -129,22 +264,10 @@ public class C45ModelSelection
       averageInfoGain = averageInfoGain/(double)validModels;
 
       // Find "best" attribute to split on.
-      minResult = 0;
-      for (i=0;i<data.numAttributes();i++){
-	if ((i != (data).classIndex()) &&
-	    (currentModel[i].checkModel()))
-	  
-	  // Use 1E-3 here to get a closer approximation to the original
-	  // implementation.
-	  if ((currentModel[i].infoGain() >= (averageInfoGain-1E-3)) &&
-	      Utils.gr(currentModel[i].gainRatio(),minResult)){ 
-	    bestModel = currentModel[i];
-	    minResult = currentModel[i].gainRatio();
-	  } 
-      }
+      bestModel = bestModel(currentModel, data.classIndex(), averageInfoGain);
 
       // Check if useful split was found.
-      if (Utils.eq(minResult,0))
+      if (bestModel == null)
 	return noSplitModel;
       
       // Add all Instances with unknown values for the corresponding
@@ -152,10 +275,130 @@ public class C45ModelSelection
       // the complete distribution is stored with the model. 
       bestModel.distribution().
 	  addInstWithUnknown(data,bestModel.attIndex());
+      bestModel.m_numSkipped = numSkipped;
       
       // Set the split point analogue to C45 if attribute numeric.
-      if (m_allData != null)
-	bestModel.setSplitPoint(m_allData);
+      setSplitPoint(bestModel);
+      return bestModel;
+    }catch(Exception e){
+      e.printStackTrace();
+    }
+    return null;
+  }
+
+  /**
+   * Selects C4.5-type split for a node from its AVC-group. Gives the same
+   * split as selectModel(Instances); split points are moved to data values
+   * if the FULL training data or its values are set, and are at the
+   * midpoint between the two subsets otherwise.
+   *
+   * @param group the AVC-group of the rows at the node
+   */
+  public final ClassifierSplitModel selectModel(AVCGroup group){
+
+    long start = metrics().start();
+    try {
+      return selectSplit(group);
+    } finally {
+      metrics().record(TrainingMetrics.Phase.SELECT_MODEL, start);
+    }
+  }
+
+  /**
+   * Evaluates a candidate split on the given dataset.
+   */
+  private void evaluate(C45Split model, Instances data) throws Exception {
+
+    TrainingMetrics metrics = metrics();
+    boolean numeric = data.attribute(model.attIndex()).isNumeric();
+    long start = metrics.start();
+
+    model.buildClassifier(data);
+    m_evaluated.incrementAndGet();
+    metrics.record(numeric ? TrainingMetrics.Phase.NUMERIC_SPLIT
+		   : TrainingMetrics.Phase.NOMINAL_SPLIT, start);
+    metrics.countCandidate(data.numInstances(), numeric);
+  }
+
+  /**
+   * Evaluates a candidate split on an AVC-group. No rows are touched or
+   * sorted, since the group holds counts.
+   */
+  private void evaluate(C45Split model, AVCGroup group) throws Exception {
+
+    TrainingMetrics metrics = metrics();
+    boolean numeric = group.header().attribute(model.attIndex()).isNumeric();
+    long start = metrics.start();
+
+    model.buildClassifier(group);
+    m_evaluated.incrementAndGet();
+    metrics.record(numeric ? TrainingMetrics.Phase.NUMERIC_SPLIT
+		   : TrainingMetrics.Phase.NOMINAL_SPLIT, start);
+    metrics.countCandidate(0, false);
+  }
+
+  /**
+   * Selects C4.5-type split for a node from its AVC-group.
+   */
+  private ClassifierSplitModel selectSplit(AVCGroup group){
+
+    Instances header = group.header();
+    C45Split [] currentModel;
+    C45Split bestModel;
+    NoSplit noSplitModel = null;
+    double averageInfoGain = 0;
+    int validModels = 0;
+    Distribution checkDistribution;
+    double sumOfWeights;
+    boolean [] candidates;
+    int i;
+
+    try{
+
+      // Check if all Instances belong to one class or if not
+      // enough Instances to split.
+      checkDistribution = group.classDistribution();
+      noSplitModel = new NoSplit(checkDistribution);
+      if (Utils.sm(checkDistribution.total(),2*m_minNoObj) ||
+	  Utils.eq(checkDistribution.total(),
+		   checkDistribution.perClass(checkDistribution.maxClass())))
+	return noSplitModel;
+
+      currentModel = new C45Split[header.numAttributes()];
+      sumOfWeights = checkDistribution.total();
+      candidates = selectCandidates(header);
+
+      // For each attribute.
+      for (i = 0; i < header.numAttributes(); i++){
+	if (i != header.classIndex()){
+	  currentModel[i] = new C45Split(i,m_minNoObj,sumOfWeights);
+	  if ((candidates != null) && !candidates[i]) {
+	    continue;
+	  }
+	  evaluate(currentModel[i], group);
+	  if (currentModel[i].checkModel()) {
+	    averageInfoGain = averageInfoGain+currentModel[i].infoGain();
+	    validModels++;
+	  }
+	}
+      }
+
+      // Check if any useful split was found.
+      if (validModels == 0)
+	return noSplitModel;
+      averageInfoGain = averageInfoGain/(double)validModels;
+
+      // Find "best" attribute to split on.
+      bestModel = bestModel(currentModel, header.classIndex(),
+			    averageInfoGain);
+      if (bestModel == null)
+	return noSplitModel;
+
+      // Add all rows with unknown values for the corresponding
+      // attribute to the distribution for the model.
+      bestModel.distribution().
+	addInstWithUnknown(group.missingCounts(bestModel.attIndex()));
+      setSplitPoint(bestModel);
       return bestModel;
     }catch(Exception e){
       e.printStackTrace();
@@ -163,6 +406,235 @@ public class C45ModelSelection
     return null;
   }
 
+  /**
+   * Moves the split point of a selected numeric split to the greatest value
+   * in the FULL training data not above it, as C4.5 does.
+   */
+  private void setSplitPoint(C45Split model) {
+
+    if (m_allData != null) {
+      model.setSplitPoint(m_allData);
+    } else if ((m_allValues != null) &&
+	       (m_allValues[model.attIndex()] != null)) {
+      model.setSplitPoint(m_allValues[model.attIndex()]);
+    }
+  }
+
+  /**
+   * Returns the valid model with the highest gain ratio among the models
+   * with at least average info gain, or null if there is none with a
+   * positive gain ratio.
+   */
+  private static C45Split bestModel(C45Split [] currentModel, int classIndex,
+				    double averageInfoGain) {
+
+    C45Split bestModel = null;
+    double minResult = 0;
+
+    for (int i = 0; i < currentModel.length; i++){
+      if ((i != classIndex) &&
+	  (currentModel[i].checkModel()))
+	
+	// Use 1E-3 here to get a closer approximation to the original
+	// implementation.
+	if ((currentModel[i].infoGain() >= (averageInfoGain-1E-3)) &&
+	    Utils.gr(currentModel[i].gainRatio(),minResult)){ 
+	  bestModel = currentModel[i];
+	  minResult = currentModel[i].gainRatio();
+	} 
+    }
+    return bestModel;
+  }
+
+  /**
+   * Returns the attributes to consider as candidates at the current node,
+   * or null if all attributes are candidates. Attributes that are not
+   * candidates are treated as if they had no useful split.
+   *
+   * @param data the data at the current node
+   */
+  protected boolean [] selectCandidates(Instances data) {
+
+    return null;
+  }
+
+  /**
+   * Checks whether the info gain of a valid split on the given attribute
+   * enters the average info gain.
+   */
+  private boolean countsForAverage(Instances data, int attIndex,
+				   boolean multiVal) {
+
+    if (m_allData == null) {
+      return true;
+    }
+    return (data.attribute(attIndex).isNumeric()) ||
+      (multiVal || Utils.sm((double)data.attribute(attIndex).numValues(),
+			    (0.3*(double)m_allData.numInstances())));
+  }
+
+  /**
+   * Computes cheap upper bounds on the info gain and gain ratio of a split
+   * on the given numeric attribute in a single pass over the data, without
+   * sorting it. Uses that the gain cannot exceed the entropy of the known
+   * class values nor one bit for a binary split, and that the split
+   * information of a valid split is at least the binary entropy of the
+   * minimum subset size.
+   */
+  private void computeBounds(Instances data, int attIndex,
+			     double sumOfWeights, double [] gainBounds,
+			     double [] ratioBounds) {
+
+    double [] classCounts = new double[data.numClasses()];
+    double known = 0;
+    int numKnown = 0;
+    double firstValue = Double.NaN;
+    boolean twoValues = false;
+    double entropy, minSplit, p, minSplitEnt;
+    Instance instance;
+
+    for (int i = 0; i < data.numInstances(); i++) {
+      instance = data.instance(i);
+      if (instance.isMissing(attIndex)) {
+	continue;
+      }
+      classCounts[(int)instance.classValue()] += instance.weight();
+      known += instance.weight();
+      numKnown++;
+      if (!twoValues) {
+	if (Double.isNaN(firstValue)) {
+	  firstValue = instance.value(attIndex);
+	} else if (Math.abs(instance.value(attIndex)-firstValue) > 1e-5) {
+	  twoValues = true;
+	}
+      }
+    }
+
+    // Same minimum subset size as C45Split.
+    minSplit = 0.1*known/((double)data.numClasses());
+    if (Utils.smOrEq(minSplit,m_minNoObj)) 
+      minSplit = m_minNoObj;
+    else
+      if (Utils.gr(minSplit,25)) 
+	minSplit = 25;
+    if (!twoValues || Utils.sm((double)numKnown,2*minSplit) ||
+	Utils.eq(sumOfWeights,0)) {
+
+      // No valid split possible at all.
+      gainBounds[attIndex] = ratioBounds[attIndex] = 0;
+      return;
+    }
+
+    entropy = 0;
+    for (int j = 0; j < classCounts.length; j++) {
+      if (classCounts[j] > 0) {
+	entropy -= classCounts[j]*Utils.log2(classCounts[j]/known);
+      }
+    }
+    entropy /= known;
+    gainBounds[attIndex] = (known/sumOfWeights)*Math.min(entropy,1);
+    p = Math.min(minSplit/sumOfWeights,0.5);
+    minSplitEnt = -p*Utils.log2(p)-(1-p)*Utils.log2(1-p);
+    ratioBounds[attIndex] = Utils.eq(minSplitEnt,0) ? 1 :
+      Math.min(1,gainBounds[attIndex]/minSplitEnt);
+  }
+
+  /**
+   * Whether the given attribute is still waiting to be evaluated. A bound
+   * of zero means that the attribute cannot give a valid split.
+   */
+  private static boolean isCandidate(double [] gainBounds, int attIndex) {
+
+    return (gainBounds != null) && !Double.isNaN(gainBounds[attIndex]) &&
+      (gainBounds[attIndex] > 0);
+  }
+
+  /**
+   * Returns the pending candidate with the largest gain ratio bound, or -1
+   * if there is none. Attributes that cannot give a valid split at all
+   * are never returned.
+   */
+  private static int nextCandidate(double [] gainBounds,
+				   double [] ratioBounds) {
+
+    int best = -1;
+
+    for (int i = 0; i < gainBounds.length; i++) {
+      if (isCandidate(gainBounds, i) &&
+	  ((best == -1) || (ratioBounds[i] > ratioBounds[best]))) {
+	best = i;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Checks whether none of the pending candidates can change the outcome
+   * of the selection. The pending gains move the average info gain within
+   * a known interval; no evaluated model may change its eligibility within
+   * that interval, and no pending candidate may replace the best model
+   * found so far at its position in the attribute order, even at its gain
+   * ratio bound.
+   */
+  private boolean cannotBeSelected(Instances data, C45Split [] currentModel,
+				   double [] gainBounds, double [] ratioBounds,
+				   double sumOfGains, int validModels) {
+
+    double [] pending;
+    int numPending = 0;
+    double lowAverage, highAverage, sum, average, minResult;
+    int count;
+    boolean lowEligible, highEligible;
+
+    // Interval for the average info gain.
+    pending = new double[gainBounds.length];
+    for (int i = 0; i < gainBounds.length; i++) {
+      if (isCandidate(gainBounds, i)) {
+	pending[numPending++] = gainBounds[i];
+      }
+    }
+    lowAverage = sumOfGains/(double)(validModels+numPending);
+    Arrays.sort(pending, 0, numPending);
+    sum = sumOfGains;
+    count = validModels;
+    for (int j = numPending-1; j >= 0; j--) {
+      if (pending[j] <= sum/(double)count) {
+	break;
+      }
+      sum += pending[j];
+      count++;
+    }
+    highAverage = sum/(double)count;
+
+    // Eligibility of the evaluated models has to be fixed.
+    for (int i = 0; i < data.numAttributes(); i++) {
+      if ((i != data.classIndex()) && currentModel[i].checkModel()) {
+	lowEligible = currentModel[i].infoGain() >= (lowAverage-1E-3);
+	highEligible = currentModel[i].infoGain() >= (highAverage-1E-3);
+	if (lowEligible != highEligible) {
+	  return false;
+	}
+      }
+    }
+
+    // Replay the selection and check the pending candidates on the way.
+    average = sumOfGains/(double)validModels;
+    minResult = 0;
+    for (int i = 0; i < data.numAttributes(); i++) {
+      if (isCandidate(gainBounds, i)) {
+	if (Utils.gr(ratioBounds[i],minResult) &&
+	    (gainBounds[i] >= (lowAverage-1E-3))) {
+	  return false;
+	}
+      } else if ((i != data.classIndex()) && currentModel[i].checkModel() &&
+		 (currentModel[i].infoGain() >= (average-1E-3)) &&
+		 Utils.gr(currentModel[i].gainRatio(),minResult)) {
+	minResult = currentModel[i].gainRatio();
+      }
+    }
+    return true;
+  }
+
   /**
    * Selects C4.5-type split for the given dataset.
    */
@@ -1,7 +1,13 @@
 
 package J48.Classifier;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import weka.core.Capabilities;
+import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.RevisionUtils;
 import weka.core.Utils;
@@ -33,6 +39,72 @@ public class C45PruneableClassifierTree
   /** Cleanup after the tree has been built. */
   boolean m_cleanup = true;
 
+  /** The error estimates for the confidence factor (null after
+      deserialization until needed). */
+  private transient Stats m_stats;
+
+  /** Positions of the rows of m_indexedData by attribute values, built
+      when the node is first updated (see update()). */
+  private transient Map<RowKey, List<Integer>> m_rowIndex;
+
+  /** The training data m_rowIndex refers to. */
+  private transient Instances m_indexedData;
+
+  /** Whether the node was changed by the current update. */
+  private transient boolean m_touched;
+
+  /**
+   * The attribute values of a row, compared bit by bit, as key of the
+   * index of a node's training data.
+   */
+  private static final class RowKey {
+
+    /** The row. */
+    private final Instance m_instance;
+
+    /** The hash code of the values. */
+    private final int m_hash;
+
+    /**
+     * Creates the key of a row.
+     */
+    RowKey(Instance instance) {
+
+      int hash = 1;
+
+      for (int i = 0; i < instance.numAttributes(); i++) {
+	long bits = Double.doubleToLongBits(instance.value(i));
+	hash = 31 * hash + (int) (bits ^ (bits >>> 32));
+      }
+      m_instance = instance;
+      m_hash = hash;
+    }
+
+    public int hashCode() {
+
+      return m_hash;
+    }
+
+    public boolean equals(Object other) {
+
+      if (!(other instanceof RowKey)) {
+	return false;
+      }
+      Instance instance = ((RowKey) other).m_instance;
+      if ((m_hash != ((RowKey) other).m_hash)
+	  || (instance.numAttributes() != m_instance.numAttributes())) {
+	return false;
+      }
+      for (int i = 0; i < m_instance.numAttributes(); i++) {
+	if (Double.doubleToLongBits(instance.value(i))
+	    != Double.doubleToLongBits(m_instance.value(i))) {
+	  return false;
+	}
+      }
+      return true;
+    }
+  }
+
   /**
    * Constructor for pruneable tree structure. Stores reference
    * to associated training data at each node.
@@ -54,6 +126,7 @@ public class C45PruneableClassifierTree
 
     m_pruneTheTree = pruneTree;
     m_CF = cf;
+    m_stats = Stats.forConfidence(cf);
     m_subtreeRaising = raiseTree;
     m_cleanup = cleanup;
   }
@@ -98,13 +171,21 @@ public class C45PruneableClassifierTree
     data = new Instances(data);
     data.deleteWithMissingClass();
     
+   TrainingMetrics metrics = metrics();
+   long start;
    buildTree(data, m_subtreeRaising || !m_cleanup);
+   start = metrics.start();
    collapse();
+   metrics.record(TrainingMetrics.Phase.COLLAPSE, start);
    if (m_pruneTheTree) {
+     start = metrics.start();
      prune();
+     metrics.record(TrainingMetrics.Phase.PRUNE, start);
    }
    if (m_cleanup) {
+     start = metrics.start();
      cleanup(new Instances(data, 0));
+     metrics.record(TrainingMetrics.Phase.CLEANUP, start);
    }
   }
 
@@ -113,11 +194,19 @@ public class C45PruneableClassifierTree
    */
   public final void collapse(){
 
+    collapse(false);
+  }
+
+  /**
+   * Collapses the tree, or only the nodes changed by the current update.
+   */
+  private void collapse(boolean touchedOnly){
+
     double errorsOfSubtree;
     double errorsOfTree;
     int i;
 
-    if (!m_isLeaf){
+    if (!m_isLeaf && (!touchedOnly || m_touched)){
       errorsOfSubtree = getTrainingErrors();
       errorsOfTree = localModel().distribution().numIncorrect();
       if (errorsOfSubtree >= errorsOfTree-1E-3){
@@ -130,7 +219,7 @@ public class C45PruneableClassifierTree
 	m_localModel = new NoSplit(localModel().distribution());
       }else
 	for (i=0;i<m_sons.length;i++)
-	  son(i).collapse();
+	  son(i).collapse(touchedOnly);
     }
   }
 
@@ -141,6 +230,14 @@ public class C45PruneableClassifierTree
    */
   public void prune() throws Exception {
 
+    prune(false);
+  }
+
+  /**
+   * Prunes the tree, or only the nodes changed by the current update.
+   */
+  private void prune(boolean touchedOnly) throws Exception {
+
     double errorsLargestBranch;
     double errorsLeaf;
     double errorsTree;
@@ -148,17 +245,19 @@ public class C45PruneableClassifierTree
     C45PruneableClassifierTree largestBranch;
     int i;
 
-    if (!m_isLeaf){
+    if (!m_isLeaf && (!touchedOnly || m_touched)){
 
       // Prune all subtrees.
       for (i=0;i<m_sons.length;i++)
-	son(i).prune();
+	son(i).prune(touchedOnly);
 
       // Compute error for largest branch
       indexOfLargestBranch = localModel().distribution().maxBag();
       if (m_subtreeRaising) {
+	long start = metrics().start();
 	errorsLargestBranch = son(indexOfLargestBranch).
 	  getEstimatedErrorsForBranch((Instances)m_train);
+	metrics().record(TrainingMetrics.Phase.SUBTREE_RAISING, start);
       } else {
 	errorsLargestBranch = Double.MAX_VALUE;
       }
@@ -190,7 +289,9 @@ public class C45PruneableClassifierTree
 	m_sons = largestBranch.m_sons;
 	m_localModel = largestBranch.localModel();
 	m_isLeaf = largestBranch.m_isLeaf;
+	long start = metrics().start();
 	newDistribution(m_train);
+	metrics().record(TrainingMetrics.Phase.SUBTREE_RAISING, start);
 	prune();
       }
     }
@@ -249,10 +350,10 @@ public class C45PruneableClassifierTree
     if (m_isLeaf)
       return getEstimatedErrorsForDistribution(new Distribution(data));
     else{
-      Distribution savedDist = localModel().m_distribution;
-      localModel().resetDistribution(data);
-      localInstances = (Instances[])localModel().split(data);
-      localModel().m_distribution = savedDist;
+      // Split with a copy of the model, so the tree isn't changed
+      ClassifierSplitModel model = (ClassifierSplitModel) localModel().clone();
+      model.resetDistribution(data);
+      localInstances = (Instances[])model.split(data);
       for (i=0;i<m_sons.length;i++)
 	errors = errors+
 	  son(i).getEstimatedErrorsForBranch(localInstances[i]);
@@ -271,10 +372,12 @@ public class C45PruneableClassifierTree
 
     if (Utils.eq(theDistribution.total(),0))
       return 0;
-    else
-      return theDistribution.numIncorrect()+
-	Stats.addErrs(theDistribution.total(),
-		      theDistribution.numIncorrect(),m_CF);
+    if (m_stats == null) {
+      m_stats = Stats.forConfidence(m_CF);
+    }
+    return theDistribution.numIncorrect()+
+      m_stats.addErrs(theDistribution.total(),
+		      theDistribution.numIncorrect());
   }
 
   /**
@@ -333,6 +436,305 @@ public class C45PruneableClassifierTree
     }
   }
 
+  /**
+   * Updates a tree that kept its training data (built without cleanup)
+   * with appended and removed rows, instead of regrowing it. The deltas
+   * are routed down the tree; each node on their path adds and removes
+   * the rows in its training data, through an index of the rows built
+   * when the node is first updated, and adds and subtracts them in its
+   * split distribution. The split of a node is only selected again if the
+   * weight of its delta exceeds the given fraction of its weight. If the
+   * same split is selected, it replaces the old one and the subtree is
+   * updated further; otherwise the subtree is regrown from the node's
+   * updated data. Splits are selected with the updated training data as
+   * full dataset, so split points are data values as in a rebuilt tree.
+   * Finally the nodes the deltas reached are collapsed and pruned again.
+   * Removed rows are matched by their attribute values.
+   *
+   * @param added the rows to add
+   * @param removed the rows to remove
+   * @param tolerance the fraction of a node's weight its delta may have
+   * before its split is selected again
+   * @return the number of nodes whose split was selected again
+   * @throws Exception if a removed row is not in the training data, or
+   * if something else goes wrong
+   */
+  public int update(Instances added, Instances removed, double tolerance)
+    throws Exception {
+
+    if (m_cleanup || (m_train == null) || (m_toSelectModel == null)) {
+      throw new Exception("Tree has not kept its training data.");
+    }
+    added = new Instances(added);
+    added.deleteWithMissingClass();
+    removed = new Instances(removed);
+    removed.deleteWithMissingClass();
+    if ((added.numInstances() == 0) && (removed.numInstances() == 0)) {
+      return 0;
+    }
+
+    // check the removed rows before changing anything
+    Map<RowKey, List<Integer>> index = rowIndex();
+    Map<RowKey, Integer> toRemove = new HashMap<RowKey, Integer>();
+    for (int k = 0; k < removed.numInstances(); k++) {
+      RowKey key = new RowKey(removed.instance(k));
+      Integer count = toRemove.get(key);
+      count = (count == null) ? 1 : count + 1;
+      List<Integer> positions = index.get(key);
+      if ((positions == null) || (positions.size() < count)) {
+	throw new Exception("Removed row is not in the training data: "
+			    + removed.instance(k));
+      }
+      toRemove.put(key, count);
+    }
+
+    int numSelected;
+    C45ModelSelection modSelection = (m_toSelectModel instanceof
+				      C45ModelSelection) ?
+      (C45ModelSelection) m_toSelectModel : null;
+    if (modSelection != null) {
+      modSelection.setAllData(m_train);
+    }
+    try {
+      numSelected = updateNode(added, removed, tolerance);
+    } finally {
+      if (modSelection != null) {
+	modSelection.cleanup();
+      }
+    }
+    collapse(true);
+    if (m_pruneTheTree) {
+      prune(true);
+    }
+    untouch();
+    return numSelected;
+  }
+
+  /**
+   * Applies the given deltas to this node's training data, its split and
+   * its sons.
+   */
+  private int updateNode(Instances added, Instances removed, double tolerance)
+    throws Exception {
+
+    double weight = localModel().distribution().total();
+    Instances removedRows = new Instances(removed, removed.numInstances());
+    int numSelected = 0;
+    boolean reselected = false;
+
+    m_touched = true;
+    for (int k = 0; k < removed.numInstances(); k++) {
+      Instance row = removeRow(removed.instance(k));
+      if (row == null) {
+	throw new Exception("Removed row is not in the training data of "
+			    + "a node: " + removed.instance(k));
+      }
+      removedRows.add(row);
+    }
+    for (int k = 0; k < added.numInstances(); k++) {
+      addRow(added.instance(k));
+    }
+
+    double delta = added.sumOfWeights() + removedRows.sumOfWeights();
+    if (!Utils.sm(delta, tolerance * weight)) {
+      ClassifierSplitModel model = m_toSelectModel.selectModel(m_train);
+      numSelected++;
+      if (m_isLeaf && (model.numSubsets() <= 1)) {
+	m_localModel = model;
+	m_isEmpty = Utils.eq(m_train.sumOfWeights(), 0);
+	return numSelected;
+      }
+      if (m_isLeaf || !sameSplit(model, localModel(), m_train)) {
+	buildTree(m_train, true);
+	touchAll();
+	return numSelected;
+      }
+
+      // The new split divides the data as the old one, and its split
+      // point and distribution are those of the updated data.
+      m_localModel = model;
+      reselected = true;
+    }
+
+    // Update the distribution and pass the deltas on.
+    if (!reselected) {
+      addToDistribution(added, 1);
+      addToDistribution(removedRows, -1);
+    }
+    if (m_isLeaf) {
+      m_isEmpty = Utils.eq(localModel().distribution().total(), 0);
+      return numSelected;
+    }
+    Instances [] addedSubsets = localModel().split(added);
+    Instances [] removedSubsets = localModel().split(removedRows);
+    for (int i = 0; i < m_sons.length; i++) {
+      if ((addedSubsets[i].numInstances() > 0)
+	  || (removedSubsets[i].numInstances() > 0)) {
+	numSelected += son(i).updateNode(addedSubsets[i], removedSubsets[i],
+					 tolerance);
+      }
+    }
+    return numSelected;
+  }
+
+  /**
+   * Returns the index of the node's training data, built if the data has
+   * been replaced since the index was.
+   */
+  private Map<RowKey, List<Integer>> rowIndex() {
+
+    if ((m_rowIndex == null) || (m_indexedData != m_train)) {
+      m_rowIndex = new HashMap<RowKey, List<Integer>>();
+      for (int k = 0; k < m_train.numInstances(); k++) {
+	RowKey key = new RowKey(m_train.instance(k));
+	List<Integer> positions = m_rowIndex.get(key);
+	if (positions == null) {
+	  positions = new ArrayList<Integer>(1);
+	  m_rowIndex.put(key, positions);
+	}
+	positions.add(k);
+      }
+      m_indexedData = m_train;
+    }
+    return m_rowIndex;
+  }
+
+  /**
+   * Appends a row to the node's training data.
+   */
+  private void addRow(Instance row) {
+
+    Map<RowKey, List<Integer>> index = rowIndex();
+
+    m_train.add(row);
+    RowKey key = new RowKey(m_train.lastInstance());
+    List<Integer> positions = index.get(key);
+    if (positions == null) {
+      positions = new ArrayList<Integer>(1);
+      index.put(key, positions);
+    }
+    positions.add(m_train.numInstances() - 1);
+  }
+
+  /**
+   * Removes a row with the given attribute values from the node's training
+   * data, moving the last row into its place.
+   *
+   * @return the removed row, or null if there is none
+   */
+  private Instance removeRow(Instance row) {
+
+    Map<RowKey, List<Integer>> index = rowIndex();
+    RowKey key = new RowKey(row);
+    List<Integer> positions = index.get(key);
+
+    if (positions == null) {
+      return null;
+    }
+    int position = positions.remove(positions.size() - 1);
+    if (positions.isEmpty()) {
+      index.remove(key);
+    }
+    int last = m_train.numInstances() - 1;
+    Instance removed = m_train.instance(position);
+    if (position != last) {
+      List<Integer> moved = index.get(new RowKey(m_train.instance(last)));
+      moved.set(moved.indexOf(last), position);
+      m_train.swap(position, last);
+    }
+    m_train.delete(last);
+    return removed;
+  }
+
+  /**
+   * Marks all nodes of the subtree as changed by the current update.
+   */
+  private void touchAll() {
+
+    m_touched = true;
+    if (!m_isLeaf) {
+      for (int i = 0; i < m_sons.length; i++) {
+	son(i).touchAll();
+      }
+    }
+  }
+
+  /**
+   * Clears the marks of the nodes changed by the current update.
+   */
+  private void untouch() {
+
+    if (m_touched) {
+      m_touched = false;
+      if (!m_isLeaf) {
+	for (int i = 0; i < m_sons.length; i++) {
+	  son(i).untouch();
+	}
+      }
+    }
+  }
+
+  /**
+   * Returns true if two split models test the same attribute and divide
+   * the given data in the same way. Split points chosen without the full
+   * training data lie between data values, so they may differ from the
+   * split points of the original tree without dividing the data
+   * differently.
+   */
+  private static boolean sameSplit(ClassifierSplitModel model,
+				   ClassifierSplitModel other, Instances data) {
+
+    if (!(model instanceof C45Split) || !(other instanceof C45Split)) {
+      return false;
+    }
+    C45Split split = (C45Split) model;
+    C45Split otherSplit = (C45Split) other;
+    if ((split.attIndex() != otherSplit.attIndex())
+	|| (split.numSubsets() != otherSplit.numSubsets())) {
+      return false;
+    }
+    if (data.attribute(split.attIndex()).isNominal()) {
+      return true;
+    }
+    double low = Math.min(split.splitPoint(), otherSplit.splitPoint());
+    double high = Math.max(split.splitPoint(), otherSplit.splitPoint());
+    for (int k = 0; k < data.numInstances(); k++) {
+      Instance instance = data.instance(k);
+      if (!instance.isMissing(split.attIndex())
+	  && (instance.value(split.attIndex()) > low)
+	  && (instance.value(split.attIndex()) <= high)) {
+	return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Adds the given rows, with the given sign, to the distribution of the
+   * split model; rows with unknown values are fractioned.
+   */
+  private void addToDistribution(Instances rows, double sign)
+    throws Exception {
+
+    ClassifierSplitModel model = localModel();
+    Distribution distribution = model.distribution();
+
+    for (int k = 0; k < rows.numInstances(); k++) {
+      Instance instance = rows.instance(k);
+      int classIndex = (int) instance.classValue();
+      int subset = model.whichSubset(instance);
+      if (subset > -1) {
+	distribution.add(subset, classIndex, sign * instance.weight());
+      } else {
+	double [] weights = model.weights(instance);
+	for (int j = 0; j < weights.length; j++) {
+	  distribution.add(j, classIndex,
+			   sign * instance.weight() * weights[j]);
+	}
+      }
+    }
+  }
+
   /**
    * Method just exists to make program easier to read.
    */
@@ -89,11 +89,47 @@ public class C45Split
     }else{
       m_complexityIndex = 2;
       m_index = 0;
-      trainInstances.sort(trainInstances.attribute(m_attIndex));
-      handleNumericAttribute(trainInstances);
+
+      // Sort the indices of the instances rather than the instances, so
+      // the caller's data keeps its order and isn't copied per candidate
+      handleNumericAttribute(trainInstances, sortedIndices(trainInstances));
     }
   }    
 
+  /**
+   * Creates a C4.5-type split from the AVC-group of a node instead of its
+   * instances. Gives the same split as buildClassifier(Instances), with
+   * the split point left at the midpoint between the two subsets.
+   *
+   * @exception Exception if something goes wrong
+   */
+  public void buildClassifier(AVCGroup group) throws Exception {
+
+    // Initialize the remaining instance variables.
+    m_numSubsets = 0;
+    m_splitPoint = Double.MAX_VALUE;
+    m_infoGain = 0;
+    m_gainRatio = 0;
+
+    if (group.header().attribute(m_attIndex).isNominal()) {
+      m_complexityIndex = group.header().attribute(m_attIndex).numValues();
+      m_index = m_complexityIndex;
+      m_distribution = group.nominalDistribution(m_attIndex);
+      if (m_distribution.check(m_minNoObj)) {
+	m_numSubsets = m_complexityIndex;
+	m_infoGain = infoGainCrit.
+	  splitCritValue(m_distribution,m_sumOfWeights);
+	m_gainRatio = 
+	  gainRatioCrit.splitCritValue(m_distribution,m_sumOfWeights,
+				       m_infoGain);
+      }
+    }else{
+      m_complexityIndex = 2;
+      m_index = 0;
+      handleNumericAttribute(group);
+    }
+  }
+
   /**
    * Returns index of attribute for which split was generated.
    */
@@ -102,6 +138,14 @@ public class C45Split
     return m_attIndex;
   }
 
+  /**
+   * Returns the split point (numeric attributes only).
+   */
+  public final double splitPoint() {
+
+    return m_splitPoint;
+  }
+
   /**
    * Gets class probability for instance.
    *
@@ -179,11 +223,28 @@ public class C45Split
   }
   
   /**
-   * Creates split on numeric attribute.
+   * Returns the indices of the instances in the order Instances.sort()
+   * puts them in: ascending on the split attribute, missing values last.
+   */
+  private int [] sortedIndices(Instances trainInstances) {
+
+    double [] values = new double[trainInstances.numInstances()];
+
+    for (int i = 0; i < values.length; i++) {
+      Instance instance = trainInstances.instance(i);
+      values[i] = instance.isMissing(m_attIndex) ?
+	Double.MAX_VALUE : instance.value(m_attIndex);
+    }
+    return Utils.sortWithNoMissingValues(values);
+  }
+
+  /**
+   * Creates split on numeric attribute, visiting the instances in the
+   * given order.
    *
    * @exception Exception if something goes wrong
    */
-  private void handleNumericAttribute(Instances trainInstances)
+  private void handleNumericAttribute(Instances trainInstances, int [] order)
        throws Exception {
   
     int firstMiss;
@@ -200,10 +261,9 @@ public class C45Split
     m_distribution = new Distribution(2,trainInstances.numClasses());
     
     // Only Instances with known values are relevant.
-    Enumeration enu = trainInstances.enumerateInstances();
     i = 0;
-    while (enu.hasMoreElements()) {
-      instance = (Instance) enu.nextElement();
+    while (i < order.length) {
+      instance = trainInstances.instance(order[i]);
       if (instance.isMissing(m_attIndex))
 	break;
       m_distribution.add(1,instance);
@@ -230,12 +290,12 @@ public class C45Split
     defaultEnt = infoGainCrit.oldEnt(m_distribution);
     while (next < firstMiss) {
 	  
-      if (trainInstances.instance(next-1).value(m_attIndex)+1e-5 < 
-	  trainInstances.instance(next).value(m_attIndex)) { 
+      if (trainInstances.instance(order[next-1]).value(m_attIndex)+1e-5 < 
+	  trainInstances.instance(order[next]).value(m_attIndex)) { 
 	
 	// Move class values for all Instances up to next 
 	// possible split point.
-	m_distribution.shiftRange(1,0,trainInstances,last,next);
+	m_distribution.shiftRange(1,0,trainInstances,order,last,next);
 	
 	// Check if enough Instances in each subset and compute
 	// values for criteria.
@@ -268,19 +328,108 @@ public class C45Split
     // best split.
     m_numSubsets = 2;
     m_splitPoint = 
-      (trainInstances.instance(splitIndex+1).value(m_attIndex)+
-       trainInstances.instance(splitIndex).value(m_attIndex))/2;
+      (trainInstances.instance(order[splitIndex+1]).value(m_attIndex)+
+       trainInstances.instance(order[splitIndex]).value(m_attIndex))/2;
 
     // In case we have a numerical precision problem we need to choose the
     // smaller value
-    if (m_splitPoint == trainInstances.instance(splitIndex + 1).value(m_attIndex)) {
-      m_splitPoint = trainInstances.instance(splitIndex).value(m_attIndex);
+    if (m_splitPoint == trainInstances.instance(order[splitIndex + 1]).value(m_attIndex)) {
+      m_splitPoint = trainInstances.instance(order[splitIndex]).value(m_attIndex);
     }
 
     // Restore distributioN for best split.
     m_distribution = new Distribution(2,trainInstances.numClasses());
-    m_distribution.addRange(0,trainInstances,0,splitIndex+1);
-    m_distribution.addRange(1,trainInstances,splitIndex+1,firstMiss);
+    m_distribution.addRange(0,trainInstances,order,0,splitIndex+1);
+    m_distribution.addRange(1,trainInstances,order,splitIndex+1,firstMiss);
+
+    // Compute modified gain ratio for best split.
+    m_gainRatio = gainRatioCrit.
+      splitCritValue(m_distribution,m_sumOfWeights,
+		     m_infoGain);
+  }
+
+  /**
+   * Creates split on numeric attribute from the counts per distinct value,
+   * following handleNumericAttribute(Instances).
+   *
+   * @exception Exception if something goes wrong
+   */
+  private void handleNumericAttribute(AVCGroup group) throws Exception {
+
+    double [] values = group.numericValues(m_attIndex);
+    double [][] counts = group.numericCounts(m_attIndex);
+    int numClasses = group.header().numClasses();
+    int splitIndex = -1;
+    double currentInfoGain;
+    double defaultEnt;
+    double minSplit;
+    int i;
+
+    m_distribution = new Distribution(2,numClasses);
+    for (i = 0; i < counts.length; i++) {
+      m_distribution.add(1,counts[i]);
+    }
+
+    // Compute minimum number of Instances required in each
+    // subset.
+    minSplit =  0.1*(m_distribution.total())/((double)numClasses);
+    if (Utils.smOrEq(minSplit,m_minNoObj)) 
+      minSplit = m_minNoObj;
+    else
+      if (Utils.gr(minSplit,25)) 
+	minSplit = 25;
+	
+    // Enough Instances with known values?
+    if (Utils.sm((double)group.numKnown(m_attIndex),2*minSplit))
+      return;
+    
+    // Compute values of criteria for all possible split
+    // indices.
+    defaultEnt = infoGainCrit.oldEnt(m_distribution);
+    for (i = 1; i < values.length; i++) {
+
+      // Move class values for the previous value to the first subset.
+      m_distribution.shift(1,0,counts[i-1]);
+      if (values[i-1]+1e-5 < values[i]) {
+	if (Utils.grOrEq(m_distribution.perBag(0),minSplit) &&
+	    Utils.grOrEq(m_distribution.perBag(1),minSplit)) {
+	  currentInfoGain = infoGainCrit.
+	    splitCritValue(m_distribution,m_sumOfWeights,
+			   defaultEnt);
+	  if (Utils.gr(currentInfoGain,m_infoGain)) {
+	    m_infoGain = currentInfoGain;
+	    splitIndex = i-1;
+	  }
+	  m_index++;
+	}
+      }
+    }
+    
+    // Was there any useful split?
+    if (m_index == 0)
+      return;
+    
+    // Compute modified information gain for best split.
+    m_infoGain = m_infoGain-(Utils.log2(m_index)/m_sumOfWeights);
+    if (Utils.smOrEq(m_infoGain,0))
+      return;
+    
+    // Set instance variables' values to values for
+    // best split.
+    m_numSubsets = 2;
+    m_splitPoint = (values[splitIndex+1]+values[splitIndex])/2;
+
+    // In case we have a numerical precision problem we need to choose the
+    // smaller value
+    if (m_splitPoint == values[splitIndex+1]) {
+      m_splitPoint = values[splitIndex];
+    }
+
+    // Restore distribution for best split.
+    m_distribution = new Distribution(2,numClasses);
+    for (i = 0; i < counts.length; i++) {
+      m_distribution.add((i <= splitIndex) ? 0 : 1,counts[i]);
+    }
 
     // Compute modified gain ratio for best split.
     m_gainRatio = gainRatioCrit.
@@ -388,6 +537,33 @@ public class C45Split
     }
   }
   
+  /**
+   * Sets split point to greatest of the given values smaller or equal to
+   * old split point, as setSplitPoint(Instances) does with the data.
+   *
+   * @param values the distinct known values of the split attribute in
+   * the full training data, in ascending order
+   */
+  public final void setSplitPoint(double [] values) {
+
+    int low = 0;
+    int high = values.length;
+    int middle;
+
+    if (m_numSubsets > 1) {
+
+      // find the first value greater than the old split point
+      while (low < high) {
+	middle = (low + high) >>> 1;
+	if (Utils.smOrEq(values[middle], m_splitPoint))
+	  low = middle + 1;
+	else
+	  high = middle;
+      }
+      m_splitPoint = (low > 0) ? values[low - 1] : -Double.MAX_VALUE;
+    }
+  }
+  
   /**
    * Returns the minsAndMaxs of the index.th subset.
    */
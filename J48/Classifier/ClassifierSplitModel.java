@@ -27,6 +27,9 @@ public abstract class ClassifierSplitModel
   /** Number of created subsets. */
   protected int m_numSubsets;         
 
+  /** Number of candidate splits skipped when the model was selected. */
+  protected int m_numSkipped;
+
   /**
    * Allows to clone a model (shallow copy).
    */
@@ -100,6 +103,29 @@ public abstract class ClassifierSplitModel
     }
   }
 
+  /**
+   * Drops what the model only needs for training, before a tree is
+   * stored. Does nothing by default.
+   */
+  public void compact() {
+  }
+
+  /**
+   * Gets the probabilities of all classes for instance.
+   *
+   * @exception Exception if something goes wrong
+   */
+  public double [] classProbs(Instance instance, int theSubset)
+       throws Exception {
+
+    double [] probs = new double[instance.numClasses()];
+
+    for (int i = 0; i < probs.length; i++) {
+      probs[i] = classProb(i, instance, theSubset);
+    }
+    return probs;
+  }
+
   /**
    * Gets class probability for instance.
    *
@@ -198,6 +224,15 @@ public abstract class ClassifierSplitModel
     return text.toString();
   }
  
+  /**
+   * Returns the number of candidate splits that the model selection
+   * skipped without evaluating them when it chose this model.
+   */
+  public final int numSkipped() {
+
+    return m_numSkipped;
+  }
+
   /**
    * Returns the number of created subsets for the split.
    */
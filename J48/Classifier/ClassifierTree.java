@@ -11,6 +11,9 @@ import weka.core.RevisionUtils;
 import weka.core.Utils;
 
 import java.io.Serializable;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Class for handling a tree structure used for
@@ -49,11 +52,17 @@ public class ClassifierTree
   /** The id for the node. */
   protected int m_id;
 
+  /** The metrics scoring is recorded into (root only, null = none). */
+  private transient volatile ScoringMetrics m_scoringMetrics;
+
+  /** The cache of predictions (root only, null = none). */
+  private transient volatile PredictionCache<double []> m_predictionCache;
+
   /** 
    * For getting a unique ID when outputting the tree (hashcode isn't
    * guaranteed unique) 
    */
-  private static long PRINTED_NODES = 0;
+  private static final AtomicLong PRINTED_NODES = new AtomicLong();
 
   /**
    * Gets the next unique node ID.
@@ -62,7 +71,7 @@ public class ClassifierTree
    */
   protected static long nextID() {
 
-    return PRINTED_NODES ++;
+    return PRINTED_NODES.getAndIncrement();
   }
 
   /**
@@ -71,7 +80,7 @@ public class ClassifierTree
    */
   protected static void resetID() {
 
-    PRINTED_NODES = 0;
+    PRINTED_NODES.set(0);
   }
 
   /**
@@ -112,6 +121,18 @@ public class ClassifierTree
     buildTree(data, false);
   }
 
+  /**
+   * Returns the metrics building the tree is recorded into.
+   *
+   * @return the metrics of the model selection, TrainingMetrics.NONE if
+   * there is none
+   */
+  protected final TrainingMetrics metrics() {
+
+    return (m_toSelectModel == null) ? TrainingMetrics.NONE
+      : m_toSelectModel.metrics();
+  }
+
   /**
    * Builds the tree structure.
    *
@@ -133,7 +154,11 @@ public class ClassifierTree
     m_sons = null;
     m_localModel = m_toSelectModel.selectModel(data);
     if (m_localModel.numSubsets() > 1) {
+      TrainingMetrics metrics = metrics();
+      long start = metrics.start();
       localInstances = m_localModel.split(data);
+      metrics.record(TrainingMetrics.Phase.SPLIT, start);
+      metrics.countRows(data.numInstances());
       data = null;
       m_sons = new ClassifierTree [m_localModel.numSubsets()];
       for (int i = 0; i < m_sons.length; i++) {
@@ -172,8 +197,12 @@ public class ClassifierTree
     m_localModel = m_toSelectModel.selectModel(train, test);
     m_test = new Distribution(test, m_localModel);
     if (m_localModel.numSubsets() > 1) {
+      TrainingMetrics metrics = metrics();
+      long start = metrics.start();
       localTrain = m_localModel.split(train);
       localTest = m_localModel.split(test);
+      metrics.record(TrainingMetrics.Phase.SPLIT, start);
+      metrics.countRows(train.numInstances() + test.numInstances());
       train = test = null;
       m_sons = new ClassifierTree [m_localModel.numSubsets()];
       for (i=0;i<m_sons.length;i++) {
@@ -201,16 +230,22 @@ public class ClassifierTree
 
     double maxProb = -1;
     double currentProb;
+    ScoringMetrics metrics = m_scoringMetrics;
+    ScoringMetrics.Probe probe = (metrics == null) ? null : metrics.start();
+    double [] probs = getProbs(instance, m_predictionCache, probe);
     int maxIndex = 0;
     int j;
 
     for (j = 0; j < instance.numClasses(); j++) {
-      currentProb = getProbs(j, instance, 1);
+      currentProb = probs[j];
       if (Utils.gr(currentProb,maxProb)) {
 	maxIndex = j;
 	maxProb = currentProb;
       }
     }
+    if (probe != null) {
+      probe.finish();
+    }
 
     return (double)maxIndex;
   }
@@ -241,17 +276,292 @@ public class ClassifierTree
 						 boolean useLaplace) 
        throws Exception {
 
+    ScoringMetrics metrics = m_scoringMetrics;
+    ScoringMetrics.Probe probe = (metrics == null) ? null : metrics.start();
+
+    if (!useLaplace) {
+      PredictionCache<double []> cache = m_predictionCache;
+      double [] probs = getProbs(instance, cache, probe);
+      if (probe != null) {
+	probe.finish();
+      }
+      return (cache == null) ? probs : probs.clone();
+    }
+
     double [] doubles = new double[instance.numClasses()];
 
+    // the tree is walked once per class; only the first walk is recorded
     for (int i = 0; i < doubles.length; i++) {
-      if (!useLaplace) {
-	doubles[i] = getProbs(i, instance, 1);
+      doubles[i] = getProbsLaplace(i, instance, 1, (i == 0) ? probe : null);
+    }
+    if (probe != null) {
+      probe.finish();
+    }
+
+    return doubles;
+  }
+
+  /**
+   * Starts recording scoring metrics: the latency of predictions made
+   * with classifyInstance() and distributionForInstance(), the nodes they
+   * visit and how often missing values make them take the fractional
+   * path. Nodes are numbered as in the printed tree. The tree must not be
+   * changed while metrics are recorded; enable them again after pruning
+   * or updating it.
+   *
+   * @return the metrics predictions are recorded into
+   */
+  public final ScoringMetrics enableScoringMetrics() {
+
+    assignIDs(-1);
+    ScoringMetrics metrics = new ScoringMetrics(numNodes());
+    m_scoringMetrics = metrics;
+    return metrics;
+  }
+
+  /**
+   * Stops recording scoring metrics.
+   */
+  public final void disableScoringMetrics() {
+
+    m_scoringMetrics = null;
+  }
+
+  /**
+   * Returns the metrics predictions are recorded into.
+   *
+   * @return the metrics, or null if none are recorded
+   */
+  public final ScoringMetrics getScoringMetrics() {
+
+    return m_scoringMetrics;
+  }
+
+  /**
+   * Starts caching the class distributions predicted by classifyInstance()
+   * and distributionForInstance() without laplace, keyed by the values of
+   * the attributes the tree tests (all attributes at naive Bayes leaves).
+   * The tree must not be changed while predictions are cached; enable the
+   * cache again after pruning or updating it.
+   *
+   * @param capacity the largest number of cached distributions
+   * @return the cache
+   * @throws IllegalArgumentException if the tree tests numeric attributes
+   * or too many nominal values to be keyed
+   */
+  public final PredictionCache<double []> enablePredictionCache(int capacity) {
+
+    boolean [] tested = new boolean[m_train.numAttributes()];
+    int numTested = 0;
+
+    testedAttributes(tested);
+    for (int i = 0; i < tested.length; i++) {
+      if (tested[i]) {
+	if (!m_train.attribute(i).isNominal()) {
+	  throw new IllegalArgumentException("Can't cache predictions of trees "
+					     + "testing numeric attribute "
+					     + m_train.attribute(i).name());
+	}
+	numTested++;
+      }
+    }
+    int [] attributes = new int[numTested];
+    int [] numValues = new int[numTested];
+    numTested = 0;
+    for (int i = 0; i < tested.length; i++) {
+      if (tested[i]) {
+	attributes[numTested] = i;
+	numValues[numTested++] = m_train.attribute(i).numValues();
+      }
+    }
+    PredictionCache<double []> cache =
+      new PredictionCache<double []>(attributes, numValues, capacity);
+    m_predictionCache = cache;
+    return cache;
+  }
+
+  /**
+   * Stops caching predictions.
+   */
+  public final void disablePredictionCache() {
+
+    m_predictionCache = null;
+  }
+
+  /**
+   * Returns the cache of predictions.
+   *
+   * @return the cache, or null if predictions aren't cached
+   */
+  public final PredictionCache<double []> getPredictionCache() {
+
+    return m_predictionCache;
+  }
+
+  /**
+   * Marks the attributes the nodes of this subtree test.
+   */
+  private void testedAttributes(boolean [] tested) {
+
+    if (m_isLeaf ? (localModel() instanceof NBTreeNoSplit)
+	: (localModel() instanceof NBTreeSplit)) {
+      for (int i = 0; i < tested.length; i++) {
+	tested[i] = (i != m_train.classIndex());
+      }
+      return;
+    }
+    if (m_isLeaf) {
+      return;
+    }
+    if (!(localModel() instanceof C45Split)) {
+      throw new IllegalArgumentException("Can't cache predictions of "
+					 + localModel().getClass().getName());
+    }
+    tested[((C45Split) localModel()).attIndex()] = true;
+    for (int i = 0; i < m_sons.length; i++) {
+      m_sons[i].testedAttributes(tested);
+    }
+  }
+
+  /**
+   * Compacts the tree, with the header of its training data shared by all
+   * nodes (see compact(Instances)).
+   */
+  public final void compact() {
+
+    compact(new Instances(m_train, 0));
+  }
+
+  /**
+   * Drops everything the tree only needs for training: the training data
+   * and hold-out distributions of the nodes, the model selection, and
+   * what the local models keep for training. All nodes share the given
+   * header afterwards. The tree still classifies as before, but can no
+   * longer be pruned or updated.
+   *
+   * @param header the header of the training data
+   */
+  public final void compact(Instances header) {
+
+    m_train = header;
+    m_test = null;
+    m_toSelectModel = null;
+    localModel().compact();
+    if (!m_isLeaf)
+      for (int i = 0; i < m_sons.length; i++)
+	m_sons[i].compact(header);
+  }
+
+  /**
+   * Returns the tree in compiled form, a frozen snapshot that can be
+   * shared by scoring threads. Only trees of C4.5 and NBTree splits are
+   * supported. The compiled tree predicts the most likely class of its
+   * distributions, so with laplace its predictions can differ from
+   * classifyInstance() on near ties.
+   *
+   * @param useLaplace whether to use laplace or not
+   * @return the compiled tree
+   * @throws Exception if the tree contains other models
+   */
+  public CompiledTree compile(boolean useLaplace) throws Exception {
+
+    CompiledTree.Builder builder = new CompiledTree.Builder();
+    int numClasses;
+
+    if (localModel() instanceof NBTreeNoSplit) {
+      numClasses = table((NBTreeNoSplit) localModel()).numClasses();
+    } else if (localModel() instanceof NBTreeSplit) {
+      numClasses = ((NBTreeSplit) localModel()).c45Split().distribution()
+	.numClasses();
+    } else {
+      numClasses = localModel().distribution().numClasses();
+    }
+
+    return builder.build(compileNode(builder, numClasses, useLaplace),
+			 numClasses);
+  }
+
+  /**
+   * Adds the compiled nodes of this subtree to a builder, children first.
+   *
+   * @return the index of this node
+   * @throws Exception if the subtree contains other models
+   */
+  private int compileNode(CompiledTree.Builder builder, int numClasses,
+			  boolean useLaplace) throws Exception {
+
+    if (m_isLeaf) {
+      if (localModel() instanceof NBTreeNoSplit) {
+	return builder.addLeaf(table((NBTreeNoSplit) localModel()), m_isEmpty);
+      }
+      if (!(localModel() instanceof NoSplit)) {
+	throw new Exception("Can't compile leaves of "
+			    + localModel().getClass().getName());
+      }
+      Distribution dist = localModel().distribution();
+      double [] probs = new double[numClasses];
+      for (int j = 0; j < numClasses; j++) {
+	probs[j] = useLaplace ? dist.laplaceProb(j) : dist.prob(j);
+      }
+      return builder.addLeaf(probs, CompiledTree.classValue(probs), m_isEmpty);
+    }
+    C45Split split;
+    if (localModel() instanceof NBTreeSplit) {
+      split = ((NBTreeSplit) localModel()).c45Split();
+    } else if (localModel() instanceof C45Split) {
+      split = (C45Split) localModel();
+    } else {
+      throw new Exception("Can't compile nodes of "
+			  + localModel().getClass().getName());
+    }
+    Distribution dist = split.distribution();
+    int [] children = new int[m_sons.length];
+    double [] weights = new double[m_sons.length];
+    for (int i = 0; i < m_sons.length; i++) {
+      if (!son(i).m_isEmpty) {
+	children[i] = son(i).compileNode(builder, numClasses, useLaplace);
+      } else if (localModel() instanceof NBTreeSplit) {
+
+	// Rows reaching an empty son are classified by this node's model
+	NBTreeSplit nbSplit = (NBTreeSplit) localModel();
+	children[i] = builder.addLeaf(table(nbSplit.getGlobalModel()), true);
       } else {
-	doubles[i] = getProbsLaplace(i, instance, 1);
+	double [] probs = new double[numClasses];
+	for (int j = 0; j < numClasses; j++) {
+	  if (useLaplace) {
+	    probs[j] = dist.laplaceProb(j, i);
+	  } else if (Utils.gr(dist.perBag(i), 0)) {
+	    probs[j] = dist.prob(j, i);
+	  } else {
+	    probs[j] = dist.prob(j);
+	  }
+	}
+	children[i] = builder.addLeaf(probs, CompiledTree.classValue(probs),
+				      true);
       }
+      weights[i] = dist.perBag(i) / dist.total();
+    }
+    // Splits on nominal attributes keep the initial split point
+    if (split.splitPoint() != Double.MAX_VALUE) {
+      return builder.addNumericNode(split.attIndex(), split.splitPoint(),
+				    children, weights);
     }
+    return builder.addNominalNode(split.attIndex(), children, weights);
+  }
 
-    return doubles;
+  /**
+   * Returns the compiled table of a naive Bayes model.
+   *
+   * @throws Exception if the model has no table
+   */
+  private static CompiledTree.NaiveBayesTable table(NBTreeNoSplit model)
+    throws Exception {
+
+    if (model.table() == null) {
+      throw new Exception("Can't compile naive Bayes models that "
+			  + "aren't over counts");
+    }
+    return model.table();
   }
 
   /**
@@ -290,34 +600,52 @@ public class ClassifierTree
    */
   public String graph() throws Exception {
 
-    StringBuffer text = new StringBuffer();
+    StringWriter text = new StringWriter();
 
-    assignIDs(-1);
-    text.append("digraph J48Tree {\n");
-    if (m_isLeaf) {
-      text.append("N" + m_id 
-		  + " [label=\"" + 
-		  Utils.quote(m_localModel.dumpLabel(0,m_train)) + "\" " + 
-		  "shape=box style=filled ");
-      if (m_train != null && m_train.numInstances() > 0) {
-	text.append("data =\n" + m_train + "\n");
-	text.append(",\n");
+    writeGraph(text, 0, 0, true);
+    return text.toString();
+  }
 
+  /**
+   * Writes the graph of the subtree of the node with the given ID to a
+   * writer, node by node. Nodes are numbered in prefix order, starting
+   * with 0 at the root (as by assignIDs). Below the given depth, subtrees
+   * are drawn as a single box naming their ID and size, so they can be
+   * written next.
+   *
+   * @param out the writer to write to
+   * @param nodeId the ID of the node to start at
+   * @param maxDepth the number of levels of tests to write (0 for all)
+   * @param withData whether to include the training data kept at nodes
+   * @throws Exception if there is no node with the ID or something goes
+   * wrong
+   */
+  public void writeGraph(Writer out, int nodeId, int maxDepth,
+			 boolean withData) throws Exception {
+
+    ClassifierTree node = findNode(nodeId);
+
+    out.write("digraph J48Tree {\n");
+    if (node.m_isLeaf) {
+      out.write("N" + nodeId 
+		+ " [label=\"" + 
+		Utils.quote(node.m_localModel.dumpLabel(0,node.m_train)) + "\" " + 
+		"shape=box style=filled ");
+      if (withData && node.m_train != null && node.m_train.numInstances() > 0) {
+	writeData(out, node.m_train);
       }
-      text.append("]\n");
+      out.write("]\n");
     }else {
-      text.append("N" + m_id 
-		  + " [label=\"" + 
-		  Utils.quote(m_localModel.leftSide(m_train)) + "\" ");
-      if (m_train != null && m_train.numInstances() > 0) {
-	text.append("data =\n" + m_train + "\n");
-	text.append(",\n");
-     }
-      text.append("]\n");
-      graphTree(text);
+      out.write("N" + nodeId 
+		+ " [label=\"" + 
+		Utils.quote(node.m_localModel.leftSide(node.m_train)) + "\" ");
+      if (withData && node.m_train != null && node.m_train.numInstances() > 0) {
+	writeData(out, node.m_train);
+      }
+      out.write("]\n");
+      node.graphTree(out, 0, maxDepth, nodeId, withData);
     }
-    
-    return text.toString() +"}\n";
+    out.write("}\n");
   }
 
   /**
@@ -328,16 +656,25 @@ public class ClassifierTree
    */
   public String prefix() throws Exception {
     
-    StringBuffer text;
+    StringWriter text = new StringWriter();
+
+    writePrefix(text);
+    return text.toString();
+  }
+
+  /**
+   * Writes the tree in prefix order to a writer, node by node.
+   *
+   * @param out the writer to write to
+   * @throws Exception if something goes wrong
+   */
+  public void writePrefix(Writer out) throws Exception {
 
-    text = new StringBuffer();
     if (m_isLeaf) {
-      text.append("["+m_localModel.dumpLabel(0,m_train)+"]");
+      out.write("["+m_localModel.dumpLabel(0,m_train)+"]");
     }else {
-      prefixTree(text);
+      prefixTree(out);
     }
-    
-    return text.toString();
   }
 
   /**
@@ -448,22 +785,77 @@ public class ClassifierTree
   public String toString() {
 
     try {
-      StringBuffer text = new StringBuffer();
-      
-      if (m_isLeaf) {
-	text.append(": ");
-	text.append(m_localModel.dumpLabel(0,m_train));
-      }else
-	dumpTree(0,text);
-      text.append("\n\nNumber of Leaves  : \t"+numLeaves()+"\n");
-      text.append("\nSize of the tree : \t"+numNodes()+"\n");
- 
+      StringWriter text = new StringWriter();
+
+      writeTree(text, 0, 0);
       return text.toString();
     } catch (Exception e) {
       return "Can't print classification tree.";
     }
   }
 
+  /**
+   * Writes the structure of the subtree of the node with the given ID to
+   * a writer, as toString() does, node by node. Nodes are numbered in
+   * prefix order, starting with 0 at the root (as by assignIDs). Below
+   * the given depth, subtrees are replaced by their ID and size, so they
+   * can be written next.
+   *
+   * @param out the writer to write to
+   * @param nodeId the ID of the node to start at
+   * @param maxDepth the number of levels of tests to write (0 for all)
+   * @throws Exception if there is no node with the ID or something goes
+   * wrong
+   */
+  public void writeTree(Writer out, int nodeId, int maxDepth)
+    throws Exception {
+
+    ClassifierTree node = findNode(nodeId);
+
+    if (node.m_isLeaf) {
+      out.write(": ");
+      out.write(node.m_localModel.dumpLabel(0,node.m_train));
+    }else
+      node.dumpTree(0, maxDepth, nodeId, out);
+    out.write("\n\nNumber of Leaves  : \t"+node.numLeaves()+"\n");
+    out.write("\nSize of the tree : \t"+node.numNodes()+"\n");
+  }
+
+  /**
+   * Returns the node with the given ID, numbering nodes in prefix order
+   * from 0 at this node.
+   *
+   * @param nodeId the ID
+   * @return the node
+   * @throws Exception if there is no node with the ID
+   */
+  private ClassifierTree findNode(int nodeId) throws Exception {
+
+    ClassifierTree node = this;
+    int id = 0;
+
+    while (id < nodeId && !node.m_isLeaf) {
+      ClassifierTree next = null;
+      id++;
+      for (int i = 0; i < node.m_sons.length; i++) {
+	int size = node.m_sons[i].numNodes();
+	if (nodeId < id + size) {
+	  next = node.m_sons[i];
+	  break;
+	}
+	id += size;
+      }
+      if (next == null) {
+	break;
+      }
+      node = next;
+    }
+    if (id != nodeId) {
+      throw new Exception("No node with ID " + nodeId + ".");
+    }
+    return node;
+  }
+
   /**
    * Returns a newly created tree.
    *
@@ -500,91 +892,136 @@ public class ClassifierTree
    * Help method for printing tree structure.
    *
    * @param depth the current depth
-   * @param text for outputting the structure
+   * @param maxDepth the number of levels to print (0 for all)
+   * @param id the ID of this node
+   * @param out for outputting the structure
+   * @return the ID of the node following this subtree
    * @throws Exception if something goes wrong
    */
-  private void dumpTree(int depth, StringBuffer text) 
+  private int dumpTree(int depth, int maxDepth, int id, Writer out) 
        throws Exception {
     
     int i,j;
+    int next = id + 1;
     
     for (i=0;i<m_sons.length;i++) {
-      text.append("\n");;
+      out.write("\n");
       for (j=0;j<depth;j++)
-	text.append("|   ");
-      text.append(m_localModel.leftSide(m_train));
-      text.append(m_localModel.rightSide(i, m_train));
+	out.write("|   ");
+      out.write(m_localModel.leftSide(m_train));
+      out.write(m_localModel.rightSide(i, m_train));
       if (m_sons[i].m_isLeaf) {
-	text.append(": ");
-	text.append(m_localModel.dumpLabel(i,m_train));
+	out.write(": ");
+	out.write(m_localModel.dumpLabel(i,m_train));
+	next++;
+      }else if ((maxDepth > 0) && (depth + 1 >= maxDepth)) {
+	out.write(": ... [N" + next + ", " + m_sons[i].numNodes() + " nodes]");
+	next += m_sons[i].numNodes();
       }else
-	m_sons[i].dumpTree(depth+1,text);
+	next = m_sons[i].dumpTree(depth+1, maxDepth, next, out);
     }
+    return next;
   }
 
   /**
    * Help method for printing tree structure as a graph.
    *
-   * @param text for outputting the tree
+   * @param out for outputting the tree
+   * @param depth the current depth
+   * @param maxDepth the number of levels to print (0 for all)
+   * @param id the ID of this node
+   * @param withData whether to include the training data kept at nodes
+   * @return the ID of the node following this subtree
    * @throws Exception if something goes wrong
    */
-  private void graphTree(StringBuffer text) throws Exception {
+  private int graphTree(Writer out, int depth, int maxDepth, int id,
+			boolean withData) throws Exception {
     
+    int next = id + 1;
+
     for (int i = 0; i < m_sons.length; i++) {
-      text.append("N" + m_id  
-		  + "->" + 
-		  "N" + m_sons[i].m_id +
-		  " [label=\"" + Utils.quote(m_localModel.rightSide(i,m_train).trim()) + 
-		  "\"]\n");
+      int sonId = next;
+      out.write("N" + id  
+		+ "->" + 
+		"N" + sonId +
+		" [label=\"" + Utils.quote(m_localModel.rightSide(i,m_train).trim()) + 
+		"\"]\n");
       if (m_sons[i].m_isLeaf) {
-	text.append("N" + m_sons[i].m_id +
-		    " [label=\""+ Utils.quote(m_localModel.dumpLabel(i,m_train))+"\" "+ 
-		    "shape=box style=filled ");
-	if (m_train != null && m_train.numInstances() > 0) {
-	  text.append("data =\n" + m_sons[i].m_train + "\n");
-	  text.append(",\n");
+	out.write("N" + sonId +
+		  " [label=\""+ Utils.quote(m_localModel.dumpLabel(i,m_train))+"\" "+ 
+		  "shape=box style=filled ");
+	if (withData && m_train != null && m_train.numInstances() > 0) {
+	  writeData(out, m_sons[i].m_train);
 	}
-	text.append("]\n");
+	out.write("]\n");
+	next++;
+      } else if ((maxDepth > 0) && (depth + 1 >= maxDepth)) {
+	out.write("N" + sonId +
+		  " [label=\"N" + sonId + ": " + m_sons[i].numNodes() 
+		  + " nodes\" shape=box style=dashed]\n");
+	next += m_sons[i].numNodes();
       } else {
-	text.append("N" + m_sons[i].m_id +
-		    " [label=\""+ Utils.quote(m_sons[i].m_localModel.leftSide(m_train))+ 
-		    "\" ");
-	if (m_train != null && m_train.numInstances() > 0) {
-	  text.append("data =\n" + m_sons[i].m_train + "\n");
-	  text.append(",\n");
+	out.write("N" + sonId +
+		  " [label=\""+ Utils.quote(m_sons[i].m_localModel.leftSide(m_train))+ 
+		  "\" ");
+	if (withData && m_train != null && m_train.numInstances() > 0) {
+	  writeData(out, m_sons[i].m_train);
 	}
-	text.append("]\n");
-	m_sons[i].graphTree(text);
+	out.write("]\n");
+	next = m_sons[i].graphTree(out, depth + 1, maxDepth, sonId, withData);
+      }
+    }
+    return next;
+  }
+
+  /**
+   * Writes the training data of a node into its graph label, row by row.
+   *
+   * @param out for outputting the data
+   * @param data the data
+   * @throws Exception if something goes wrong
+   */
+  private static void writeData(Writer out, Instances data) 
+    throws Exception {
+
+    out.write("data =\n");
+    out.write(new Instances(data, 0).toString());
+    for (int i = 0; i < data.numInstances(); i++) {
+      if (i > 0) {
+	out.write("\n");
       }
+      out.write(data.instance(i).toString());
     }
+    out.write("\n");
+    out.write(",\n");
   }
 
   /**
    * Prints the tree in prefix form
    * 
-   * @param text the buffer to output the prefix form to
+   * @param out the writer to output the prefix form to
    * @throws Exception if something goes wrong
    */
-  private void prefixTree(StringBuffer text) throws Exception {
+  private void prefixTree(Writer out) throws Exception {
 
-    text.append("[");
-    text.append(m_localModel.leftSide(m_train)+":");
+    out.write("[");
+    out.write(m_localModel.leftSide(m_train)+":");
     for (int i = 0; i < m_sons.length; i++) {
       if (i > 0) {
-	text.append(",\n");
+	out.write(",\n");
       }
-      text.append(m_localModel.rightSide(i, m_train));
+      out.write(m_localModel.rightSide(i, m_train));
     }
     for (int i = 0; i < m_sons.length; i++) {
       if (m_sons[i].m_isLeaf) {
-	text.append("[");
-	text.append(m_localModel.dumpLabel(i,m_train));
-	text.append("]");
+	out.write("[");
+	out.write(m_localModel.dumpLabel(i,m_train));
+	out.write("]");
       } else {
-	m_sons[i].prefixTree(text);
+	m_sons[i].prefixTree(out);
       }
     }
-    text.append("]");
+    out.write("]");
   }
 
   /**
@@ -594,24 +1031,32 @@ public class ClassifierTree
    * @param classIndex the class index
    * @param instance the instance to compute the probabilities for
    * @param weight the weight to use
+   * @param probe records the nodes visited (null = none)
    * @return the laplace probs
    * @throws Exception if something goes wrong
    */
-  private double getProbsLaplace(int classIndex, Instance instance, double weight) 
+  private double getProbsLaplace(int classIndex, Instance instance, double weight,
+				 ScoringMetrics.Probe probe) 
     throws Exception {
     
     double prob = 0;
     
+    if (probe != null) {
+      probe.visit(m_id);
+    }
     if (m_isLeaf) {
       return weight * localModel().classProbLaplace(classIndex, instance, -1);
     } else {
       int treeIndex = localModel().whichSubset(instance);
       if (treeIndex == -1) {
 	double[] weights = localModel().weights(instance);
+	if (probe != null) {
+	  probe.fractional();
+	}
 	for (int i = 0; i < m_sons.length; i++) {
 	  if (!son(i).m_isEmpty) {
         prob += son(i).getProbsLaplace(classIndex, instance, 
-					     weights[i] * weight);
+					     weights[i] * weight, probe);
 	  }
 	}
 	return prob;
@@ -620,49 +1065,97 @@ public class ClassifierTree
 	  return weight * localModel().classProbLaplace(classIndex, instance, 
 							treeIndex);
 	} else {
-	  return son(treeIndex).getProbsLaplace(classIndex, instance, weight);
+	  return son(treeIndex).getProbsLaplace(classIndex, instance, weight,
+						probe);
 	}
       }
     }
   }
 
   /**
-   * Help method for computing class probabilities of 
-   * a given instance.
-   * 
-   * @param classIndex the class index
+   * Returns the class probabilities of an instance from a cache, computing
+   * and caching them if they aren't cached or the instance can't be keyed.
+   * Cached probabilities are shared and must not be changed.
+   *
+   * @param instance the instance to compute the probabilities for
+   * @param cache the cache (null = none)
+   * @param probe records the nodes visited (null = none)
+   * @return the probabilities
+   * @throws Exception if something goes wrong
+   */
+  private double [] getProbs(Instance instance,
+			     PredictionCache<double []> cache,
+			     ScoringMetrics.Probe probe) throws Exception {
+
+    if (cache == null) {
+      return getProbs(instance, 1, probe);
+    }
+    long key = 0;
+    for (int i = 0; i < cache.numAttributes(); i++) {
+      key = cache.pack(key, i, instance.value(cache.attribute(i)));
+    }
+    if (key < 0) {
+      return getProbs(instance, 1, probe);
+    }
+    double [] probs = cache.get(key);
+    if (probs == null) {
+      probs = getProbs(instance, 1, probe);
+      cache.put(key, probs);
+    }
+    return probs;
+  }
+
+  /**
+   * Help method for computing the class probabilities of a given
+   * instance in one pass down the tree.
+   *
    * @param instance the instance to compute the probabilities for
    * @param weight the weight to use
-   * @return the probs
+   * @param probe records the nodes visited (null = none)
+   * @return the probabilities
    * @throws Exception if something goes wrong
    */
-  private double getProbs(int classIndex, Instance instance, double weight) 
+  private double [] getProbs(Instance instance, double weight,
+			     ScoringMetrics.Probe probe) 
     throws Exception {
     
-    double prob = 0;
+    double [] probs;
     
+    if (probe != null) {
+      probe.visit(m_id);
+    }
     if (m_isLeaf) {
-      return weight * localModel().classProb(classIndex, instance, -1);
+      probs = localModel().classProbs(instance, -1);
     } else {
       int treeIndex = localModel().whichSubset(instance);
       if (treeIndex == -1) {
 	double[] weights = localModel().weights(instance);
+	probs = new double[instance.numClasses()];
+	if (probe != null) {
+	  probe.fractional();
+	}
 	for (int i = 0; i < m_sons.length; i++) {
 	  if (!son(i).m_isEmpty) {
-	    prob += son(i).getProbs(classIndex, instance, 
-				    weights[i] * weight);
+	    double [] sonProbs = son(i).getProbs(instance, 
+						 weights[i] * weight, probe);
+	    for (int j = 0; j < probs.length; j++) {
+	      probs[j] += sonProbs[j];
+	    }
 	  }
 	}
-	return prob;
+	return probs;
       } else {
 	if (son(treeIndex).m_isEmpty) {
-	  return weight * localModel().classProb(classIndex, instance, 
-						 treeIndex);
+	  probs = localModel().classProbs(instance, treeIndex);
 	} else {
-	  return son(treeIndex).getProbs(classIndex, instance, weight);
+	  return son(treeIndex).getProbs(instance, weight, probe);
 	}
       }
     }
+    for (int j = 0; j < probs.length; j++) {
+      probs[j] = weight * probs[j];
+    }
+    return probs;
   }
 
   /**
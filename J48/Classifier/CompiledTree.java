@@ -0,0 +1,1049 @@
+
+package J48.Classifier;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import weka.core.Utils;
+
+/**
+ * Immutable, flat-array form of a trained decision tree for scoring. Nodes
+ * are numbered, and each node's test, children and class distribution are
+ * kept in primitive arrays, so scoring does not allocate on the common
+ * path. Rows are given as arrays of attribute values (missing values are
+ * NaN, as in Instance), as arrays of value indices, or packed in a
+ * ByteBuffer, so callers need not build an Instance per row; rows with a
+ * missing test value are fractioned over the children, as C4.5 does, if
+ * the tree supports that. Leaves either hold a fixed class distribution
+ * or, for NBTrees, a naive Bayes table.
+ *
+ * A compiled tree is a frozen snapshot of the model it was compiled from:
+ * all fields are final, arrays are copied on the way in and never handed
+ * out, and nothing refers back to the training data or the original tree.
+ * It can therefore be shared by any number of scoring threads without
+ * locking or copies per thread, and it doesn't change when the original
+ * model is retrained.
+ *
+ * @version $Revision$
+ */
+public final class CompiledTree
+  extends FlatTree
+  implements Serializable {
+
+  /** for serialization */
+  private static final long serialVersionUID = 2637412318856153095L;
+
+  /** Estimated size of an object header in bytes. */
+  private static final int OBJECT_HEADER = 12;
+
+  /** Estimated size of a reference in bytes. */
+  private static final int REFERENCE = 4;
+
+  /** Attribute tested at each node (-1 for leaves). */
+  private final int [] m_attribute;
+
+  /** Split point of numeric tests (NaN for nominal tests). */
+  private final double [] m_splitPoint;
+
+  /** Index of the first child of each node in m_children. */
+  private final int [] m_firstChild;
+
+  /** Number of children of each node. */
+  private final int [] m_numChildren;
+
+  /** The children of all nodes, contiguous per node. */
+  private final int [] m_children;
+
+  /** Offset of the class distribution of each leaf in m_probs or
+      m_floatProbs (-1 if the node has none). */
+  private final int [] m_probOffset;
+
+  /** Class distributions of the leaves, one after another (null if they
+      are stored as floats). */
+  private final double [] m_probs;
+
+  /** Class distributions of the leaves as floats (null if they are
+      stored as doubles). */
+  private final float [] m_floatProbs;
+
+  /** Predicted class of each leaf (NaN if it predicts none). */
+  private final double [] m_classValue;
+
+  /** Fractions of a row with a missing test value going to each child
+      (null if missing values are not supported). */
+  private final double [][] m_missingWeights;
+
+  /** Naive Bayes table of each leaf (null for fixed distributions). */
+  private final NaiveBayesTable [] m_tables;
+
+  /** Leaves left out when a row is fractioned over the children. */
+  private final boolean [] m_empty;
+
+  /** The root node. */
+  private final int m_root;
+
+  /** The number of classes. */
+  private final int m_numClasses;
+
+  /**
+   * Immutable naive Bayes model over nominal and discretised attributes,
+   * as tables of log-probabilities.
+   */
+  public static final class NaiveBayesTable
+    implements Serializable {
+
+    /** for serialization */
+    private static final long serialVersionUID = -4920372841853190246L;
+
+    /** The cut points per attribute (null if the attribute is not
+	discretised or has no cut points). */
+    private final double [][] m_cutPoints;
+
+    /** Whether an attribute is discretised. */
+    private final boolean [] m_discretized;
+
+    /** Log of the class priors. */
+    private final double [] m_logPriors;
+
+    /** Log of the probabilities per attribute (null if not used), indexed
+	by value times number of classes plus class. */
+    private final double [][] m_logProbs;
+
+    /**
+     * Creates a table from copies of the given arrays.
+     *
+     * @param cutPoints the cut points per attribute
+     * @param discretized whether an attribute is discretised
+     * @param logPriors log of the class priors
+     * @param logProbs log of the probabilities per attribute
+     */
+    public NaiveBayesTable(double [][] cutPoints, boolean [] discretized,
+			   double [] logPriors, double [][] logProbs) {
+
+      m_cutPoints = new double[cutPoints.length][];
+      for (int i = 0; i < cutPoints.length; i++) {
+	m_cutPoints[i] = (cutPoints[i] == null) ? null : cutPoints[i].clone();
+      }
+      m_discretized = discretized.clone();
+      m_logPriors = logPriors.clone();
+      m_logProbs = new double[logProbs.length][];
+      for (int i = 0; i < logProbs.length; i++) {
+	m_logProbs[i] = (logProbs[i] == null) ? null : logProbs[i].clone();
+      }
+    }
+
+    /**
+     * Returns the number of classes.
+     */
+    public int numClasses() {
+
+      return m_logPriors.length;
+    }
+
+    /**
+     * Returns an estimate of the heap space the table takes, in bytes.
+     */
+    long heapSize() {
+
+      long size = OBJECT_HEADER + 4 * REFERENCE
+	+ arraySize(m_cutPoints.length, REFERENCE)
+	+ arraySize(m_discretized.length, 1)
+	+ arraySize(m_logPriors.length, 8)
+	+ arraySize(m_logProbs.length, REFERENCE);
+      for (int i = 0; i < m_cutPoints.length; i++) {
+	if (m_cutPoints[i] != null) {
+	  size += arraySize(m_cutPoints[i].length, 8);
+	}
+      }
+      for (int i = 0; i < m_logProbs.length; i++) {
+	if (m_logProbs[i] != null) {
+	  size += arraySize(m_logProbs[i].length, 8);
+	}
+      }
+      return size;
+    }
+
+    /**
+     * Returns the class probabilities for a row. Missing values are
+     * ignored.
+     *
+     * @param values the attribute values of the row
+     * @return the class probabilities
+     */
+    public double [] probs(double [] values) {
+
+      int numClasses = m_logPriors.length;
+      double [] probs = m_logPriors.clone();
+
+      for (int i = 0; i < m_logProbs.length; i++) {
+	if ((m_logProbs[i] == null) || Double.isNaN(values[i])) {
+	  continue;
+	}
+	int offset = bin(i, values[i]) * numClasses;
+	for (int j = 0; j < numClasses; j++) {
+	  probs[j] += m_logProbs[i][offset + j];
+	}
+      }
+      double max = probs[Utils.maxIndex(probs)];
+      for (int j = 0; j < numClasses; j++) {
+	probs[j] = Math.exp(probs[j] - max);
+      }
+      Utils.normalize(probs);
+      return probs;
+    }
+
+    /**
+     * Returns the value of an attribute after discretisation: the index of
+     * the first cut point that is not smaller than the value.
+     */
+    private int bin(int attIndex, double value) {
+
+      if (!m_discretized[attIndex]) {
+	return (int) value;
+      }
+      double [] cutPoints = m_cutPoints[attIndex];
+      if (cutPoints == null) {
+	return 0;
+      }
+      int low = 0;
+      int high = cutPoints.length;
+      while (low < high) {
+	int middle = (low + high) >>> 1;
+	if (cutPoints[middle] < value) {
+	  low = middle + 1;
+	} else {
+	  high = middle;
+	}
+      }
+      return low;
+    }
+  }
+
+  /**
+   * Collects the nodes of a tree, children before their parents.
+   */
+  public static class Builder {
+
+    /** The attributes of the nodes. */
+    private final List<Integer> m_attribute = new ArrayList<Integer>();
+
+    /** The split points of the nodes. */
+    private final List<Double> m_splitPoint = new ArrayList<Double>();
+
+    /** The children of the nodes. */
+    private final List<int []> m_children = new ArrayList<int []>();
+
+    /** The distributions of the nodes. */
+    private final List<double []> m_distribution = new ArrayList<double []>();
+
+    /** The class values of the nodes. */
+    private final List<Double> m_classValue = new ArrayList<Double>();
+
+    /** The missing value weights of the nodes. */
+    private final List<double []> m_missingWeights = new ArrayList<double []>();
+
+    /** The naive Bayes tables of the nodes. */
+    private final List<NaiveBayesTable> m_tables = new ArrayList<NaiveBayesTable>();
+
+    /** The empty flags of the nodes. */
+    private final List<Boolean> m_empty = new ArrayList<Boolean>();
+
+    /**
+     * Adds a leaf and returns its index.
+     *
+     * @param distribution the class distribution
+     * @param classValue the predicted class (NaN for none)
+     * @param empty whether the leaf is left out when rows are fractioned
+     * @return the index of the leaf
+     */
+    public int addLeaf(double [] distribution, double classValue,
+		       boolean empty) {
+
+      return add(-1, Double.NaN, new int[0], distribution, classValue,
+		 null, null, empty);
+    }
+
+    /**
+     * Adds a leaf classifying with a naive Bayes table and returns its
+     * index.
+     *
+     * @param table the naive Bayes table
+     * @param empty whether the leaf is left out when rows are fractioned
+     * @return the index of the leaf
+     */
+    public int addLeaf(NaiveBayesTable table, boolean empty) {
+
+      return add(-1, Double.NaN, new int[0], null, Double.NaN, null, table,
+		 empty);
+    }
+
+    /**
+     * Adds an inner node testing a nominal attribute, with one child per
+     * value, and returns its index.
+     *
+     * @param attribute the attribute tested
+     * @param children the children, indexed by value
+     * @param missingWeights fractions for missing values (null if not
+     * supported)
+     * @return the index of the node
+     */
+    public int addNominalNode(int attribute, int [] children,
+			      double [] missingWeights) {
+
+      return add(attribute, Double.NaN, children, null, Double.NaN,
+		 missingWeights, null, false);
+    }
+
+    /**
+     * Adds an inner node testing a numeric attribute, with the child for
+     * values up to the split point first, and returns its index.
+     *
+     * @param attribute the attribute tested
+     * @param splitPoint the split point
+     * @param children the two children
+     * @param missingWeights fractions for missing values (null if not
+     * supported)
+     * @return the index of the node
+     */
+    public int addNumericNode(int attribute, double splitPoint,
+			      int [] children, double [] missingWeights) {
+
+      return add(attribute, splitPoint, children, null, Double.NaN,
+		 missingWeights, null, false);
+    }
+
+    /**
+     * Adds a node.
+     */
+    private int add(int attribute, double splitPoint, int [] children,
+		    double [] distribution, double classValue,
+		    double [] missingWeights, NaiveBayesTable table,
+		    boolean empty) {
+
+      m_attribute.add(attribute);
+      m_splitPoint.add(splitPoint);
+      m_children.add(children.clone());
+      m_distribution.add((distribution == null) ? null : distribution.clone());
+      m_classValue.add(classValue);
+      m_missingWeights.add((missingWeights == null) ? null
+			   : missingWeights.clone());
+      m_tables.add(table);
+      m_empty.add(empty);
+      return m_attribute.size() - 1;
+    }
+
+    /**
+     * Returns the compiled tree.
+     *
+     * @param root the index of the root
+     * @param numClasses the number of classes
+     * @return the compiled tree
+     */
+    public CompiledTree build(int root, int numClasses) {
+
+      return new CompiledTree(this, root, numClasses);
+    }
+  }
+
+  /**
+   * Creates a compiled tree from the nodes of a builder.
+   */
+  private CompiledTree(Builder builder, int root, int numClasses) {
+
+    int numNodes = builder.m_attribute.size();
+    int numChildren = 0;
+
+    m_attribute = new int[numNodes];
+    m_splitPoint = new double[numNodes];
+    m_firstChild = new int[numNodes];
+    m_numChildren = new int[numNodes];
+    m_probOffset = new int[numNodes];
+    m_classValue = new double[numNodes];
+    m_missingWeights = new double[numNodes][];
+    m_tables = new NaiveBayesTable[numNodes];
+    m_empty = new boolean[numNodes];
+    int numProbs = 0;
+    for (int i = 0; i < numNodes; i++) {
+      numChildren += builder.m_children.get(i).length;
+      if (builder.m_distribution.get(i) != null) {
+	numProbs += numClasses;
+      }
+    }
+    m_children = new int[numChildren];
+    m_probs = new double[numProbs];
+    m_floatProbs = null;
+    numChildren = 0;
+    numProbs = 0;
+    for (int i = 0; i < numNodes; i++) {
+      int [] children = builder.m_children.get(i);
+      m_attribute[i] = builder.m_attribute.get(i);
+      m_splitPoint[i] = builder.m_splitPoint.get(i);
+      m_firstChild[i] = numChildren;
+      m_numChildren[i] = children.length;
+      System.arraycopy(children, 0, m_children, numChildren, children.length);
+      numChildren += children.length;
+      double [] distribution = builder.m_distribution.get(i);
+      if (distribution == null) {
+	m_probOffset[i] = -1;
+      } else {
+	m_probOffset[i] = numProbs;
+	System.arraycopy(distribution, 0, m_probs, numProbs, numClasses);
+	numProbs += numClasses;
+      }
+      m_classValue[i] = builder.m_classValue.get(i);
+      m_missingWeights[i] = builder.m_missingWeights.get(i);
+      m_tables[i] = builder.m_tables.get(i);
+      m_empty[i] = builder.m_empty.get(i);
+    }
+    m_root = root;
+    m_numClasses = numClasses;
+  }
+
+  /**
+   * Creates a copy of a compiled tree with the class distributions of the
+   * leaves stored as floats. The other arrays are shared, since neither
+   * tree changes them.
+   */
+  private CompiledTree(CompiledTree tree) {
+
+    m_attribute = tree.m_attribute;
+    m_splitPoint = tree.m_splitPoint;
+    m_firstChild = tree.m_firstChild;
+    m_numChildren = tree.m_numChildren;
+    m_children = tree.m_children;
+    m_probOffset = tree.m_probOffset;
+    m_classValue = tree.m_classValue;
+    m_missingWeights = tree.m_missingWeights;
+    m_tables = tree.m_tables;
+    m_empty = tree.m_empty;
+    m_root = tree.m_root;
+    m_numClasses = tree.m_numClasses;
+    m_probs = null;
+    if (tree.m_floatProbs != null) {
+      m_floatProbs = tree.m_floatProbs;
+    } else {
+      m_floatProbs = new float[tree.m_probs.length];
+      for (int i = 0; i < m_floatProbs.length; i++) {
+	m_floatProbs[i] = (float) tree.m_probs[i];
+      }
+    }
+  }
+
+  /**
+   * Creates a copy of a compiled tree with its nodes renumbered: node i of
+   * the copy is node order[i] of the tree. Children keep their branch
+   * order, and the class distributions of the leaves are stored in the
+   * new order of the nodes.
+   */
+  private CompiledTree(CompiledTree tree, int [] order) {
+
+    int numNodes = order.length;
+    int [] position = new int[numNodes];
+
+    for (int i = 0; i < numNodes; i++) {
+      position[order[i]] = i;
+    }
+    m_attribute = new int[numNodes];
+    m_splitPoint = new double[numNodes];
+    m_firstChild = new int[numNodes];
+    m_numChildren = new int[numNodes];
+    m_children = new int[tree.m_children.length];
+    m_probOffset = new int[numNodes];
+    m_classValue = new double[numNodes];
+    m_missingWeights = new double[numNodes][];
+    m_tables = new NaiveBayesTable[numNodes];
+    m_empty = new boolean[numNodes];
+    m_probs = (tree.m_probs == null) ? null : new double[tree.m_probs.length];
+    m_floatProbs = (tree.m_floatProbs == null) ? null
+      : new float[tree.m_floatProbs.length];
+    int numChildren = 0;
+    int numProbs = 0;
+    for (int i = 0; i < numNodes; i++) {
+      int node = order[i];
+      m_attribute[i] = tree.m_attribute[node];
+      m_splitPoint[i] = tree.m_splitPoint[node];
+      m_firstChild[i] = numChildren;
+      m_numChildren[i] = tree.m_numChildren[node];
+      for (int j = 0; j < m_numChildren[i]; j++) {
+	m_children[numChildren++] =
+	  position[tree.m_children[tree.m_firstChild[node] + j]];
+      }
+      if (tree.m_probOffset[node] < 0) {
+	m_probOffset[i] = -1;
+      } else {
+	m_probOffset[i] = numProbs;
+	if (m_probs != null) {
+	  System.arraycopy(tree.m_probs, tree.m_probOffset[node], m_probs,
+			   numProbs, tree.m_numClasses);
+	} else {
+	  System.arraycopy(tree.m_floatProbs, tree.m_probOffset[node],
+			   m_floatProbs, numProbs, tree.m_numClasses);
+	}
+	numProbs += tree.m_numClasses;
+      }
+      m_classValue[i] = tree.m_classValue[node];
+      m_missingWeights[i] = tree.m_missingWeights[node];
+      m_tables[i] = tree.m_tables[node];
+      m_empty[i] = tree.m_empty[node];
+    }
+    m_root = position[tree.m_root];
+    m_numClasses = tree.m_numClasses;
+  }
+
+  /**
+   * Counts how often each node is visited when the given rows are scored,
+   * including the nodes a row is fractioned over when its test value is
+   * missing.
+   *
+   * @param rows the rows, e.g. a calibration set representative of the
+   * rows to be scored
+   * @param numRows the number of rows
+   * @return the number of visits of each node
+   */
+  public long [] profile(double [][] rows, int numRows) {
+
+    long [] visits = new long[numNodes()];
+
+    for (int k = 0; k < numRows; k++) {
+      countVisits(m_root, rows[k], visits);
+    }
+    return visits;
+  }
+
+  /**
+   * Counts the visits of a row below a node.
+   */
+  private void countVisits(int node, double [] values, long [] visits) {
+
+    int attribute;
+
+    while (true) {
+      visits[node]++;
+      if ((attribute = m_attribute[node]) < 0) {
+	return;
+      }
+      double value = values[attribute];
+      if (Double.isNaN(value)) {
+	break;
+      }
+      node = child(node, value);
+    }
+    if (m_missingWeights[node] == null) {
+      return;
+    }
+    for (int i = 0; i < m_numChildren[node]; i++) {
+      int child = m_children[m_firstChild[node] + i];
+      if (!m_empty[child]) {
+	countVisits(child, values, visits);
+      }
+    }
+  }
+
+  /**
+   * Returns a copy of this tree with its nodes laid out hot path first,
+   * in the given visit counts (see profile()): the root comes first, and
+   * every node is followed by the subtree of its most visited child, then
+   * the subtrees of its other children from most to least visited. The
+   * nodes on the common paths thus lie next to each other in all arrays,
+   * and scoring them touches fewer cache lines than in the order the tree
+   * was compiled in, where children come before their parents. The copy
+   * scores exactly as this tree does.
+   *
+   * @param visits the number of visits of each node
+   * @return the copy
+   */
+  public CompiledTree layout(final long [] visits) {
+
+    if (visits.length != numNodes()) {
+      throw new IllegalArgumentException("Expected visits of "
+					 + numNodes() + " nodes, got "
+					 + visits.length + ".");
+    }
+    int [] order = new int[numNodes()];
+    int [] stack = new int[numNodes()];
+    int numOrdered = 0;
+    int top = 0;
+
+    stack[top++] = m_root;
+    while (top > 0) {
+      int node = stack[--top];
+      order[numOrdered++] = node;
+
+      // push the children coldest first, so the hottest is taken next;
+      // equally hot children are taken in branch order
+      Integer [] children = new Integer[m_numChildren[node]];
+      for (int i = 0; i < children.length; i++) {
+	children[i] = m_children[m_firstChild[node] + children.length - 1 - i];
+      }
+      Arrays.sort(children, new Comparator<Integer>() {
+	  public int compare(Integer a, Integer b) {
+	    return (visits[a] < visits[b]) ? -1
+	      : ((visits[a] > visits[b]) ? 1 : 0);
+	  }
+	});
+      for (int i = 0; i < children.length; i++) {
+	stack[top++] = children[i];
+      }
+    }
+    return new CompiledTree(this, Arrays.copyOf(order, numOrdered));
+  }
+
+  /**
+   * Returns a copy of this tree laid out hot path first for the given
+   * rows (see layout(long[])).
+   *
+   * @param rows the rows to take the visit counts from
+   * @param numRows the number of rows
+   * @return the copy
+   */
+  public CompiledTree layout(double [][] rows, int numRows) {
+
+    return layout(profile(rows, numRows));
+  }
+
+  /**
+   * Returns a copy of this tree that stores the class distributions of
+   * its leaves as floats, in half the space. Distributions then differ
+   * from the original ones by the rounding to float (a relative error of
+   * about 6e-8); the predicted classes of rows without missing test
+   * values are kept as they are.
+   *
+   * @return the compacted tree
+   */
+  public CompiledTree toFloat() {
+
+    return new CompiledTree(this);
+  }
+
+  /**
+   * Returns a low-precision copy of this tree, with class distributions
+   * in 8 or 16 bit fixed point (see QuantizedTree).
+   *
+   * @param bits the number of bits per probability, 8 or 16
+   * @return the quantised tree
+   * @throws IllegalArgumentException if the tree has naive Bayes leaves,
+   * or is too large for the quantised format
+   */
+  public QuantizedTree quantize(int bits) {
+
+    return new QuantizedTree(m_attribute, m_splitPoint, m_firstChild,
+			     m_numChildren, m_children, distributions(),
+			     m_classValue, m_missingWeights, m_empty, m_root,
+			     m_numClasses, bits);
+  }
+
+  /**
+   * Returns a copy of this tree stored outside the heap, in a direct
+   * buffer (see OffHeapTree).
+   *
+   * @return the off-heap tree
+   * @throws IllegalArgumentException if the tree has naive Bayes leaves
+   */
+  public OffHeapTree toOffHeap() {
+
+    return new OffHeapTree(m_attribute, m_splitPoint, m_firstChild,
+			   m_numChildren, m_children, distributions(),
+			   m_classValue, m_missingWeights, m_empty, m_root,
+			   m_numClasses);
+  }
+
+  /**
+   * Returns the class distribution of each leaf, null for inner nodes.
+   *
+   * @throws IllegalArgumentException if the tree has naive Bayes leaves
+   */
+  private double [][] distributions() {
+
+    double [][] distributions = new double[numNodes()][];
+
+    for (int i = 0; i < distributions.length; i++) {
+      if (m_tables[i] != null) {
+	throw new IllegalArgumentException("Trees with naive Bayes leaves "
+					   + "can't be copied.");
+      }
+      if (m_probOffset[i] >= 0) {
+	distributions[i] = new double[m_numClasses];
+	for (int j = 0; j < m_numClasses; j++) {
+	  distributions[i][j] = prob(i, j);
+	}
+      }
+    }
+    return distributions;
+  }
+
+  /**
+   * Returns the number of nodes.
+   */
+  public int numNodes() {
+
+    return m_attribute.length;
+  }
+
+  /**
+   * Returns the number of classes.
+   */
+  public int numClasses() {
+
+    return m_numClasses;
+  }
+
+  /**
+   * Returns an estimate of the heap space the tree takes, in bytes, for a
+   * 64-bit JVM with compressed references. Tables shared with other trees
+   * are counted in full.
+   *
+   * @return the estimated size
+   */
+  public long heapSize() {
+
+    long size = OBJECT_HEADER + 14 * REFERENCE + 8
+      + arraySize(m_attribute.length, 4)
+      + arraySize(m_splitPoint.length, 8)
+      + arraySize(m_firstChild.length, 4)
+      + arraySize(m_numChildren.length, 4)
+      + arraySize(m_children.length, 4)
+      + arraySize(m_probOffset.length, 4)
+      + arraySize(m_classValue.length, 8)
+      + arraySize(m_missingWeights.length, REFERENCE)
+      + arraySize(m_tables.length, REFERENCE)
+      + arraySize(m_empty.length, 1);
+    if (m_probs != null) {
+      size += arraySize(m_probs.length, 8);
+    } else {
+      size += arraySize(m_floatProbs.length, 4);
+    }
+    NaiveBayesTable last = null;
+    for (int i = 0; i < m_missingWeights.length; i++) {
+      if (m_missingWeights[i] != null) {
+	size += arraySize(m_missingWeights[i].length, 8);
+      }
+      if ((m_tables[i] != null) && (m_tables[i] != last)) {
+	last = m_tables[i];
+	size += last.heapSize();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Returns an estimate of the heap space an array takes, in bytes.
+   */
+  private static long arraySize(int length, int elementSize) {
+
+    return ((OBJECT_HEADER + 4 + (long) length * elementSize) + 7) & ~7L;
+  }
+
+  /**
+   * Returns the root node.
+   */
+  int root() {
+
+    return m_root;
+  }
+
+  /**
+   * Returns the attribute tested at a node, or -1 for leaves.
+   */
+  int attribute(int node) {
+
+    return m_attribute[node];
+  }
+
+  /**
+   * Returns the split point of a numeric test, or NaN for nominal tests.
+   */
+  double splitPoint(int node) {
+
+    return m_splitPoint[node];
+  }
+
+  /**
+   * Returns the number of children of an inner node.
+   */
+  int numChildren(int node) {
+
+    return m_numChildren[node];
+  }
+
+  /**
+   * Returns a child of an inner node.
+   */
+  int childAt(int node, int index) {
+
+    return m_children[m_firstChild[node] + index];
+  }
+
+  /**
+   * Returns the fraction of a row with a missing test value going to a
+   * child of an inner node, or NaN if the node doesn't support missing
+   * values.
+   */
+  double missingWeight(int node, int index) {
+
+    double [] weights = m_missingWeights[node];
+
+    return (weights == null) ? Double.NaN : weights[index];
+  }
+
+  /**
+   * Returns whether a leaf is left out when a row is fractioned over the
+   * children.
+   */
+  boolean isEmpty(int node) {
+
+    return m_empty[node];
+  }
+
+  /**
+   * Returns the class distribution for a row in an array of the caller's,
+   * which is not allocated for rows reaching a leaf with a fixed class
+   * distribution.
+   *
+   * @param values the attribute values of the row
+   * @param distribution the array the class distribution is written to
+   */
+  public void distribution(double [] values, double [] distribution) {
+
+    int leaf = leaf(values);
+
+    if (leaf < 0) {
+      Arrays.fill(distribution, 0, m_numClasses, 0);
+      addDistribution(m_root, values, 1, distribution);
+    } else if (m_tables[leaf] == null) {
+      for (int j = 0; j < m_numClasses; j++) {
+	distribution[j] = prob(leaf, j);
+      }
+    } else {
+      System.arraycopy(m_tables[leaf].probs(values), 0, distribution, 0,
+		       m_numClasses);
+    }
+  }
+
+  /**
+   * Returns the leaf a row of value indices reaches, or -1 if it reaches a
+   * test of a missing value.
+   *
+   * @param values the attribute values of the row: the index of the value
+   * of nominal attributes, negative if missing
+   * @return the leaf, or -1
+   */
+  public int leaf(int [] values) {
+
+    int node = m_root;
+    int attribute;
+
+    while ((attribute = m_attribute[node]) >= 0) {
+      int value = values[attribute];
+      if (value < 0) {
+	return -1;
+      }
+      node = child(node, value);
+    }
+    return node;
+  }
+
+  /**
+   * Classifies a row of value indices, e.g. of nominal attributes only.
+   * Only rows reaching a test of a missing value or a naive Bayes leaf are
+   * copied to an array of doubles.
+   *
+   * @param values the attribute values of the row: the index of the value
+   * of nominal attributes, negative if missing
+   * @return the predicted class, or NaN if there is none
+   */
+  public double classify(int [] values) {
+
+    int leaf = leaf(values);
+
+    if ((leaf >= 0) && (m_tables[leaf] == null)) {
+      return m_classValue[leaf];
+    }
+    double [] row = new double[values.length];
+    for (int i = 0; i < values.length; i++) {
+      row[i] = (values[i] < 0) ? Double.NaN : values[i];
+    }
+    return classify(row);
+  }
+
+  /**
+   * Classifies a row packed in a buffer as consecutive doubles, one per
+   * attribute (NaN if missing), in the byte order of the buffer. Only rows
+   * reaching a test of a missing value or a naive Bayes leaf are copied
+   * to an array.
+   *
+   * @param rows the buffer, e.g. a direct or memory-mapped one
+   * @param offset the index of the first byte of the row
+   * @param numAttributes the number of attributes per row
+   * @return the predicted class, or NaN if there is none
+   */
+  public double classify(ByteBuffer rows, int offset, int numAttributes) {
+
+    int node = m_root;
+    int attribute;
+
+    while ((attribute = m_attribute[node]) >= 0) {
+      double value = rows.getDouble(offset + 8 * attribute);
+      if (Double.isNaN(value)) {
+	return classify(row(rows, offset, numAttributes));
+      }
+      node = child(node, value);
+    }
+    if (m_tables[node] == null) {
+      return m_classValue[node];
+    }
+    return leafClassValue(node, row(rows, offset, numAttributes));
+  }
+
+  /**
+   * Classifies all rows packed in a buffer between its position and its
+   * limit (see classify(ByteBuffer, int, int)), without moving the
+   * position.
+   *
+   * @param rows the buffer
+   * @param numAttributes the number of attributes per row
+   * @param classValues the array the predicted classes are written to
+   * (NaN where there is none)
+   * @return the number of rows classified
+   * @throws IllegalArgumentException if the array is too small
+   */
+  public int classify(ByteBuffer rows, int numAttributes,
+		      double [] classValues) {
+
+    int rowBytes = 8 * numAttributes;
+    int numRows = rows.remaining() / rowBytes;
+    int offset = rows.position();
+
+    if (numRows > classValues.length) {
+      throw new IllegalArgumentException("Buffer holds " + numRows
+					 + " rows, only room for "
+					 + classValues.length);
+    }
+    for (int k = 0; k < numRows; k++, offset += rowBytes) {
+      classValues[k] = classify(rows, offset, numAttributes);
+    }
+    return numRows;
+  }
+
+  /**
+   * Copies a row packed in a buffer to an array.
+   */
+  private static double [] row(ByteBuffer rows, int offset,
+			       int numAttributes) {
+
+    double [] values = new double[numAttributes];
+
+    for (int i = 0; i < numAttributes; i++) {
+      values[i] = rows.getDouble(offset + 8 * i);
+    }
+    return values;
+  }
+
+  /**
+   * Classifies a batch of rows. All rows are advanced one level at a time,
+   * so the nodes of a level are visited together; rows reaching a test of
+   * a missing value are finished separately.
+   *
+   * @param rows the rows
+   * @param numRows the number of rows to classify
+   * @return the predicted classes (NaN where there is none)
+   */
+  public double [] classify(double [][] rows, int numRows) {
+
+    double [] classValues = new double[numRows];
+    int [] nodes = new int[numRows];
+    int [] active = new int[numRows];
+    int numActive = numRows;
+
+    for (int k = 0; k < numRows; k++) {
+      nodes[k] = m_root;
+      active[k] = k;
+    }
+    while (numActive > 0) {
+      int next = 0;
+      for (int k = 0; k < numActive; k++) {
+	int row = active[k];
+	int node = nodes[row];
+	int attribute = m_attribute[node];
+	if (attribute < 0) {
+	  classValues[row] = leafClassValue(node, rows[row]);
+	  continue;
+	}
+	double value = rows[row][attribute];
+	if (Double.isNaN(value)) {
+	  classValues[row] = classify(rows[row]);
+	  continue;
+	}
+	nodes[row] = child(node, value);
+	active[next++] = row;
+      }
+      numActive = next;
+    }
+    return classValues;
+  }
+
+  /**
+   * Returns the predicted class of a leaf for a row.
+   */
+  double leafClassValue(int leaf, double [] values) {
+
+    if (m_tables[leaf] == null) {
+      return m_classValue[leaf];
+    }
+    return classValue(m_tables[leaf].probs(values));
+  }
+
+  /**
+   * Returns the probability of a class at a leaf with a fixed class
+   * distribution.
+   */
+  private double prob(int leaf, int classIndex) {
+
+    int offset = m_probOffset[leaf] + classIndex;
+
+    return (m_probs != null) ? m_probs[offset] : m_floatProbs[offset];
+  }
+
+  /**
+   * Adds the weighted class distribution of a leaf for a row.
+   */
+  void addLeafDistribution(int leaf, double [] values, double weight,
+			   double [] distribution) {
+
+    if (m_tables[leaf] == null) {
+      for (int j = 0; j < m_numClasses; j++) {
+	distribution[j] += weight * prob(leaf, j);
+      }
+    } else {
+      double [] probs = m_tables[leaf].probs(values);
+      for (int j = 0; j < m_numClasses; j++) {
+	distribution[j] += weight * probs[j];
+      }
+    }
+  }
+
+  /**
+   * Returns the class with the highest probability, preferring the first
+   * of classes whose probabilities differ by less than 1e-6, as
+   * ClassifierTree.classifyInstance() does.
+   *
+   * @param distribution the class distribution
+   * @return the class
+   */
+  public static double classValue(double [] distribution) {
+
+    double maxProb = -1;
+    int maxIndex = 0;
+
+    for (int j = 0; j < distribution.length; j++) {
+      if (Utils.gr(distribution[j], maxProb)) {
+	maxIndex = j;
+	maxProb = distribution[j];
+      }
+    }
+    return maxIndex;
+  }
+}
@@ -232,6 +232,18 @@ public class Distribution implements Cloneable, Serializable, RevisionHandler {
     totaL = totaL + weight;
   }
 
+  /**
+   * Adds given weight of given class to given bag.
+   */
+  public final void add(int bagIndex, int classIndex, double weight) {
+
+    m_perClassPerBag[bagIndex][classIndex] = m_perClassPerBag[bagIndex][classIndex]
+      + weight;
+    m_perBag[bagIndex] = m_perBag[bagIndex] + weight;
+    m_perClass[classIndex] = m_perClass[classIndex] + weight;
+    totaL = totaL + weight;
+  }
+
   /**
    * Subtracts given instance from given bag.
    * 
@@ -309,6 +321,40 @@ public class Distribution implements Cloneable, Serializable, RevisionHandler {
     }
   }
 
+  /**
+   * Adds the given weights per class of instances with unknown values,
+   * weighted according to frequency of instances in each bag.
+   */
+  public final void addInstWithUnknown(double[] unknownCounts) {
+
+    double[] probs;
+    double newWeight;
+    int j;
+
+    probs = new double[m_perBag.length];
+    for (j = 0; j < m_perBag.length; j++) {
+      if (Utils.eq(totaL, 0)) {
+        probs[j] = 1.0 / probs.length;
+      } else {
+        probs[j] = m_perBag[j] / totaL;
+      }
+    }
+    for (int classIndex = 0; classIndex < unknownCounts.length; classIndex++) {
+      if (unknownCounts[classIndex] == 0) {
+        continue;
+      }
+      m_perClass[classIndex] = m_perClass[classIndex]
+        + unknownCounts[classIndex];
+      totaL = totaL + unknownCounts[classIndex];
+      for (j = 0; j < m_perBag.length; j++) {
+        newWeight = probs[j] * unknownCounts[classIndex];
+        m_perClassPerBag[j][classIndex] = m_perClassPerBag[j][classIndex]
+          + newWeight;
+        m_perBag[j] = m_perBag[j] + newWeight;
+      }
+    }
+  }
+
   /**
    * Adds all instances in given range to given bag.
    * 
@@ -333,6 +379,31 @@ public class Distribution implements Cloneable, Serializable, RevisionHandler {
     totaL += sumOfWeights;
   }
 
+  /**
+   * Adds all instances in given range of an ordering of the source to
+   * given bag.
+   * 
+   * @exception Exception if something goes wrong
+   */
+  public final void addRange(int bagIndex, Instances source, int [] order,
+    int startIndex, int lastPlusOne) throws Exception {
+
+    double sumOfWeights = 0;
+    int classIndex;
+    Instance instance;
+    int i;
+
+    for (i = startIndex; i < lastPlusOne; i++) {
+      instance = source.instance(order[i]);
+      classIndex = (int) instance.classValue();
+      sumOfWeights = sumOfWeights + instance.weight();
+      m_perClassPerBag[bagIndex][classIndex] += instance.weight();
+      m_perClass[classIndex] += instance.weight();
+    }
+    m_perBag[bagIndex] += sumOfWeights;
+    totaL += sumOfWeights;
+  }
+
   /**
    * Adds given instance to all bags weighting it according to given weights.
    * 
@@ -712,6 +783,19 @@ public class Distribution implements Cloneable, Serializable, RevisionHandler {
     m_perBag[to] += weight;
   }
 
+  /**
+   * Shifts given counts per class from one bag to another one.
+   */
+  public final void shift(int from, int to, double[] counts) {
+
+    for (int classIndex = 0; classIndex < counts.length; classIndex++) {
+      m_perClassPerBag[from][classIndex] -= counts[classIndex];
+      m_perClassPerBag[to][classIndex] += counts[classIndex];
+      m_perBag[from] -= counts[classIndex];
+      m_perBag[to] += counts[classIndex];
+    }
+  }
+
   /**
    * Shifts all instances in given range from one bag to another one.
    * 
@@ -736,6 +820,31 @@ public class Distribution implements Cloneable, Serializable, RevisionHandler {
     }
   }
 
+  /**
+   * Shifts all instances in given range of an ordering of the source from
+   * one bag to another one.
+   * 
+   * @exception Exception if something goes wrong
+   */
+  public final void shiftRange(int from, int to, Instances source,
+    int [] order, int startIndex, int lastPlusOne) throws Exception {
+
+    int classIndex;
+    double weight;
+    Instance instance;
+    int i;
+
+    for (i = startIndex; i < lastPlusOne; i++) {
+      instance = source.instance(order[i]);
+      classIndex = (int) instance.classValue();
+      weight = instance.weight();
+      m_perClassPerBag[from][classIndex] -= weight;
+      m_perClassPerBag[to][classIndex] += weight;
+      m_perBag[from] -= weight;
+      m_perBag[to] += weight;
+    }
+  }
+
   /**
    * Returns the revision string.
    * 
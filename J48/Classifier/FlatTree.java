@@ -0,0 +1,190 @@
+package J48.Classifier;
+
+import weka.core.Instance;
+
+/**
+ * Scoring shared by the forms of a tree whose nodes are numbered and kept
+ * in arrays or buffers (CompiledTree, QuantizedTree and OffHeapTree).
+ * Each form only gives access to its nodes; rows are routed, fractioned
+ * over the children at tests of missing values, and classified here.
+ *
+ * @version $Revision$
+ */
+abstract class FlatTree {
+
+  /**
+   * Returns the root node.
+   */
+  abstract int root();
+
+  /**
+   * Returns the number of classes.
+   */
+  public abstract int numClasses();
+
+  /**
+   * Returns the attribute tested at a node, or -1 for leaves.
+   */
+  abstract int attribute(int node);
+
+  /**
+   * Returns the split point of a numeric test, or NaN for nominal tests.
+   */
+  abstract double splitPoint(int node);
+
+  /**
+   * Returns the number of children of an inner node.
+   */
+  abstract int numChildren(int node);
+
+  /**
+   * Returns a child of an inner node.
+   */
+  abstract int childAt(int node, int index);
+
+  /**
+   * Returns the fraction of a row with a missing test value going to a
+   * child of an inner node, or NaN if the node doesn't support missing
+   * values.
+   */
+  abstract double missingWeight(int node, int index);
+
+  /**
+   * Returns whether a leaf is left out when a row is fractioned over the
+   * children.
+   */
+  abstract boolean isEmpty(int node);
+
+  /**
+   * Returns the predicted class of a leaf for a row, or NaN if it
+   * predicts none.
+   */
+  abstract double leafClassValue(int leaf, double [] values);
+
+  /**
+   * Adds the weighted class distribution of a leaf for a row.
+   */
+  abstract void addLeafDistribution(int leaf, double [] values,
+				    double weight, double [] distribution);
+
+  /**
+   * Returns the child of an inner node a known value leads to.
+   */
+  final int child(int node, double value) {
+
+    double splitPoint = splitPoint(node);
+
+    if (Double.isNaN(splitPoint)) {
+      return childAt(node, (int) value);
+    }
+    // as Utils.smOrEq(value, splitPoint)
+    return childAt(node, (value - splitPoint < 1e-6) ? 0 : 1);
+  }
+
+  /**
+   * Returns the leaf a row reaches, or -1 if it reaches a test of a
+   * missing value.
+   *
+   * @param values the attribute values of the row
+   * @return the leaf, or -1
+   */
+  public final int leaf(double [] values) {
+
+    int node = root();
+    int attribute;
+
+    while ((attribute = attribute(node)) >= 0) {
+      double value = values[attribute];
+      if (Double.isNaN(value)) {
+	return -1;
+      }
+      node = child(node, value);
+    }
+    return node;
+  }
+
+  /**
+   * Classifies a row.
+   *
+   * @param values the attribute values of the row
+   * @return the predicted class, or NaN if there is none
+   */
+  public final double classify(double [] values) {
+
+    int leaf = leaf(values);
+
+    if (leaf >= 0) {
+      return leafClassValue(leaf, values);
+    }
+    return CompiledTree.classValue(distribution(values));
+  }
+
+  /**
+   * Classifies an instance.
+   *
+   * @param instance the instance
+   * @return the predicted class, or NaN if there is none
+   */
+  public final double classify(Instance instance) {
+
+    return classify(instance.toDoubleArray());
+  }
+
+  /**
+   * Returns the class distribution for a row.
+   *
+   * @param values the attribute values of the row
+   * @return the class distribution
+   */
+  public final double [] distribution(double [] values) {
+
+    double [] distribution = new double[numClasses()];
+
+    addDistribution(root(), values, 1, distribution);
+    return distribution;
+  }
+
+  /**
+   * Returns the class distribution for an instance.
+   *
+   * @param instance the instance
+   * @return the class distribution
+   */
+  public final double [] distribution(Instance instance) {
+
+    return distribution(instance.toDoubleArray());
+  }
+
+  /**
+   * Adds the weighted class distribution of the leaves a row reaches below
+   * a node.
+   */
+  final void addDistribution(int node, double [] values, double weight,
+			     double [] distribution) {
+
+    int attribute;
+
+    while ((attribute = attribute(node)) >= 0) {
+      double value = values[attribute];
+      if (Double.isNaN(value)) {
+	break;
+      }
+      node = child(node, value);
+    }
+    if (attribute < 0) {
+      addLeafDistribution(node, values, weight, distribution);
+      return;
+    }
+    if (Double.isNaN(missingWeight(node, 0))) {
+      throw new IllegalArgumentException("Missing value for attribute "
+					 + attribute + " is not supported.");
+    }
+    for (int i = 0; i < numChildren(node); i++) {
+      int child = childAt(node, i);
+      if (!isEmpty(child)) {
+	addDistribution(child, values, missingWeight(node, i) * weight,
+			distribution);
+      }
+    }
+  }
+}
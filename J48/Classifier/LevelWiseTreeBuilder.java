@@ -0,0 +1,290 @@
+
+package J48.Classifier;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+import weka.core.Utils;
+
+/**
+ * Class for growing a C4.5-type tree breadth-first. The training data is
+ * held column by column, and each level of the tree takes one pass over
+ * it: every row is routed from its node in the previous level to its
+ * frontier node, and the frontier node's AVC-group is updated, so the
+ * counts of all frontier nodes for all attributes are filled at once.
+ * The tree can be bounded by a maximum depth and a maximum number of
+ * nodes; when the node budget runs out, the remaining frontier nodes
+ * become leaves.
+ *
+ * @version $Revision$
+ */
+public class LevelWiseTreeBuilder
+  implements RevisionHandler {
+
+  /** The split selection method. */
+  private final C45ModelSelection m_toSelectModel;
+
+  /** The maximum depth of the tree (0 = unlimited). */
+  private final int m_maxDepth;
+
+  /** The maximum number of nodes (0 = unlimited). */
+  private final int m_maxNodes;
+
+  /** The number of levels grown by the last build. */
+  private int m_numLevels;
+
+  /** The number of nodes grown by the last build. */
+  private int m_numNodes;
+
+  /**
+   * Rows of the current level: a row with unknown values may be routed to
+   * several nodes, each time with part of its weight.
+   */
+  private int [] m_rows;
+  private int [] m_nodes;
+  private double [] m_weights;
+  private int m_numFragments;
+
+  /**
+   * Initializes the builder.
+   *
+   * @param toSelectModel the split selection method; split points are
+   * moved to values of its full training data, or of the rows grown on if
+   * it has none
+   * @param maxDepth the maximum depth of the tree (0 = unlimited)
+   * @param maxNodes the maximum number of nodes (0 = unlimited)
+   */
+  public LevelWiseTreeBuilder(C45ModelSelection toSelectModel, int maxDepth,
+			      int maxNodes) {
+
+    m_toSelectModel = toSelectModel;
+    m_maxDepth = maxDepth;
+    m_maxNodes = maxNodes;
+  }
+
+  /**
+   * Grows a tree on the given data. Instances with a missing class are
+   * skipped.
+   *
+   * @param data the training data
+   * @param tree the (empty) root of the tree to grow
+   * @exception Exception if something goes wrong
+   */
+  public void buildTree(Instances data, ClassifierTree tree)
+    throws Exception {
+
+    double [][] columns = new double[data.numAttributes()][data.numInstances()];
+    double [] weights = new double[data.numInstances()];
+
+    for (int i = 0; i < data.numInstances(); i++) {
+      Instance instance = data.instance(i);
+      for (int j = 0; j < columns.length; j++) {
+	columns[j][i] = instance.value(j);
+      }
+      weights[i] = instance.weight();
+    }
+    buildTree(new Instances(data, 0), columns, weights, tree);
+  }
+
+  /**
+   * Grows a tree on columnar data. Missing values are NaN, as in Instance;
+   * rows with a missing class are skipped.
+   *
+   * @param header the dataset structure, with the class index set
+   * @param columns the values of each attribute, indexed by row
+   * @param weights the weight of each row
+   * @param tree the (empty) root of the tree to grow
+   * @exception Exception if something goes wrong
+   */
+  public void buildTree(Instances header, double [][] columns,
+			double [] weights, ClassifierTree tree)
+    throws Exception {
+
+    double [] classColumn = columns[header.classIndex()];
+    ClassifierTree [] frontier = new ClassifierTree [] {tree};
+    AVCGroup [] groups = new AVCGroup [] {new AVCGroup(header)};
+    double [] values = new double[columns.length];
+
+    // Level 0: all rows with a known class go to the root.
+    m_rows = new int[weights.length];
+    m_nodes = new int[weights.length];
+    m_weights = new double[weights.length];
+    m_numFragments = 0;
+    for (int i = 0; i < weights.length; i++) {
+      if (!Double.isNaN(classColumn[i])) {
+	row(columns, i, values);
+	groups[0].add(values, weights[i]);
+	append(i, 0, weights[i]);
+      }
+    }
+    m_numLevels = 1;
+    m_numNodes = 1;
+    m_toSelectModel.setAllValues(groups[0]);
+    try {
+      growLevels(header, columns, frontier, groups, values);
+    } finally {
+      m_toSelectModel.setAllValues(null);
+      m_rows = null;
+      m_nodes = null;
+      m_weights = null;
+    }
+  }
+
+  /**
+   * Grows the tree level by level from the given frontier.
+   */
+  private void growLevels(Instances header, double [][] columns,
+			  ClassifierTree [] frontier, AVCGroup [] groups,
+			  double [] values) throws Exception {
+
+    while (true) {
+      int [] firstChild = new int[frontier.length];
+      int numChildren = 0;
+
+      // Select the splits of the frontier, in level order so that the node
+      // budget goes to the upper nodes first.
+      for (int n = 0; n < frontier.length; n++) {
+	ClassifierTree node = frontier[n];
+	ClassifierSplitModel model = m_toSelectModel.selectModel(groups[n]);
+
+	node.m_test = null;
+	node.m_sons = null;
+	node.m_isEmpty = false;
+	firstChild[n] = -1;
+	if ((model.numSubsets() > 1) &&
+	    ((m_maxDepth <= 0) || (m_numLevels <= m_maxDepth)) &&
+	    ((m_maxNodes <= 0) ||
+	     (m_numNodes + model.numSubsets() <= m_maxNodes))) {
+	  node.m_localModel = model;
+	  node.m_isLeaf = false;
+	  node.m_sons = new ClassifierTree [model.numSubsets()];
+	  firstChild[n] = numChildren;
+	  numChildren += model.numSubsets();
+	  m_numNodes += model.numSubsets();
+	} else {
+	  node.m_localModel = (model.numSubsets() > 1) ?
+	    new NoSplit(groups[n].classDistribution()) : model;
+	  node.m_isLeaf = true;
+	  if (Utils.eq(groups[n].classDistribution().total(), 0))
+	    node.m_isEmpty = true;
+	}
+      }
+      if (numChildren == 0) {
+	break;
+      }
+
+      // Create the next frontier.
+      ClassifierTree [] nextFrontier = new ClassifierTree [numChildren];
+      AVCGroup [] nextGroups = new AVCGroup [numChildren];
+      for (int n = 0; n < frontier.length; n++) {
+	if (firstChild[n] < 0) {
+	  continue;
+	}
+	for (int j = 0; j < frontier[n].m_sons.length; j++) {
+	  ClassifierTree son = frontier[n].getNewTree(header);
+	  frontier[n].m_sons[j] = son;
+	  nextFrontier[firstChild[n] + j] = son;
+	  nextGroups[firstChild[n] + j] = new AVCGroup(header);
+	}
+      }
+
+      // One pass over the rows routes them to the next frontier and fills
+      // its AVC-groups.
+      int [] rows = m_rows;
+      int [] nodes = m_nodes;
+      double [] fragmentWeights = m_weights;
+      int numFragments = m_numFragments;
+      Instance instance = new Instance(1, values);
+      instance.setDataset(header);
+      m_rows = new int[numFragments];
+      m_nodes = new int[numFragments];
+      m_weights = new double[numFragments];
+      m_numFragments = 0;
+      for (int f = 0; f < numFragments; f++) {
+	int n = nodes[f];
+	if (firstChild[n] < 0) {
+	  continue;
+	}
+	ClassifierSplitModel model = frontier[n].m_localModel;
+	row(columns, rows[f], values);
+	int subset = model.whichSubset(instance);
+	if (subset > -1) {
+	  nextGroups[firstChild[n] + subset].add(values, fragmentWeights[f]);
+	  append(rows[f], firstChild[n] + subset, fragmentWeights[f]);
+	} else {
+	  double [] subsetWeights = model.weights(instance);
+	  for (int j = 0; j < subsetWeights.length; j++) {
+	    if (Utils.gr(subsetWeights[j], 0)) {
+	      nextGroups[firstChild[n] + j].add(values,
+						subsetWeights[j] * fragmentWeights[f]);
+	      append(rows[f], firstChild[n] + j,
+		     subsetWeights[j] * fragmentWeights[f]);
+	    }
+	  }
+	}
+      }
+      frontier = nextFrontier;
+      groups = nextGroups;
+      m_numLevels++;
+    }
+  }
+
+  /**
+   * Returns the number of levels grown by the last build.
+   */
+  public final int numLevels() {
+
+    return m_numLevels;
+  }
+
+  /**
+   * Returns the number of nodes grown by the last build.
+   */
+  public final int numNodes() {
+
+    return m_numNodes;
+  }
+
+  /**
+   * Copies the values of a row into the given array.
+   */
+  private static void row(double [][] columns, int row, double [] values) {
+
+    for (int j = 0; j < columns.length; j++) {
+      values[j] = columns[j][row];
+    }
+  }
+
+  /**
+   * Appends a row to the current level.
+   */
+  private void append(int row, int node, double weight) {
+
+    if (m_numFragments == m_rows.length) {
+      int capacity = Math.max(16, 2 * m_rows.length);
+      int [] rows = new int[capacity];
+      int [] nodes = new int[capacity];
+      double [] weights = new double[capacity];
+      System.arraycopy(m_rows, 0, rows, 0, m_numFragments);
+      System.arraycopy(m_nodes, 0, nodes, 0, m_numFragments);
+      System.arraycopy(m_weights, 0, weights, 0, m_numFragments);
+      m_rows = rows;
+      m_nodes = nodes;
+      m_weights = weights;
+    }
+    m_rows[m_numFragments] = row;
+    m_nodes[m_numFragments] = node;
+    m_weights[m_numFragments] = weight;
+    m_numFragments++;
+  }
+
+  /**
+   * Returns the revision string.
+   * 
+   * @return		the revision
+   */
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+}
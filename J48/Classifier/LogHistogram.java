@@ -0,0 +1,194 @@
+package J48.Classifier;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative long values (e.g. latencies in nanoseconds)
+ * with buckets of logarithmically growing width: values below 16 have a
+ * bucket each, and every power of two above is split into 8 buckets, so
+ * a value is known to within 12.5% over the whole range of long. Values
+ * are recorded without locking and can be recorded by any number of
+ * threads while the histogram is read.
+ *
+ * @version $Revision$
+ */
+public final class LogHistogram
+  implements Serializable {
+
+  /** for serialization */
+  private static final long serialVersionUID = -1718249302548187376L;
+
+  /** Number of bits of a value kept below its highest bit. */
+  private static final int SUB_BUCKET_BITS = 3;
+
+  /** Number of buckets per power of two. */
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /** Number of buckets, enough for Long.MAX_VALUE. */
+  private static final int NUM_BUCKETS = bucket(Long.MAX_VALUE) + 1;
+
+  /** The number of values in each bucket. */
+  private final AtomicLongArray m_counts;
+
+  /** The largest value recorded. */
+  private final AtomicLong m_max = new AtomicLong();
+
+  /** The sum of the values recorded. */
+  private final AtomicLong m_sum = new AtomicLong();
+
+  /**
+   * Creates an empty histogram.
+   */
+  public LogHistogram() {
+
+    m_counts = new AtomicLongArray(NUM_BUCKETS);
+  }
+
+  /**
+   * Creates a histogram with the given counts.
+   */
+  private LogHistogram(long [] counts, long max, long sum) {
+
+    m_counts = new AtomicLongArray(counts);
+    m_max.set(max);
+    m_sum.set(sum);
+  }
+
+  /**
+   * Returns the bucket of a value.
+   *
+   * @param value the value, at least 0
+   * @return the index of the bucket
+   */
+  private static int bucket(long value) {
+
+    if (value < 2 * SUB_BUCKETS) {
+      return (int)value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * Returns the largest value that falls into a bucket.
+   *
+   * @param bucket the index of the bucket
+   * @return the largest value of the bucket
+   */
+  private static long highestValue(int bucket) {
+
+    if (bucket < 2 * SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long lowest = (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lowest + ((1L << shift) - 1);
+  }
+
+  /**
+   * Records a value.
+   *
+   * @param value the value (negative values are recorded as 0)
+   */
+  public void record(long value) {
+
+    if (value < 0) {
+      value = 0;
+    }
+    m_counts.incrementAndGet(bucket(value));
+    m_sum.addAndGet(value);
+    long max = m_max.get();
+    while ((value > max) && !m_max.compareAndSet(max, value)) {
+      max = m_max.get();
+    }
+  }
+
+  /**
+   * Returns the number of values recorded.
+   *
+   * @return the number of values
+   */
+  public long count() {
+
+    long count = 0;
+    for (int i = 0; i < m_counts.length(); i++) {
+      count += m_counts.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * Returns the largest value recorded.
+   *
+   * @return the largest value, 0 if there is none
+   */
+  public long max() {
+
+    return m_max.get();
+  }
+
+  /**
+   * Returns the mean of the values recorded.
+   *
+   * @return the mean, 0 if there are no values
+   */
+  public double mean() {
+
+    long count = count();
+    return (count == 0) ? 0 : (double)m_sum.get() / count;
+  }
+
+  /**
+   * Returns a value at least as large as the given fraction of the values
+   * recorded, to within the width of its bucket.
+   *
+   * @param fraction the fraction, between 0 and 1 (e.g. 0.99)
+   * @return the value, 0 if there are no values
+   */
+  public long percentile(double fraction) {
+
+    long count = count();
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long)Math.ceil(fraction * count));
+    long seen = 0;
+    for (int i = 0; i < m_counts.length(); i++) {
+      seen += m_counts.get(i);
+      if (seen >= rank) {
+	return Math.min(highestValue(i), max());
+      }
+    }
+    return max();
+  }
+
+  /**
+   * Returns a copy of the histogram as it is now. Values recorded while
+   * the copy is taken may be in it or not.
+   *
+   * @return the copy
+   */
+  public LogHistogram snapshot() {
+
+    long [] counts = new long[m_counts.length()];
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = m_counts.get(i);
+    }
+    return new LogHistogram(counts, m_max.get(), m_sum.get());
+  }
+
+  /**
+   * Removes all values.
+   */
+  public void reset() {
+
+    for (int i = 0; i < m_counts.length(); i++) {
+      m_counts.set(i, 0);
+    }
+    m_max.set(0);
+    m_sum.set(0);
+  }
+}
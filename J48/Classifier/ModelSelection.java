@@ -18,6 +18,29 @@ public abstract class ModelSelection
   /** for serialization */
   private static final long serialVersionUID = -4850147125096133642L;
 
+  /** The metrics training is recorded into (null = none). */
+  private transient TrainingMetrics m_metrics;
+
+  /**
+   * Sets the metrics training is recorded into.
+   *
+   * @param metrics the metrics, or null to record nothing
+   */
+  public void setMetrics(TrainingMetrics metrics) {
+
+    m_metrics = metrics;
+  }
+
+  /**
+   * Returns the metrics training is recorded into.
+   *
+   * @return the metrics, TrainingMetrics.NONE if none are set
+   */
+  public final TrainingMetrics metrics() {
+
+    return (m_metrics == null) ? TrainingMetrics.NONE : m_metrics;
+  }
+
   /**
    * Selects a model for the given dataset.
    *
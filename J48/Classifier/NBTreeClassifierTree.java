@@ -55,7 +55,15 @@ public class NBTreeClassifierTree
    * @exception Exception if something goes wrong
    */
   public void buildClassifier(Instances data) throws Exception {
-   super.buildClassifier(data);
+   try {
+     super.buildClassifier(data);
+   } finally {
+     // the nodes keep the split selection method, which must neither keep
+     // the training data nor its threads
+     if (m_toSelectModel instanceof NBTreeModelSelection) {
+       ((NBTreeModelSelection) m_toSelectModel).cleanup();
+     }
+   }
    cleanup(new Instances(data, 0));
    assignIDs(-1);
   }
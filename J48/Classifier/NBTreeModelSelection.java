@@ -2,7 +2,14 @@
 package J48.Classifier;
 
 import J48.Classifier.ModelSelection;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import weka.core.Attribute;
 import weka.core.Instances;
@@ -26,6 +33,12 @@ public class NBTreeModelSelection extends ModelSelection {
   /** All the training data */
   protected Instances m_allData; //
 
+  /** Number of threads evaluating candidate splits (0 = one per processor). */
+  protected int m_numThreads = 0;
+
+  /** The threads evaluating candidate splits, created when first needed. */
+  protected transient ExecutorService m_pool;
+
   /**
    * Initializes the split selection method with the given parameters.
    * 
@@ -45,6 +58,54 @@ public class NBTreeModelSelection extends ModelSelection {
   public void cleanup() {
 
     m_allData = null;
+    if (m_pool != null) {
+      m_pool.shutdown();
+      m_pool = null;
+    }
+  }
+
+  /**
+   * Sets the number of threads evaluating the candidate splits of a node.
+   *
+   * @param numThreads the number of threads (0 = one per processor)
+   */
+  public void setNumThreads(int numThreads) {
+
+    m_numThreads = numThreads;
+  }
+
+  /**
+   * Gets the number of threads evaluating the candidate splits of a node.
+   *
+   * @return the number of threads (0 = one per processor)
+   */
+  public int getNumThreads() {
+
+    return m_numThreads;
+  }
+
+  /**
+   * Returns the pool evaluating candidate splits, or null if they are
+   * evaluated in the calling thread.
+   */
+  private synchronized ExecutorService pool() {
+
+    int numThreads = (m_numThreads > 0) ? m_numThreads
+      : Runtime.getRuntime().availableProcessors();
+
+    if (numThreads <= 1) {
+      return null;
+    }
+    if (m_pool == null) {
+      m_pool = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+	public Thread newThread(Runnable r) {
+	  Thread thread = new Thread(r, "NBTreeModelSelection");
+	  thread.setDaemon(true);
+	  return thread;
+	}
+      });
+    }
+    return m_pool;
   }
 
   /**
@@ -105,6 +166,15 @@ public class NBTreeModelSelection extends ModelSelection {
       currentModel = new NBTreeSplit[data.numAttributes()];
       sumOfWeights = data.sumOfWeights();
 
+      // The subsets of all candidate splits are evaluated on the data
+      // discretised once with the cut points of this node, which leaves the
+      // data unchanged, so the candidates can be evaluated concurrently.
+      final Instances discretized = noSplitModel.getDiscretizedData();
+      final Instances trainInstances = data;
+      ExecutorService pool = pool();
+      List<Future<Object>> results =
+        new ArrayList<Future<Object>>(data.numAttributes());
+
       // For each attribute.
       for (i = 0; i < data.numAttributes(); i++) {
 
@@ -114,16 +184,34 @@ public class NBTreeModelSelection extends ModelSelection {
           // Get models for current attribute.
           currentModel[i] = new NBTreeSplit(i, m_minNoObj, sumOfWeights);
           currentModel[i].setGlobalModel(noSplitModel);
-          currentModel[i].buildClassifier(data);
-
-          // Check if useful split for current attribute
-          // exists and check for enumerated attributes with
-          // a lot of values.
-          if (currentModel[i].checkModel()) {
-            validModels++;
+          final NBTreeSplit model = currentModel[i];
+          Callable<Object> task = new Callable<Object>() {
+            public Object call() throws Exception {
+              model.buildClassifier(trainInstances, discretized);
+              return null;
+            }
+          };
+          if (pool != null) {
+            results.add(pool.submit(task));
+          } else {
+            task.call();
+            results.add(null);
           }
         } else {
           currentModel[i] = null;
+          results.add(null);
+        }
+      }
+      for (i = 0; i < data.numAttributes(); i++) {
+        if (results.get(i) != null) {
+          results.get(i).get();
+        }
+
+        // Check if useful split for current attribute
+        // exists and check for enumerated attributes with
+        // a lot of values.
+        if ((currentModel[i] != null) && currentModel[i].checkModel()) {
+          validModels++;
         }
       }
 
@@ -164,6 +252,10 @@ public class NBTreeModelSelection extends ModelSelection {
       return bestModel;
     } catch (Exception e) {
       e.printStackTrace();
+    } finally {
+      if (noSplitModel != null) {
+        noSplitModel.releaseDiscretizedData();
+      }
     }
     return null;
   }
@@ -7,9 +7,11 @@ import weka.classifiers.bayes.NaiveBayesUpdateable;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.RevisionUtils;
+import weka.core.Utils;
 import weka.filters.Filter;
 import weka.filters.supervised.attribute.Discretize;
 
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -34,6 +36,13 @@ public final class NBTreeNoSplit
   /** errors on the training data at this node */
   private double m_errors;
 
+  /** the discretised training data, kept until released */
+  private transient Instances m_discretizedData;
+
+  /** the discretizer and naive bayes model compiled into tables (null
+      if the model isn't one over counts) */
+  private CompiledTree.NaiveBayesTable m_table;
+
   public NBTreeNoSplit() {
     m_numSubsets = 1;
   }
@@ -49,7 +58,9 @@ public final class NBTreeNoSplit
     m_disc = new Discretize();
     m_disc.setInputFormat(instances);
     Instances temp = Filter.useFilter(instances, m_disc);
+    m_discretizedData = temp;
     m_nb.buildClassifier(temp);
+    compile(instances, temp);
     if (temp.numInstances() >= 5) {
       m_errors = crossValidate(m_nb, temp, new Random(1));
     }
@@ -74,6 +85,24 @@ public final class NBTreeNoSplit
     return m_disc;
   }
 
+  /**
+   * Return the training data discretised with the cut points of this
+   * node, in the order of the training data, or null if it has been
+   * released
+   *
+   * @return the discretised training data
+   */
+  public Instances getDiscretizedData() {
+    return m_discretizedData;
+  }
+
+  /**
+   * Release the discretised training data
+   */
+  public void releaseDiscretizedData() {
+    m_discretizedData = null;
+  }
+
   /**
    * Get the naive bayes model at this node
    *
@@ -139,9 +168,138 @@ public final class NBTreeNoSplit
    */
   public double classProb(int classIndex, Instance instance, int theSubset) 
     throws Exception {
-    m_disc.input(instance);
-    Instance temp = m_disc.output();
-    return m_nb.distributionForInstance(temp)[classIndex];
+    if (m_table == null) {
+      Instance temp;
+
+      // the discretizer keeps the instance it filters
+      synchronized (m_disc) {
+	m_disc.input(instance);
+	temp = m_disc.output();
+      }
+      return m_nb.distributionForInstance(temp)[classIndex];
+    }
+    return classProbs(instance, theSubset)[classIndex];
+  }
+
+  /**
+   * Return the probabilities of all classes, computed from the compiled
+   * tables
+   *
+   * @param instance the instance to generate the probabilities for
+   * @param theSubset the subset to consider
+   * @return the probabilities
+   * @exception Exception if an error occurs
+   */
+  public double [] classProbs(Instance instance, int theSubset) 
+    throws Exception {
+    if (m_table == null) {
+      return super.classProbs(instance, theSubset);
+    }
+    return m_table.probs(instance.toDoubleArray());
+  }
+
+  /**
+   * Returns the compiled tables of the naive bayes model, or null if the
+   * model isn't one over counts.
+   *
+   * @return the tables
+   */
+  public CompiledTree.NaiveBayesTable table() {
+    return m_table;
+  }
+
+  /**
+   * Compiles the discretizer and the naive bayes model into cut points
+   * and tables of log-probabilities. With discretised attributes the
+   * naive bayes model consists of Laplace-corrected counts, which are
+   * taken from the discretised training data.
+   *
+   * @param instances the training data
+   * @param discretized the discretised training data
+   */
+  private void compile(Instances instances, Instances discretized) {
+
+    int numClasses = discretized.numClasses();
+    int classIndex = discretized.classIndex();
+    double [][] counts = new double[discretized.numAttributes()][];
+    double [][] sums = new double[discretized.numAttributes()][];
+    double [] classCounts = new double[numClasses];
+    double classSum = numClasses;
+
+    double [][] cutPoints = new double[instances.numAttributes()][];
+    boolean [] isDiscretized = new boolean[instances.numAttributes()];
+
+    m_table = null;
+    for (int i = 0; i < instances.numAttributes(); i++) {
+      if (i == classIndex) {
+	continue;
+      }
+      if (!discretized.attribute(i).isNominal()) {
+	// not a naive bayes model over counts
+	return;
+      }
+      isDiscretized[i] = instances.attribute(i).isNumeric();
+      if (isDiscretized[i]) {
+	cutPoints[i] = m_disc.getCutPoints(i);
+      }
+      int numValues = discretized.attribute(i).numValues();
+      counts[i] = new double[numValues * numClasses];
+      Arrays.fill(counts[i], 1);
+      sums[i] = new double[numClasses];
+      Arrays.fill(sums[i], numValues);
+    }
+    Arrays.fill(classCounts, 1);
+
+    for (int k = 0; k < discretized.numInstances(); k++) {
+      Instance instance = discretized.instance(k);
+      if (instance.classIsMissing()) {
+	continue;
+      }
+      int classValue = (int) instance.classValue();
+      for (int i = 0; i < counts.length; i++) {
+	if ((counts[i] != null) && !instance.isMissing(i)) {
+	  counts[i][(int) instance.value(i) * numClasses + classValue] +=
+	    instance.weight();
+	  sums[i][classValue] += instance.weight();
+	}
+      }
+      classCounts[classValue] += instance.weight();
+      classSum += instance.weight();
+    }
+
+    double [] logPriors = new double[numClasses];
+    for (int j = 0; j < numClasses; j++) {
+      logPriors[j] = Math.log(classCounts[j] / classSum);
+    }
+    double [][] logProbs = new double[counts.length][];
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] == null) {
+	continue;
+      }
+      logProbs[i] = new double[counts[i].length];
+      for (int v = 0; v < counts[i].length; v += numClasses) {
+	for (int j = 0; j < numClasses; j++) {
+	  logProbs[i][v + j] =
+	    Math.log(Math.max(1e-75, counts[i][v + j] / sums[i][j]));
+	}
+      }
+    }
+    m_table = new CompiledTree.NaiveBayesTable(cutPoints, isDiscretized,
+					       logPriors, logProbs);
+  }
+
+
+
+  /**
+   * Drop the naive bayes model and the discretizer if the node classifies
+   * with its compiled tables. Both keep copies of the header, and are then
+   * only needed for printing the model and for the fallback path.
+   */
+  public void compact() {
+    if (m_table != null) {
+      m_nb = null;
+      m_disc = null;
+    }
   }
 
   /**
@@ -150,6 +308,9 @@ public final class NBTreeNoSplit
    * @return a <code>String</code> value
    */
   public String toString() {
+    if (m_nb == null) {
+      return "Naive Bayes model (compacted)\n";
+    }
     return m_nb.toString();
   }
 
@@ -166,6 +327,21 @@ public final class NBTreeNoSplit
   public static double crossValidate(NaiveBayesUpdateable fullModel,
 			       Instances trainingSet,
 			       Random r) throws Exception {
+    if (!fullModel.getUseKernelEstimator()
+	&& !fullModel.getUseSupervisedDiscretization()
+	&& allNominal(trainingSet)) {
+      return crossValidateCounts(trainingSet);
+    }
+    return crossValidateCopies(fullModel, trainingSet);
+  }
+
+  /**
+   * 5-fold cross validation that unlearns each fold from a copy of the
+   * full model and evaluates the copy on it.
+   */
+  private static double crossValidateCopies(NaiveBayesUpdateable fullModel,
+					    Instances trainingSet)
+    throws Exception {
     // make some copies for fast evaluation of 5-fold xval
     Classifier [] copies = Classifier.makeCopies(fullModel, 5);
     Evaluation eval = new Evaluation(trainingSet);
@@ -183,7 +359,173 @@ public final class NBTreeNoSplit
     }
     return eval.incorrect();
   }
-  
+
+  /**
+   * Returns true if all attributes apart from the class are nominal.
+   */
+  private static boolean allNominal(Instances data) {
+
+    for (int i = 0; i < data.numAttributes(); i++) {
+      if ((i != data.classIndex()) && !data.attribute(i).isNominal()) {
+	return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * 5-fold cross validation of naive bayes on nominal attributes using
+   * count tables. With nominal attributes the model consists of
+   * Laplace-corrected counts, so the model without a fold is the table of
+   * the full data minus the fold's counts, and the fold can be scored
+   * directly from it. Gives the same folds, estimates and errors as
+   * crossValidateCopies.
+   */
+  private static double crossValidateCounts(Instances trainingSet)
+    throws Exception {
+
+    int numClasses = trainingSet.numClasses();
+    int numRows = trainingSet.numInstances();
+    int classIndex = trainingSet.classIndex();
+    int numAtts = trainingSet.numAttributes() - 1;
+    int [] offsets = new int[numAtts];
+    int size = 0;
+
+    // Table of counts per attribute, value and class, and the sums of
+    // counts per attribute and class, with the initial counts of the
+    // Laplace correction.
+    for (int a = 0, i = 0; i < trainingSet.numAttributes(); i++) {
+      if (i != classIndex) {
+	offsets[a++] = size;
+	size += trainingSet.attribute(i).numValues() * numClasses;
+      }
+    }
+    double [] counts = new double[size];
+    double [] sums = new double[numAtts * numClasses];
+    double [] classCounts = new double[numClasses];
+    double classSum = numClasses;
+    Arrays.fill(counts, 1);
+    Arrays.fill(classCounts, 1);
+    for (int a = 0, i = 0; i < trainingSet.numAttributes(); i++) {
+      if (i != classIndex) {
+	for (int c = 0; c < numClasses; c++) {
+	  sums[a * numClasses + c] = trainingSet.attribute(i).numValues();
+	}
+	a++;
+      }
+    }
+
+    // The rows as table positions (-1 for missing values).
+    int [][] cells = new int[numRows][numAtts];
+    int [] classes = new int[numRows];
+    double [] weights = new double[numRows];
+    for (int k = 0; k < numRows; k++) {
+      Instance instance = trainingSet.instance(k);
+      classes[k] = instance.classIsMissing() ? -1 : (int) instance.classValue();
+      weights[k] = instance.weight();
+      for (int a = 0, i = 0; i < trainingSet.numAttributes(); i++) {
+	if (i != classIndex) {
+	  cells[k][a] = instance.isMissing(i) ? -1
+	    : offsets[a] + (int) instance.value(i) * numClasses;
+	  a++;
+	}
+      }
+    }
+
+    // The full model.
+    for (int k = 0; k < numRows; k++) {
+      classSum = update(counts, sums, classCounts, classSum, cells[k],
+			classes[k], weights[k]);
+    }
+
+    // The folds, as in Instances.testCV().
+    double incorrect = 0;
+    double [] probs = new double[numClasses];
+    for (int j = 0; j < 5; j++) {
+      int numInFold = numRows / 5;
+      int offset;
+      if (j < numRows % 5) {
+	numInFold++;
+	offset = j;
+      } else {
+	offset = numRows % 5;
+      }
+      int first = j * (numRows / 5) + offset;
+
+      // unlearn the fold
+      double [] foldCounts = (double []) counts.clone();
+      double [] foldSums = (double []) sums.clone();
+      double [] foldClassCounts = (double []) classCounts.clone();
+      double foldClassSum = classSum;
+      for (int k = first; k < first + numInFold; k++) {
+	foldClassSum = update(foldCounts, foldSums, foldClassCounts,
+			      foldClassSum, cells[k], classes[k], -weights[k]);
+      }
+
+      // and score it
+      for (int k = first; k < first + numInFold; k++) {
+	if (classes[k] < 0) {
+	  continue;
+	}
+	for (int c = 0; c < numClasses; c++) {
+	  probs[c] = (foldClassSum == 0) ? 0 : foldClassCounts[c] / foldClassSum;
+	}
+	for (int a = 0; a < numAtts; a++) {
+	  if (cells[k][a] < 0) {
+	    continue;
+	  }
+	  double max = 0;
+	  for (int c = 0; c < numClasses; c++) {
+	    double sum = foldSums[a * numClasses + c];
+	    probs[c] *= Math.max(1e-75,
+				 (sum == 0) ? 0 : foldCounts[cells[k][a] + c] / sum);
+	    if (probs[c] > max) {
+	      max = probs[c];
+	    }
+	    if (Double.isNaN(probs[c])) {
+	      throw new Exception("NaN returned from estimator for attribute "
+				  + a);
+	    }
+	  }
+	  if ((max > 0) && (max < 1e-75)) { // Danger of probability underflow
+	    for (int c = 0; c < numClasses; c++) {
+	      probs[c] *= 1e75;
+	    }
+	  }
+	}
+	Utils.normalize(probs);
+	int predicted = Utils.maxIndex(probs);
+	if ((probs[predicted] > 0) && (predicted != classes[k])) {
+	  incorrect += weights[k];
+	}
+      }
+    }
+    return incorrect;
+  }
+
+  /**
+   * Adds a row with the given weight to count tables, as
+   * NaiveBayesUpdateable.updateClassifier() does, and returns the new sum
+   * of the class counts.
+   */
+  private static double update(double [] counts, double [] sums,
+			       double [] classCounts, double classSum,
+			       int [] cells, int classValue, double weight) {
+
+    if (classValue < 0) {
+      return classSum;
+    }
+    int numClasses = classCounts.length;
+    for (int a = 0; a < cells.length; a++) {
+      if (cells[a] >= 0) {
+	counts[cells[a] + classValue] += weight;
+	sums[a * numClasses + classValue] += weight;
+      }
+    }
+    classCounts[classValue] += weight;
+    return classSum + weight;
+  }
+
   /**
    * Returns the revision string.
    * 
@@ -71,6 +71,25 @@ public class NBTreeSplit
   public void buildClassifier(Instances trainInstances) 
        throws Exception {
 
+    buildClassifier(trainInstances, null);
+  }
+
+  /**
+   * Creates a NBTree-type split on the given data, evaluating the naive
+   * Bayes models of the subsets on the given discretised copy of the
+   * data. The data is not modified then, so splits on different
+   * attributes can be built concurrently. Assumes that none of the class
+   * values is missing.
+   *
+   * @param trainInstances the training data
+   * @param discretized the training data discretised with the cut points
+   * of the node, in the same order, or null to sort the training data and
+   * discretise each subset separately
+   * @exception Exception if something goes wrong
+   */
+  public void buildClassifier(Instances trainInstances, Instances discretized)
+       throws Exception {
+
     // Initialize the remaining instance variables.
     m_numSubsets = 0;
     m_splitPoint = Double.MAX_VALUE;
@@ -83,12 +102,25 @@ public class NBTreeSplit
     // attributes.
     if (trainInstances.attribute(m_attIndex).isNominal()) {
       m_complexityIndex = trainInstances.attribute(m_attIndex).numValues();
-      handleEnumeratedAttribute(trainInstances);
     }else{
       m_complexityIndex = 2;
-      trainInstances.sort(trainInstances.attribute(m_attIndex));
-      handleNumericAttribute(trainInstances);
+      if (discretized == null) {
+	trainInstances.sort(trainInstances.attribute(m_attIndex));
+      }
+    }
+
+    // C45Split leaves the order of the data unchanged
+    m_c45S = new C45Split(m_attIndex, 2, m_sumOfWeights);
+    m_c45S.buildClassifier(trainInstances);
+    if (m_c45S.numSubsets() == 0) {
+      return;
     }
+    m_errors = 0;
+
+    // Enumerated attributes need five instances in a subset, numeric
+    // attributes more than five.
+    evaluateSubsets(trainInstances, discretized,
+		    trainInstances.attribute(m_attIndex).isNominal() ? 5 : 6);
   }
 
   /**
@@ -100,163 +132,55 @@ public class NBTreeSplit
   }
 
   /**
-   * Creates split on enumerated attribute.
+   * Distributes the training data over the subsets of the C4.5 split and
+   * adds the cross-validated errors of a naive Bayes model for each subset
+   * with at least the given number of instances; the instances of smaller
+   * subsets count as errors. The subsets hold the (discretised) instances
+   * of the training data with their weights adjusted.
    *
    * @exception Exception if something goes wrong
    */
-  private void handleEnumeratedAttribute(Instances trainInstances)
-       throws Exception {
+  private void evaluateSubsets(Instances trainInstances, Instances discretized,
+			       int minInstances) throws Exception {
 
-    m_c45S = new C45Split(m_attIndex, 2, m_sumOfWeights);
-    m_c45S.buildClassifier(trainInstances);
-    if (m_c45S.numSubsets() == 0) {
-      return;
-    }
-    m_errors = 0;
+    Instances source = (discretized == null) ? trainInstances : discretized;
+    Instances [] trainingSets = new Instances [m_complexityIndex];
     Instance instance;
+    int subset;
 
-    Instances [] trainingSets = new Instances [m_complexityIndex];
     for (int i = 0; i < m_complexityIndex; i++) {
-      trainingSets[i] = new Instances(trainInstances, 0);
+      trainingSets[i] = new Instances(source, 0);
     }
-    /*    m_distribution = new Distribution(m_complexityIndex,
-	  trainInstances.numClasses()); */
-    int subset;
     for (int i = 0; i < trainInstances.numInstances(); i++) {
       instance = trainInstances.instance(i);
       subset = m_c45S.whichSubset(instance);
       if (subset > -1) {
-	trainingSets[subset].add((Instance)instance.copy());
+	trainingSets[subset].add(source.instance(i));
       } else {
 	double [] weights = m_c45S.weights(instance);
 	for (int j = 0; j < m_complexityIndex; j++) {
-	  try {
-	    Instance temp = (Instance) instance.copy();
-	    if (weights.length == m_complexityIndex) {
-	      temp.setWeight(temp.weight() * weights[j]);
-	    } else {
-	      temp.setWeight(temp.weight() / m_complexityIndex);
-	    }
-	    trainingSets[j].add(temp);
-	  } catch (Exception ex) {
-	    ex.printStackTrace();
-	    System.err.println("*** "+m_complexityIndex);
-	    System.err.println(weights.length);
-	    System.exit(1);
-	  }
-	}
-      }
-    }
-
-    /*    // compute weights (weights of instances per subset
-    m_weights = new double [m_complexityIndex];
-    for (int i = 0; i < m_complexityIndex; i++) {
-      m_weights[i] = trainingSets[i].sumOfWeights();
-    }
-    Utils.normalize(m_weights); */
-
-    /*
-    // Only Instances with known values are relevant.
-    Enumeration enu = trainInstances.enumerateInstances();
-    while (enu.hasMoreElements()) {
-      instance = (Instance) enu.nextElement();
-      if (!instance.isMissing(m_attIndex)) {
-	//	m_distribution.add((int)instance.value(m_attIndex),instance);
-	trainingSets[(int)instances.value(m_attIndex)].add(instance);
-      } else {
-	// add these to the error count
-	m_errors += instance.weight();
-      }
-      } */
-
-    Random r = new Random(1);
-    int minNumCount = 0;
-    for (int i = 0; i < m_complexityIndex; i++) {
-      if (trainingSets[i].numInstances() >= 5) {
-	minNumCount++;
-	// Discretize the sets
-	Discretize disc = new Discretize();
-	disc.setInputFormat(trainingSets[i]);
-	trainingSets[i] = Filter.useFilter(trainingSets[i], disc);
-
-	trainingSets[i].randomize(r);
-	trainingSets[i].stratify(5);
-	NaiveBayesUpdateable fullModel = new NaiveBayesUpdateable();
-	fullModel.buildClassifier(trainingSets[i]);
-
-	// add the errors for this branch of the split
-	m_errors += NBTreeNoSplit.crossValidate(fullModel, trainingSets[i], r);
-      } else {
-	// if fewer than min obj then just count them as errors
-	for (int j = 0; j < trainingSets[i].numInstances(); j++) {
-	  m_errors += trainingSets[i].instance(j).weight();
-	}
-      }
-    }
-    
-    // Check if there are at least five instances in at least two of the subsets
-    // subsets.
-    if (minNumCount > 1) {
-      m_numSubsets = m_complexityIndex;
-    }
-  }
-
-  /**
-   * Creates split on numeric attribute.
-   *
-   * @exception Exception if something goes wrong
-   */
-  private void handleNumericAttribute(Instances trainInstances)
-       throws Exception {
-
-    m_c45S = new C45Split(m_attIndex, 2, m_sumOfWeights);
-    m_c45S.buildClassifier(trainInstances);
-    if (m_c45S.numSubsets() == 0) {
-      return;
-    }
-    m_errors = 0;
-
-    Instances [] trainingSets = new Instances [m_complexityIndex];
-    trainingSets[0] = new Instances(trainInstances, 0);
-    trainingSets[1] = new Instances(trainInstances, 0);
-    int subset = -1;
-    
-    // populate the subsets
-    for (int i = 0; i < trainInstances.numInstances(); i++) {
-      Instance instance = trainInstances.instance(i);
-      subset = m_c45S.whichSubset(instance);
-      if (subset != -1) {
-	trainingSets[subset].add((Instance)instance.copy());
-      } else {
-	double [] weights = m_c45S.weights(instance);
-	for (int j = 0; j < m_complexityIndex; j++) {
-	  Instance temp = (Instance)instance.copy();
+	  trainingSets[j].add(source.instance(i));
+	  Instance temp = trainingSets[j].lastInstance();
 	  if (weights.length == m_complexityIndex) {
 	    temp.setWeight(temp.weight() * weights[j]);
 	  } else {
 	    temp.setWeight(temp.weight() / m_complexityIndex);
 	  }
-	  trainingSets[j].add(temp); 
 	}
       }
     }
-    
-    /*    // compute weights (weights of instances per subset
-    m_weights = new double [m_complexityIndex];
-    for (int i = 0; i < m_complexityIndex; i++) {
-      m_weights[i] = trainingSets[i].sumOfWeights();
-    }
-    Utils.normalize(m_weights); */
 
     Random r = new Random(1);
     int minNumCount = 0;
     for (int i = 0; i < m_complexityIndex; i++) {
-      if (trainingSets[i].numInstances() > 5) {
+      if (trainingSets[i].numInstances() >= minInstances) {
 	minNumCount++;
 	// Discretize the sets
-		Discretize disc = new Discretize();
-	disc.setInputFormat(trainingSets[i]);
-	trainingSets[i] = Filter.useFilter(trainingSets[i], disc);
+	if (discretized == null) {
+	  Discretize disc = new Discretize();
+	  disc.setInputFormat(trainingSets[i]);
+	  trainingSets[i] = Filter.useFilter(trainingSets[i], disc);
+	}
 
 	trainingSets[i].randomize(r);
 	trainingSets[i].stratify(5);
@@ -266,13 +190,14 @@ public class NBTreeSplit
 	// add the errors for this branch of the split
 	m_errors += NBTreeNoSplit.crossValidate(fullModel, trainingSets[i], r);
       } else {
+	// if fewer than min obj then just count them as errors
 	for (int j = 0; j < trainingSets[i].numInstances(); j++) {
 	  m_errors += trainingSets[i].instance(j).weight();
 	}
       }
     }
     
-    // Check if minimum number of Instances in at least two
+    // Check if there are at least five instances in at least two of the
     // subsets.
     if (minNumCount > 1) {
       m_numSubsets = m_complexityIndex;
@@ -352,6 +277,43 @@ public class NBTreeSplit
     }
   }
 
+  /**
+   * Return the probabilities of all classes
+   *
+   * @param instance the instance to generate the probabilities for
+   * @param theSubset the subset to consider
+   * @return the probabilities
+   * @exception Exception if an error occurs
+   */
+  public double [] classProbs(Instance instance, int theSubset) 
+    throws Exception {
+
+    // use the global naive bayes model
+    if (theSubset > -1) {
+      return m_globalNB.classProbs(instance, theSubset);
+    } else {
+      throw new Exception("This shouldn't happen!!!");
+    }
+  }
+
+  /**
+   * Compacts the global naive bayes model of this node.
+   */
+  public void compact() {
+    if (m_globalNB != null) {
+      m_globalNB.compact();
+    }
+  }
+
+  /**
+   * Returns the C4.5 split this split tests with.
+   *
+   * @return the C4.5 split
+   */
+  public C45Split c45Split() {
+    return m_c45S;
+  }
+
   /**
    * Return the global naive bayes model for this node
    *
@@ -0,0 +1,383 @@
+package J48.Classifier;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compiled tree kept outside the Java heap, for scoring JVMs holding many
+ * models. Nodes, children, missing value fractions and leaf distributions
+ * live in one direct ByteBuffer, or in a file mapped into memory, so the
+ * garbage collector sees a single small object per tree instead of the
+ * node objects and distributions of a ClassifierTree or the arrays of a
+ * CompiledTree. Scoring reads the buffer with absolute gets and classifies
+ * rows as the compiled tree does.
+ *
+ * The buffer holds, in little-endian order, a header of eight ints
+ * (magic, version, number of nodes, number of children, number of
+ * classes, root, number of probabilities, unused), then a record of 32
+ * bytes per node (attribute or -1 for leaves, number of children, index
+ * of the first child or of the leaf's distribution, flags, split point or
+ * NaN, predicted class or NaN), the children as ints, their missing value
+ * fractions as doubles, and the leaf distributions as doubles. Trees with
+ * naive Bayes leaves can't be stored off-heap.
+ *
+ * Like a compiled tree, an off-heap tree is immutable and can be shared by
+ * any number of scoring threads. A mapped file stays mapped until the tree
+ * is garbage collected.
+ *
+ * @version $Revision$
+ */
+public final class OffHeapTree
+  extends FlatTree {
+
+  /** Marks a file of an off-heap tree ("J48T"). */
+  private static final int MAGIC = 0x4A343854;
+
+  /** Version of the format. */
+  private static final int VERSION = 1;
+
+  /** Size of the header in bytes. */
+  private static final int HEADER_BYTES = 32;
+
+  /** Size of a node record in bytes. */
+  private static final int NODE_BYTES = 32;
+
+  /** Flag of leaves left out when a row is fractioned over the children. */
+  private static final int EMPTY = 1;
+
+  /** Flag of nodes supporting missing values. */
+  private static final int MISSING = 2;
+
+  /** The buffer holding the tree. */
+  private final ByteBuffer m_buffer;
+
+  /** The number of nodes. */
+  private final int m_numNodes;
+
+  /** The root node. */
+  private final int m_root;
+
+  /** The number of classes. */
+  private final int m_numClasses;
+
+  /** Offset of the children in the buffer. */
+  private final int m_childrenOffset;
+
+  /** Offset of the missing value fractions in the buffer. */
+  private final int m_weightsOffset;
+
+  /** Offset of the leaf distributions in the buffer. */
+  private final int m_probsOffset;
+
+  /**
+   * Writes the arrays of a compiled tree to a direct buffer (see
+   * CompiledTree.toOffHeap()).
+   *
+   * @param attribute the attribute tested at each node (-1 for leaves)
+   * @param splitPoint the split point of each node (NaN for nominal tests)
+   * @param firstChild the index of the first child of each node
+   * @param numChildren the number of children of each node
+   * @param children the children of all nodes
+   * @param distributions the class distribution of each leaf (null for
+   * inner nodes)
+   * @param classValue the predicted class of each leaf (NaN for none)
+   * @param missingWeights the fractions for missing values of each node
+   * @param empty whether a leaf is left out when rows are fractioned
+   * @param root the root node
+   * @param numClasses the number of classes
+   */
+  OffHeapTree(int [] attribute, double [] splitPoint, int [] firstChild,
+	      int [] numChildren, int [] children, double [][] distributions,
+	      double [] classValue, double [][] missingWeights,
+	      boolean [] empty, int root, int numClasses) {
+
+    int numNodes = attribute.length;
+    int numProbs = 0;
+
+    for (int i = 0; i < numNodes; i++) {
+      if (distributions[i] != null) {
+	numProbs += numClasses;
+      }
+    }
+    long size = size(numNodes, children.length, numProbs);
+    if (size > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Tree too large for a buffer: "
+					 + size + " bytes");
+    }
+    ByteBuffer buffer =
+      ByteBuffer.allocateDirect((int) size).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(numNodes)
+      .putInt(children.length).putInt(numClasses).putInt(root)
+      .putInt(numProbs).putInt(0);
+
+    int prob = 0;
+    for (int i = 0; i < numNodes; i++) {
+      int flags = (empty[i] ? EMPTY : 0)
+	| ((missingWeights[i] != null) ? MISSING : 0);
+      buffer.putInt(attribute[i]).putInt(numChildren[i])
+	.putInt((distributions[i] == null) ? firstChild[i] : prob)
+	.putInt(flags).putDouble(splitPoint[i]).putDouble(classValue[i]);
+      if (distributions[i] != null) {
+	prob += numClasses;
+      }
+    }
+    for (int i = 0; i < children.length; i++) {
+      buffer.putInt(children[i]);
+    }
+    buffer.position(align(buffer.position()));
+    double [] weights = new double[children.length];
+    for (int i = 0; i < numNodes; i++) {
+      for (int j = 0; j < numChildren[i]; j++) {
+	weights[firstChild[i] + j] = (missingWeights[i] == null)
+	  ? Double.NaN : missingWeights[i][j];
+      }
+    }
+    for (int i = 0; i < weights.length; i++) {
+      buffer.putDouble(weights[i]);
+    }
+    for (int i = 0; i < numNodes; i++) {
+      if (distributions[i] != null) {
+	for (int j = 0; j < numClasses; j++) {
+	  buffer.putDouble(distributions[i][j]);
+	}
+      }
+    }
+    buffer.clear();
+
+    m_buffer = buffer;
+    m_numNodes = numNodes;
+    m_root = root;
+    m_numClasses = numClasses;
+    m_childrenOffset = HEADER_BYTES + NODE_BYTES * numNodes;
+    m_weightsOffset = align(m_childrenOffset + 4 * children.length);
+    m_probsOffset = m_weightsOffset + 8 * children.length;
+  }
+
+  /**
+   * Reads a tree from a buffer in the off-heap format.
+   *
+   * @throws IOException if the buffer doesn't hold a tree
+   */
+  private OffHeapTree(ByteBuffer buffer) throws IOException {
+
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    if ((buffer.capacity() < HEADER_BYTES) || (buffer.getInt(0) != MAGIC)) {
+      throw new IOException("Not an off-heap tree.");
+    }
+    if (buffer.getInt(4) != VERSION) {
+      throw new IOException("Unsupported off-heap tree version "
+			    + buffer.getInt(4));
+    }
+    int numNodes = buffer.getInt(8);
+    int numEntries = buffer.getInt(12);
+    int numProbs = buffer.getInt(24);
+    if ((numNodes <= 0) || (numEntries < 0) || (numProbs < 0)
+	|| (size(numNodes, numEntries, numProbs) > buffer.capacity())) {
+      throw new IOException("Truncated off-heap tree.");
+    }
+    m_buffer = buffer;
+    m_numNodes = numNodes;
+    m_numClasses = buffer.getInt(16);
+    m_root = buffer.getInt(20);
+    m_childrenOffset = HEADER_BYTES + NODE_BYTES * numNodes;
+    m_weightsOffset = align(m_childrenOffset + 4 * numEntries);
+    m_probsOffset = m_weightsOffset + 8 * numEntries;
+  }
+
+  /**
+   * Returns the size of a tree in bytes.
+   */
+  private static long size(int numNodes, int numEntries, int numProbs) {
+
+    long children = HEADER_BYTES + (long) NODE_BYTES * numNodes
+      + 4L * numEntries;
+
+    return ((children + 7) & ~7L) + 8L * numEntries + 8L * numProbs;
+  }
+
+  /**
+   * Rounds an offset up to a multiple of 8.
+   */
+  private static int align(int offset) {
+
+    return (offset + 7) & ~7;
+  }
+
+  /**
+   * Maps a tree written with write() into memory, without reading it onto
+   * the heap.
+   *
+   * @param file the file
+   * @return the tree
+   * @throws IOException if the file can't be mapped or doesn't hold a tree
+   */
+  public static OffHeapTree map(File file) throws IOException {
+
+    FileChannel channel = FileChannel.open(file.toPath(),
+					   StandardOpenOption.READ);
+    try {
+      return new OffHeapTree(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					 channel.size()));
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Writes the tree to a file, to be mapped with map().
+   *
+   * @param file the file
+   * @throws IOException if the file can't be written
+   */
+  public void write(File file) throws IOException {
+
+    ByteBuffer buffer = m_buffer.duplicate();
+    FileChannel channel = FileChannel.open(file.toPath(),
+					   StandardOpenOption.CREATE,
+					   StandardOpenOption.TRUNCATE_EXISTING,
+					   StandardOpenOption.WRITE);
+    try {
+      buffer.clear();
+      while (buffer.hasRemaining()) {
+	channel.write(buffer);
+      }
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Returns the number of nodes.
+   */
+  public int numNodes() {
+
+    return m_numNodes;
+  }
+
+  /**
+   * Returns the number of classes.
+   */
+  public int numClasses() {
+
+    return m_numClasses;
+  }
+
+  /**
+   * Returns the number of bytes the tree takes outside the heap.
+   */
+  public int byteSize() {
+
+    return m_buffer.capacity();
+  }
+
+  /**
+   * Returns the attribute tested at a node, or -1 for leaves.
+   */
+  int attribute(int node) {
+
+    return m_buffer.getInt(HEADER_BYTES + NODE_BYTES * node);
+  }
+
+  /**
+   * Returns the number of children of a node.
+   */
+  int numChildren(int node) {
+
+    return m_buffer.getInt(HEADER_BYTES + NODE_BYTES * node + 4);
+  }
+
+  /**
+   * Returns the index of the first child of an inner node, or of the
+   * first probability of a leaf.
+   */
+  private int first(int node) {
+
+    return m_buffer.getInt(HEADER_BYTES + NODE_BYTES * node + 8);
+  }
+
+  /**
+   * Returns whether a node has a flag.
+   */
+  private boolean flag(int node, int flag) {
+
+    return (m_buffer.getInt(HEADER_BYTES + NODE_BYTES * node + 12) & flag)
+      != 0;
+  }
+
+  /**
+   * Returns the root node.
+   */
+  int root() {
+
+    return m_root;
+  }
+
+  /**
+   * Returns the split point of a numeric test, or NaN for nominal tests.
+   */
+  double splitPoint(int node) {
+
+    return m_buffer.getDouble(HEADER_BYTES + NODE_BYTES * node + 16);
+  }
+
+  /**
+   * Returns a child of an inner node.
+   */
+  int childAt(int node, int index) {
+
+    return m_buffer.getInt(m_childrenOffset + 4 * (first(node) + index));
+  }
+
+  /**
+   * Returns the fraction of a row with a missing test value going to a
+   * child of an inner node, or NaN if the node doesn't support missing
+   * values.
+   */
+  double missingWeight(int node, int index) {
+
+    if (!flag(node, MISSING)) {
+      return Double.NaN;
+    }
+    return m_buffer.getDouble(m_weightsOffset + 8 * (first(node) + index));
+  }
+
+  /**
+   * Returns whether a leaf is left out when a row is fractioned over the
+   * children.
+   */
+  boolean isEmpty(int node) {
+
+    return flag(node, EMPTY);
+  }
+
+  /**
+   * Returns the probability of a class at a leaf.
+   */
+  private double prob(int leaf, int classIndex) {
+
+    return m_buffer.getDouble(m_probsOffset + 8 * (first(leaf) + classIndex));
+  }
+
+  /**
+   * Returns the predicted class of a leaf, or NaN if it predicts none.
+   */
+  double leafClassValue(int leaf, double [] values) {
+
+    return m_buffer.getDouble(HEADER_BYTES + NODE_BYTES * leaf + 24);
+  }
+
+  /**
+   * Adds the weighted class distribution of a leaf.
+   */
+  void addLeafDistribution(int leaf, double [] values, double weight,
+			   double [] distribution) {
+
+    for (int j = 0; j < m_numClasses; j++) {
+      distribution[j] += weight * prob(leaf, j);
+    }
+  }
+}
@@ -0,0 +1,337 @@
+
+package J48.Classifier;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class for growing a C4.5-type tree on data that does not fit into
+ * memory. The rows reaching a node are kept in a spill file; the split is
+ * selected from the node's AVC-group, aggregated in one streaming scan of
+ * the file, and a second scan writes the rows into one spill file per
+ * subset. Partitions with few enough rows are loaded and grown in memory
+ * as usual. Only the AVC-group of the current node (distinct values times
+ * classes) and the distinct values of the numeric attributes have to fit
+ * into memory; split points are moved to these values, as in a tree grown
+ * in memory.
+ *
+ * @version $Revision$
+ */
+public class OutOfCoreTreeBuilder
+  implements RevisionHandler {
+
+  /** The split selection method. */
+  private final C45ModelSelection m_toSelectModel;
+
+  /** Directory for the spill files (null = default temporary directory). */
+  private final File m_spillDir;
+
+  /** Partitions with at most this many rows are grown in memory. */
+  private final int m_maxInMemoryRows;
+
+  /** The dataset structure. */
+  private Instances m_header;
+
+  /** The spill files of the current build. */
+  private final List<File> m_spillFiles = new ArrayList<File>();
+
+  /**
+   * Rows of a node in a spill file. Each row is stored as its weight
+   * followed by its attribute values.
+   */
+  private static class Partition {
+
+    /** The spill file. */
+    File m_file;
+
+    /** Number of rows in the file. */
+    int m_numRows;
+
+    /** The AVC-group of the rows, if it was aggregated while writing. */
+    AVCGroup m_group;
+  }
+
+  /**
+   * Initializes the builder.
+   *
+   * @param toSelectModel the split selection method; its full training
+   * data is not used
+   * @param spillDir directory for the spill files (null = default
+   * temporary directory)
+   * @param maxInMemoryRows partitions with at most this many rows are
+   * grown in memory
+   */
+  public OutOfCoreTreeBuilder(C45ModelSelection toSelectModel, File spillDir,
+			      int maxInMemoryRows) {
+
+    m_toSelectModel = toSelectModel;
+    m_spillDir = spillDir;
+    m_maxInMemoryRows = maxInMemoryRows;
+  }
+
+  /**
+   * Grows a tree on the rows of the given source, which is read once.
+   * Rows with a missing class are skipped. The tree is neither collapsed
+   * nor pruned; subtree raising is not possible because the nodes do not
+   * keep their training data. The spill files are deleted, also if the
+   * build fails.
+   *
+   * @param source the source, with the class index of its structure set
+   * @param tree the (empty) root of the tree to grow
+   * @exception Exception if something goes wrong
+   */
+  public void buildTree(DataSource source, ClassifierTree tree)
+    throws Exception {
+
+    Partition root = new Partition();
+    DataOutputStream out;
+    Instance instance;
+    double [] values;
+
+    m_header = new Instances(source.getStructure(), 0);
+    if (m_header.classIndex() < 0) {
+      m_header.setClassIndex(m_header.numAttributes() - 1);
+    }
+    root.m_group = new AVCGroup(m_header);
+    try {
+      root.m_file = newSpillFile();
+      out = open(root.m_file);
+      try {
+	while (source.hasMoreElements(m_header)) {
+	  instance = source.nextElement(m_header);
+	  if (!instance.classIsMissing()) {
+	    values = instance.toDoubleArray();
+	    write(out, values, instance.weight());
+	    root.m_group.add(values, instance.weight());
+	    root.m_numRows++;
+	  }
+	}
+      } finally {
+	out.close();
+      }
+      m_toSelectModel.setAllValues(root.m_group);
+      buildNode(tree, root);
+    } finally {
+      m_toSelectModel.setAllValues(null);
+      for (int i = 0; i < m_spillFiles.size(); i++) {
+	m_spillFiles.get(i).delete();
+      }
+      m_spillFiles.clear();
+    }
+  }
+
+  /**
+   * Returns the dataset structure of the last source.
+   */
+  public Instances header() {
+
+    return m_header;
+  }
+
+  /**
+   * Grows the subtree for the rows in the given partition and deletes the
+   * partition's spill file.
+   */
+  private void buildNode(ClassifierTree node, Partition partition)
+    throws Exception {
+
+    AVCGroup group = partition.m_group;
+    Partition [] subsets;
+
+    partition.m_group = null;
+    if (partition.m_numRows <= m_maxInMemoryRows) {
+      node.buildTree(load(partition), false);
+      return;
+    }
+
+    // Aggregate the AVC-group in one scan.
+    if (group == null) {
+      group = new AVCGroup(m_header);
+      DataInputStream in = openForReading(partition.m_file);
+      try {
+	double [] values = new double[m_header.numAttributes()];
+	for (int i = 0; i < partition.m_numRows; i++) {
+	  group.add(values, read(in, values));
+	}
+      } finally {
+	in.close();
+      }
+    }
+
+    node.m_test = null;
+    node.m_isLeaf = false;
+    node.m_isEmpty = false;
+    node.m_sons = null;
+    node.m_localModel = m_toSelectModel.selectModel(group);
+    if (node.m_localModel.numSubsets() > 1) {
+      subsets = split(partition, node.m_localModel);
+      node.m_sons = new ClassifierTree [subsets.length];
+      for (int i = 0; i < subsets.length; i++) {
+	node.m_sons[i] = node.getNewTree(new Instances(m_header, 0));
+	buildNode(node.m_sons[i], subsets[i]);
+	subsets[i] = null;
+      }
+    } else {
+      node.m_isLeaf = true;
+      if (Utils.eq(group.classDistribution().total(), 0))
+	node.m_isEmpty = true;
+      partition.m_file.delete();
+    }
+  }
+
+  /**
+   * Writes the rows of a partition into one partition per subset of the
+   * given split, weighting rows with unknown values as
+   * ClassifierSplitModel.split() does, and deletes the partition's spill
+   * file.
+   */
+  private Partition [] split(Partition partition, ClassifierSplitModel model)
+    throws Exception {
+
+    Partition [] subsets = new Partition [model.numSubsets()];
+    DataOutputStream [] outs = new DataOutputStream [subsets.length];
+    double [] values = new double[m_header.numAttributes()];
+    double [] weights;
+    double weight;
+    Instance instance;
+    int subset;
+
+    DataInputStream in = openForReading(partition.m_file);
+    try {
+      for (int j = 0; j < subsets.length; j++) {
+	subsets[j] = new Partition();
+	subsets[j].m_file = newSpillFile();
+	outs[j] = open(subsets[j].m_file);
+      }
+      for (int i = 0; i < partition.m_numRows; i++) {
+	weight = read(in, values);
+	instance = new Instance(weight, values);
+	instance.setDataset(m_header);
+	subset = model.whichSubset(instance);
+	if (subset > -1) {
+	  write(outs[subset], values, weight);
+	  subsets[subset].m_numRows++;
+	} else {
+	  weights = model.weights(instance);
+	  for (int j = 0; j < subsets.length; j++) {
+	    if (Utils.gr(weights[j], 0)) {
+	      write(outs[j], values, weights[j] * weight);
+	      subsets[j].m_numRows++;
+	    }
+	  }
+	}
+      }
+    } finally {
+      in.close();
+      for (int j = 0; j < outs.length; j++) {
+	if (outs[j] != null) {
+	  outs[j].close();
+	}
+      }
+    }
+    partition.m_file.delete();
+    return subsets;
+  }
+
+  /**
+   * Loads the rows of a partition into memory and deletes its spill file.
+   */
+  private Instances load(Partition partition) throws IOException {
+
+    Instances data = new Instances(m_header, partition.m_numRows);
+    DataInputStream in = openForReading(partition.m_file);
+    double [] values;
+    double weight;
+
+    try {
+      for (int i = 0; i < partition.m_numRows; i++) {
+	values = new double[m_header.numAttributes()];
+	weight = read(in, values);
+	data.add(new Instance(weight, values));
+      }
+    } finally {
+      in.close();
+    }
+    partition.m_file.delete();
+    return data;
+  }
+
+  /**
+   * Creates a new, empty spill file.
+   */
+  private File newSpillFile() throws IOException {
+
+    File file = File.createTempFile("j48-", ".spill", m_spillDir);
+    file.deleteOnExit();
+    m_spillFiles.add(file);
+    return file;
+  }
+
+  /**
+   * Opens a spill file for writing.
+   */
+  private static DataOutputStream open(File file) throws IOException {
+
+    return new DataOutputStream(new BufferedOutputStream(
+      new FileOutputStream(file), 1 << 16));
+  }
+
+  /**
+   * Opens a spill file for reading.
+   */
+  private static DataInputStream openForReading(File file) throws IOException {
+
+    return new DataInputStream(new BufferedInputStream(
+      new FileInputStream(file), 1 << 16));
+  }
+
+  /**
+   * Writes a row.
+   */
+  private static void write(DataOutputStream out, double [] values,
+			    double weight) throws IOException {
+
+    out.writeDouble(weight);
+    for (int i = 0; i < values.length; i++) {
+      out.writeDouble(values[i]);
+    }
+  }
+
+  /**
+   * Reads a row into the given array and returns its weight.
+   */
+  private static double read(DataInputStream in, double [] values)
+    throws IOException {
+
+    double weight = in.readDouble();
+
+    for (int i = 0; i < values.length; i++) {
+      values[i] = in.readDouble();
+    }
+    return weight;
+  }
+
+  /**
+   * Returns the revision string.
+   * 
+   * @return		the revision
+   */
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+}
@@ -0,0 +1,132 @@
+package J48.Classifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import weka.core.Utils;
+
+/**
+ * Training and voting shared by the bagged ensembles (MyJ48Bagging and
+ * MyBagging). Members are trained in parallel, each on a bootstrap sample
+ * of one shared dataset (see BootstrapSample), and vote by averaging
+ * their class distributions. Only the Utils calls common to weka 3.6 and
+ * 3.8 are used, so the classes of the default package, which run on weka
+ * 3.8, can share this class; they build the rows of a sample themselves.
+ *
+ * @version $Revision$
+ */
+public final class ParallelBagging {
+
+  /**
+   * Trains a member of an ensemble.
+   */
+  public interface Trainer {
+
+    /**
+     * Trains a member on its bootstrap sample.
+     *
+     * @param member the index of the member
+     * @param sample the member's sample of the shared dataset
+     * @exception Exception if the member can't be trained
+     */
+    void train(int member, BootstrapSample sample) throws Exception;
+  }
+
+  /**
+   * Gives the votes of the members of an ensemble.
+   */
+  public interface Voter {
+
+    /**
+     * Returns the class distribution a member predicts.
+     *
+     * @param member the index of the member
+     * @return the class distribution
+     * @exception Exception if the distribution can't be computed
+     */
+    double [] distribution(int member) throws Exception;
+  }
+
+  private ParallelBagging() {
+  }
+
+  /**
+   * Trains the members of an ensemble, at most numThreads at a time. The
+   * sample of member i is drawn with seed + i.
+   *
+   * @param numRows the number of rows of the shared dataset
+   * @param numMembers the number of members
+   * @param numThreads the number of threads (0 = one per core)
+   * @param seed the seed of the first member's sample
+   * @param trainer trains a member on its sample
+   * @exception Exception the exception of the first member that failed
+   */
+  public static void train(final int numRows, int numMembers,
+			   int numThreads, final int seed,
+			   final Trainer trainer) throws Exception {
+
+    if (numThreads <= 0) {
+      numThreads = Runtime.getRuntime().availableProcessors();
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1,
+      Math.min(numThreads, numMembers)));
+    try {
+      List<Future<Void>> results = new ArrayList<Future<Void>>();
+      for (int i = 0; i < numMembers; i++) {
+	final int member = i;
+	results.add(pool.submit(new Callable<Void>() {
+	  public Void call() throws Exception {
+	    trainer.train(member, new BootstrapSample(numRows,
+						      new Random(seed + member)));
+	    return null;
+	  }
+	}));
+      }
+      for (Future<Void> result : results) {
+	try {
+	  result.get();
+	} catch (ExecutionException e) {
+	  if (e.getCause() instanceof Exception) {
+	    throw (Exception) e.getCause();
+	  }
+	  throw e;
+	}
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns the average of the members' class distributions, or all
+   * zeros if no member predicts a class.
+   *
+   * @param numMembers the number of members
+   * @param numClasses the number of classes
+   * @param voter gives the distribution of a member
+   * @return the class distribution of the ensemble
+   * @exception Exception if a member's distribution can't be computed
+   */
+  public static double [] vote(int numMembers, int numClasses, Voter voter)
+    throws Exception {
+
+    double [] sums = new double[numClasses];
+
+    for (int i = 0; i < numMembers; i++) {
+      double [] dist = voter.distribution(i);
+      for (int j = 0; j < sums.length; j++) {
+	sums[j] += dist[j];
+      }
+    }
+    if (!Utils.eq(Utils.sum(sums), 0)) {
+      Utils.normalize(sums);
+    }
+    return sums;
+  }
+}
@@ -0,0 +1,297 @@
+package J48.Classifier;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of the predictions of a tree over nominal attributes, for
+ * workloads where the same rows are scored over and over. What is cached
+ * is up to the tree: a class distribution, or the leaf a row reaches.
+ * A row is keyed by the values of the attributes the tree tests anywhere,
+ * packed into a long (one code per attribute, 0 for a missing value), so
+ * rows differing only in attributes the tree ignores share an entry.
+ * Trees testing numeric attributes, or too many nominal values to pack in
+ * 63 bits, can't be cached.
+ *
+ * Entries live in a fixed table of two-way sets. A lookup reads the two
+ * slots of the key's set and a miss replaces the slot that wasn't used
+ * since the set was last written, so threads score and evict without
+ * locks. Hits, misses and evictions are counted in LongAdders.
+ *
+ * @version $Revision$
+ */
+public class PredictionCache<V> {
+
+  /**
+   * A cached prediction.
+   */
+  private static final class Entry<V> {
+
+    /** The packed key. */
+    final long m_key;
+
+    /** The prediction (not to be changed). */
+    final V m_value;
+
+    /** Whether the entry was used since its set was last written (a
+	benign race: a lost update only affects which slot is evicted). */
+    boolean m_used;
+
+    Entry(long key, V value) {
+
+      m_key = key;
+      m_value = value;
+    }
+  }
+
+  /** The attributes in the key. */
+  private final int [] m_attributes;
+
+  /** The number of values of each attribute in the key. */
+  private final int [] m_numValues;
+
+  /** The bit position of each attribute's code in the key. */
+  private final int [] m_shift;
+
+  /** The slots, two per set. */
+  private final AtomicReferenceArray<Entry<V>> m_slots;
+
+  /** The index of the first slot of the last set. */
+  private final int m_mask;
+
+  /** Number of lookups served from the cache. */
+  private final LongAdder m_hits = new LongAdder();
+
+  /** Number of lookups not served from the cache. */
+  private final LongAdder m_misses = new LongAdder();
+
+  /** Number of entries replaced by others. */
+  private final LongAdder m_evictions = new LongAdder();
+
+  /**
+   * Creates a cache.
+   *
+   * @param attributes the attributes the tree tests
+   * @param numValues the number of values of each of them
+   * @param capacity the largest number of entries, rounded up to a power
+   * of two
+   * @throws IllegalArgumentException if the codes don't fit in 63 bits
+   */
+  public PredictionCache(int [] attributes, int [] numValues, int capacity) {
+
+    int bits = 0;
+
+    if (capacity < 2) {
+      throw new IllegalArgumentException("Capacity must be at least 2.");
+    }
+    m_attributes = attributes.clone();
+    m_numValues = numValues.clone();
+    m_shift = new int[attributes.length];
+    for (int i = 0; i < attributes.length; i++) {
+      m_shift[i] = bits;
+      bits += 32 - Integer.numberOfLeadingZeros(numValues[i]);
+      if (bits > 63) {
+	throw new IllegalArgumentException("The values of "
+					   + attributes.length
+					   + " attributes don't fit in a key.");
+      }
+    }
+    int size = Integer.highestOneBit(capacity - 1) << 1;
+    m_slots = new AtomicReferenceArray<Entry<V>>(size);
+    m_mask = size - 2;
+  }
+
+  /**
+   * Returns the number of attributes in the key.
+   */
+  public int numAttributes() {
+
+    return m_attributes.length;
+  }
+
+  /**
+   * Returns an attribute in the key.
+   *
+   * @param i the position of the attribute in the key
+   * @return the index of the attribute
+   */
+  public int attribute(int i) {
+
+    return m_attributes[i];
+  }
+
+  /**
+   * Adds the value of an attribute to a key.
+   *
+   * @param key the key so far (0 to start)
+   * @param i the position of the attribute in the key
+   * @param value the value of the attribute (NaN if missing)
+   * @return the key, or -1 if the value can't be packed
+   */
+  public long pack(long key, int i, double value) {
+
+    long code;
+
+    if (key < 0) {
+      return key;
+    }
+    if (Double.isNaN(value)) {
+      code = 0;
+    } else if ((value >= 0) && (value < m_numValues[i])
+	       && (value == (int) value)) {
+      code = (long) value + 1;
+    } else {
+      return -1;
+    }
+    return key | (code << m_shift[i]);
+  }
+
+  /**
+   * Returns the key of a row.
+   *
+   * @param values the attribute values of the row
+   * @return the key, or -1 if the row can't be cached
+   */
+  public long key(double [] values) {
+
+    long key = 0;
+
+    for (int i = 0; i < m_attributes.length; i++) {
+      key = pack(key, i, values[m_attributes[i]]);
+    }
+    return key;
+  }
+
+  /**
+   * Returns the first slot of a key's set.
+   */
+  private int set(long key) {
+
+    long h = key * 0x9E3779B97F4A7C15L;
+
+    return (int) (h ^ (h >>> 32)) & m_mask;
+  }
+
+  /**
+   * Returns the cached prediction of a key. Callers must not change it.
+   *
+   * @param key the key
+   * @return the prediction, or null if it isn't cached
+   */
+  public V get(long key) {
+
+    int set = set(key);
+
+    for (int i = set; i < set + 2; i++) {
+      Entry<V> entry = m_slots.get(i);
+      if ((entry != null) && (entry.m_key == key)) {
+	if (!entry.m_used) {
+	  entry.m_used = true;
+	}
+	m_hits.increment();
+	return entry.m_value;
+      }
+    }
+    m_misses.increment();
+    return null;
+  }
+
+  /**
+   * Caches the prediction of a key, replacing an empty slot of its set, or
+   * else the slot not used since the set was last written.
+   *
+   * @param key the key
+   * @param value the prediction (not to be changed afterwards)
+   */
+  public void put(long key, V value) {
+
+    int set = set(key);
+    Entry<V> first = m_slots.get(set);
+    Entry<V> second = m_slots.get(set + 1);
+    int slot;
+
+    if ((first == null) || (first.m_key == key)) {
+      slot = set;
+    } else if ((second == null) || (second.m_key == key)) {
+      slot = set + 1;
+    } else {
+      slot = (first.m_used && !second.m_used) ? set + 1 : set;
+      first.m_used = false;
+      second.m_used = false;
+      m_evictions.increment();
+    }
+    m_slots.set(slot, new Entry<V>(key, value));
+  }
+
+  /**
+   * Removes all entries and resets the counters.
+   */
+  public void clear() {
+
+    for (int i = 0; i < m_slots.length(); i++) {
+      m_slots.set(i, null);
+    }
+    m_hits.reset();
+    m_misses.reset();
+    m_evictions.reset();
+  }
+
+  /**
+   * Returns the largest number of entries.
+   */
+  public int capacity() {
+
+    return m_slots.length();
+  }
+
+  /**
+   * Returns the number of lookups served from the cache.
+   */
+  public long hits() {
+
+    return m_hits.sum();
+  }
+
+  /**
+   * Returns the number of lookups not served from the cache.
+   */
+  public long misses() {
+
+    return m_misses.sum();
+  }
+
+  /**
+   * Returns the number of entries replaced by others.
+   */
+  public long evictions() {
+
+    return m_evictions.sum();
+  }
+
+  /**
+   * Returns the fraction of lookups served from the cache.
+   *
+   * @return the hit ratio, or NaN if there were no lookups
+   */
+  public double hitRatio() {
+
+    long hits = hits();
+    long lookups = hits + misses();
+
+    return (lookups == 0) ? Double.NaN : (double) hits / lookups;
+  }
+
+  /**
+   * Returns the counters on one line.
+   */
+  public String toString() {
+
+    double ratio = hitRatio();
+
+    return "capacity " + capacity() + ", key attributes "
+      + m_attributes.length + ", hits " + hits() + ", misses " + misses()
+      + ", hit ratio "
+      + (Double.isNaN(ratio) ? "-" : String.format("%.3f", ratio))
+      + ", evictions " + evictions();
+  }
+}
@@ -2,10 +2,15 @@
 package J48.Classifier;
 
 import J48.Classifier.ModelSelection;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
+import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.RevisionUtils;
 import weka.core.Utils;
@@ -102,42 +107,214 @@ public class PruneableClassifierTree
     
    Random random = new Random(m_seed);
    data.stratify(numSets);
-   buildTree(data.trainCV(numSets, numSets - 1, random),
-	     data.testCV(numSets, numSets - 1), !m_cleanup);
+   buildTree(data.trainCV(numSets, numSets - 1, random), !m_cleanup);
+   buildHoldOut(data.testCV(numSets, numSets - 1));
+   TrainingMetrics metrics = metrics();
+   long start;
    if (pruneTheTree) {
+     start = metrics.start();
      prune();
+     metrics.record(TrainingMetrics.Phase.PRUNE, start);
    }
    if (m_cleanup) {
+     start = metrics.start();
      cleanup(new Instances(data, 0));
+     metrics.record(TrainingMetrics.Phase.CLEANUP, start);
    }
   }
 
   /**
-   * Prunes a tree.
+   * Computes the distributions of the hold-out set at all nodes of the
+   * tree in one pass over it. The rows reaching a node are passed on as
+   * indices and weights; rows with unknown values are fractioned as
+   * ClassifierSplitModel.split() does.
+   *
+   * @param test the hold-out set
+   * @throws Exception if something goes wrong
+   */
+  public void buildHoldOut(Instances test) throws Exception {
+
+    int [] rows = new int[test.numInstances()];
+    double [] weights = new double[test.numInstances()];
+
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = i;
+      weights[i] = test.instance(i).weight();
+    }
+    buildHoldOut(test, rows, weights, rows.length);
+  }
+
+  /**
+   * Computes the distribution of the given rows of the hold-out set at
+   * this node and passes them on to the sons.
+   */
+  private void buildHoldOut(Instances test, int [] rows, double [] weights,
+			    int numRows) throws Exception {
+
+    ClassifierSplitModel model = localModel();
+    int [][] sonRows = null;
+    double [][] sonWeights = null;
+    int [] numSonRows = null;
+    Instance instance;
+    int classIndex;
+    int subset;
+
+    m_test = new Distribution(model.numSubsets(), test.numClasses());
+    if (!m_isLeaf) {
+      sonRows = new int[m_sons.length][];
+      sonWeights = new double[m_sons.length][];
+      numSonRows = new int[m_sons.length];
+    }
+    for (int k = 0; k < numRows; k++) {
+      instance = test.instance(rows[k]);
+      classIndex = (int) instance.classValue();
+      subset = model.whichSubset(instance);
+      if (subset != -1) {
+	m_test.add(subset, classIndex, weights[k]);
+	if (!m_isLeaf) {
+	  append(sonRows, sonWeights, numSonRows, subset, rows[k], weights[k]);
+	}
+      } else {
+	double [] subsetWeights = model.weights(instance);
+	for (int j = 0; j < subsetWeights.length; j++) {
+	  m_test.add(j, classIndex, weights[k] * subsetWeights[j]);
+	  if (!m_isLeaf && Utils.gr(subsetWeights[j], 0)) {
+	    append(sonRows, sonWeights, numSonRows, j, rows[k],
+		   subsetWeights[j] * weights[k]);
+	  }
+	}
+      }
+    }
+    if (!m_isLeaf) {
+      for (int j = 0; j < m_sons.length; j++) {
+	son(j).buildHoldOut(test, (sonRows[j] == null) ? new int[0] : sonRows[j],
+			    sonWeights[j], numSonRows[j]);
+	sonRows[j] = null;
+	sonWeights[j] = null;
+      }
+    }
+  }
+
+  /**
+   * Appends a row to the rows of a son.
+   */
+  private static void append(int [][] rows, double [][] weights,
+			     int [] numRows, int son, int row, double weight) {
+
+    if (rows[son] == null) {
+      rows[son] = new int[16];
+      weights[son] = new double[16];
+    } else if (numRows[son] == rows[son].length) {
+      int [] newRows = new int[2 * numRows[son]];
+      double [] newWeights = new double[2 * numRows[son]];
+      System.arraycopy(rows[son], 0, newRows, 0, numRows[son]);
+      System.arraycopy(weights[son], 0, newWeights, 0, numRows[son]);
+      rows[son] = newRows;
+      weights[son] = newWeights;
+    }
+    rows[son][numRows[son]] = row;
+    weights[son][numRows[son]] = weight;
+    numRows[son]++;
+  }
+
+  /**
+   * Prunes a tree. Subtrees are pruned in parallel, bottom-up.
    *
    * @throws Exception if tree can't be pruned successfully
    */
   public void prune() throws Exception {
   
     if (!m_isLeaf) {
-      
-      // Prune all subtrees.
-      for (int i = 0; i < m_sons.length; i++)
-	son(i).prune();
-      
-      // Decide if leaf is best choice.
-      if (Utils.smOrEq(errorsForLeaf(),errorsForTree())) {
+      PruneTask task = new PruneTask(this);
+      ForkJoinPool.commonPool().invoke(task);
+      if (task.m_failure != null) {
+	throw task.m_failure;
+      }
+    }
+  }
+
+  /**
+   * Task pruning a subtree: prunes the subtrees of the sons in parallel,
+   * then decides whether the node is replaced by a leaf. A failure is
+   * kept in the task and passed up to the root task, so prune() rethrows
+   * the original exception.
+   */
+  private static class PruneTask extends RecursiveAction {
+
+    /** for serialization */
+    private static final long serialVersionUID = 5207347284935346128L;
+
+    /** The root of the subtree. */
+    private final PruneableClassifierTree m_tree;
+
+    /** The exception pruning the subtree failed with, or null. */
+    private Exception m_failure;
+
+    PruneTask(PruneableClassifierTree tree) {
+
+      m_tree = tree;
+    }
+
+    protected void compute() {
+
+      List<PruneTask> tasks = new ArrayList<PruneTask>();
+
+      for (int i = 0; i < m_tree.m_sons.length; i++) {
+	if (!m_tree.son(i).m_isLeaf) {
+	  tasks.add(new PruneTask(m_tree.son(i)));
+	}
+      }
+      invokeAll(tasks);
+      for (int i = 0; i < tasks.size(); i++) {
+	if (tasks.get(i).m_failure != null) {
+	  m_failure = tasks.get(i).m_failure;
+	  return;
+	}
+      }
+      try {
+	m_tree.pruneNode();
+      } catch (Exception e) {
+	m_failure = e;
+      }
+    }
+  }
+
+  /**
+   * Replaces this node by a leaf if that does not increase the errors on
+   * the hold-out set. The sons must have been pruned already.
+   *
+   * @throws Exception if tree can't be pruned successfully
+   */
+  private void pruneNode() throws Exception {
+
+    // Decide if leaf is best choice.
+    if (Utils.smOrEq(errorsForLeaf(),errorsForTree())) {
 	
-	// Free son Trees
-	m_sons = null;
-	m_isLeaf = true;
+      // Free son Trees
+      m_sons = null;
+      m_isLeaf = true;
 	
-	// Get NoSplit Model for node.
-	m_localModel = new NoSplit(localModel().distribution());
-      }
+      // Get NoSplit Model for node.
+      m_localModel = new NoSplit(localModel().distribution());
     }
   }
 
+  /**
+   * Returns a newly created tree.
+   *
+   * @param data the training data
+   * @return the generated tree
+   * @throws Exception if something goes wrong
+   */
+  protected ClassifierTree getNewTree(Instances data) throws Exception {
+
+    PruneableClassifierTree newTree = 
+      new PruneableClassifierTree(m_toSelectModel, pruneTheTree, numSets, m_cleanup,
+				  m_seed);
+    newTree.buildTree(data, !m_cleanup);
+    return newTree;
+  }
+
   /**
    * Returns a newly created tree.
    *
@@ -0,0 +1,309 @@
+package J48.Classifier;
+
+import java.io.Serializable;
+
+/**
+ * Low-precision form of a compiled tree, for keeping many models in
+ * memory. Attribute indices are stored in bytes (in shorts if a tree
+ * tests attributes beyond the 254th), split points as floats (as doubles
+ * if a tree has a split point a float can't hold exactly), missing value
+ * fractions as floats in one array, and the class distribution of every
+ * leaf as a vector of 8 or 16 bit fixed-point probabilities. Split points
+ * and the predicted class of every leaf are kept exactly, so rows
+ * reaching a leaf are classified as by the full tree. Class
+ * distributions differ from the full ones by at most half a step of the
+ * fixed-point scale (1/510 with 8 bits, 1/131070 with 16 bits), and so
+ * may the classes of rows fractioned over several leaves because of
+ * missing values.
+ *
+ * Like a compiled tree, a quantised tree is immutable and can be shared
+ * by any number of scoring threads.
+ *
+ * @version $Revision$
+ */
+public final class QuantizedTree
+  extends FlatTree
+  implements Serializable {
+
+  /** for serialization */
+  private static final long serialVersionUID = -3381951702461317094L;
+
+  /** Attribute tested at each node plus one (0 for leaves), unsigned
+      (null if m_wideAttribute is used). */
+  private final byte [] m_attribute;
+
+  /** Attribute tested at each node plus one (0 for leaves), for trees
+      testing attributes beyond the 254th (null otherwise). */
+  private final short [] m_wideAttribute;
+
+  /** Split point of numeric tests (NaN for nominal tests and leaves)
+      (null if m_wideSplitPoint is used). */
+  private final float [] m_splitPoint;
+
+  /** Split point of numeric tests, for trees with a split point a float
+      can't hold exactly (null otherwise). */
+  private final double [] m_wideSplitPoint;
+
+  /** Index of the first child of each inner node in m_children, or the
+      index of the class distribution of each leaf. */
+  private final int [] m_first;
+
+  /** Number of children of each node, unsigned. */
+  private final char [] m_numChildren;
+
+  /** The children of all nodes, contiguous per node. */
+  private final int [] m_children;
+
+  /** Class distributions of the leaves in 8 bits, unsigned (null if 16
+      bits are used). */
+  private final byte [] m_probs8;
+
+  /** Class distributions of the leaves in 16 bits, unsigned (null if 8
+      bits are used). */
+  private final char [] m_probs16;
+
+  /** Predicted class of each leaf (-1 if it predicts none). */
+  private final short [] m_classValue;
+
+  /** Fraction of a row with a missing test value going to each child,
+      parallel to m_children (NaN for the children of nodes that don't
+      support missing values). */
+  private final float [] m_missingWeights;
+
+  /** Leaves left out when a row is fractioned over the children. */
+  private final boolean [] m_empty;
+
+  /** The root node. */
+  private final int m_root;
+
+  /** The number of classes. */
+  private final int m_numClasses;
+
+  /** The probability a fixed-point value of 1 stands for. */
+  private final double m_scale;
+
+  /**
+   * Creates a quantised tree from the arrays of a compiled tree (see
+   * CompiledTree.quantize()).
+   *
+   * @param attribute the attribute tested at each node (-1 for leaves)
+   * @param splitPoint the split point of each node (NaN for nominal tests)
+   * @param firstChild the index of the first child of each node
+   * @param numChildren the number of children of each node
+   * @param children the children of all nodes
+   * @param distributions the class distribution of each leaf (null for
+   * inner nodes)
+   * @param classValue the predicted class of each leaf (NaN for none)
+   * @param missingWeights the fractions for missing values of each node
+   * @param empty whether a leaf is left out when rows are fractioned
+   * @param root the root node
+   * @param numClasses the number of classes
+   * @param bits the number of bits per probability, 8 or 16
+   */
+  QuantizedTree(int [] attribute, double [] splitPoint, int [] firstChild,
+		int [] numChildren, int [] children, double [][] distributions,
+		double [] classValue, double [][] missingWeights,
+		boolean [] empty, int root, int numClasses, int bits) {
+
+    int numNodes = attribute.length;
+    int maxAttribute = -1;
+    int numLeaves = 0;
+    boolean floatSplits = true;
+
+    if ((bits != 8) && (bits != 16)) {
+      throw new IllegalArgumentException("Probabilities can only be stored "
+					 + "in 8 or 16 bits.");
+    }
+    if (numClasses > Short.MAX_VALUE) {
+      throw new IllegalArgumentException("Too many classes: " + numClasses);
+    }
+    for (int i = 0; i < numNodes; i++) {
+      maxAttribute = Math.max(maxAttribute, attribute[i]);
+      if (numChildren[i] > Character.MAX_VALUE) {
+	throw new IllegalArgumentException("Too many children: "
+					   + numChildren[i]);
+      }
+      if (distributions[i] != null) {
+	numLeaves++;
+      }
+      if (!Double.isNaN(splitPoint[i])
+	  && ((double) (float) splitPoint[i] != splitPoint[i])) {
+	floatSplits = false;
+      }
+    }
+    if (maxAttribute + 1 > Short.MAX_VALUE) {
+      throw new IllegalArgumentException("Too many attributes: "
+					 + (maxAttribute + 1));
+    }
+    m_attribute = (maxAttribute + 1 <= 255) ? new byte[numNodes] : null;
+    m_wideAttribute = (m_attribute == null) ? new short[numNodes] : null;
+    m_splitPoint = floatSplits ? new float[numNodes] : null;
+    m_wideSplitPoint = floatSplits ? null : splitPoint.clone();
+    m_first = new int[numNodes];
+    m_numChildren = new char[numNodes];
+    m_children = children.clone();
+    m_probs8 = (bits == 8) ? new byte[numLeaves * numClasses] : null;
+    m_probs16 = (bits == 16) ? new char[numLeaves * numClasses] : null;
+    m_classValue = new short[numNodes];
+    m_missingWeights = new float[children.length];
+    m_empty = empty.clone();
+    m_root = root;
+    m_numClasses = numClasses;
+    m_scale = (bits == 8) ? 255 : 65535;
+
+    int leaf = 0;
+    for (int i = 0; i < numNodes; i++) {
+      if (m_attribute != null) {
+	m_attribute[i] = (byte) (attribute[i] + 1);
+      } else {
+	m_wideAttribute[i] = (short) (attribute[i] + 1);
+      }
+      if (m_splitPoint != null) {
+	m_splitPoint[i] = (float) splitPoint[i];
+      }
+      m_numChildren[i] = (char) numChildren[i];
+      m_classValue[i] = Double.isNaN(classValue[i]) ? -1
+	: (short) classValue[i];
+      for (int j = 0; j < numChildren[i]; j++) {
+	m_missingWeights[firstChild[i] + j] = (missingWeights[i] == null)
+	  ? Float.NaN : (float) missingWeights[i][j];
+      }
+      if (distributions[i] == null) {
+	m_first[i] = firstChild[i];
+      } else {
+	m_first[i] = leaf * numClasses;
+	for (int j = 0; j < numClasses; j++) {
+	  long q = Math.round(distributions[i][j] * m_scale);
+	  q = Math.max(0, Math.min((long) m_scale, q));
+	  if (m_probs8 != null) {
+	    m_probs8[leaf * numClasses + j] = (byte) q;
+	  } else {
+	    m_probs16[leaf * numClasses + j] = (char) q;
+	  }
+	}
+	leaf++;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of nodes.
+   */
+  public int numNodes() {
+
+    return m_first.length;
+  }
+
+  /**
+   * Returns the number of classes.
+   */
+  public int numClasses() {
+
+    return m_numClasses;
+  }
+
+  /**
+   * Returns the number of bits per probability.
+   */
+  public int bits() {
+
+    return (m_probs8 != null) ? 8 : 16;
+  }
+
+  /**
+   * Returns the attribute tested at a node, or -1 for leaves.
+   */
+  int attribute(int node) {
+
+    if (m_attribute != null) {
+      return (m_attribute[node] & 0xFF) - 1;
+    }
+    return m_wideAttribute[node] - 1;
+  }
+
+  /**
+   * Returns the root node.
+   */
+  int root() {
+
+    return m_root;
+  }
+
+  /**
+   * Returns the split point of a numeric test, or NaN for nominal tests.
+   */
+  double splitPoint(int node) {
+
+    if (m_splitPoint != null) {
+      return m_splitPoint[node];
+    }
+    return m_wideSplitPoint[node];
+  }
+
+  /**
+   * Returns the number of children of an inner node.
+   */
+  int numChildren(int node) {
+
+    return m_numChildren[node];
+  }
+
+  /**
+   * Returns a child of an inner node.
+   */
+  int childAt(int node, int index) {
+
+    return m_children[m_first[node] + index];
+  }
+
+  /**
+   * Returns the fraction of a row with a missing test value going to a
+   * child of an inner node, or NaN if the node doesn't support missing
+   * values.
+   */
+  double missingWeight(int node, int index) {
+
+    return m_missingWeights[m_first[node] + index];
+  }
+
+  /**
+   * Returns whether a leaf is left out when a row is fractioned over the
+   * children.
+   */
+  boolean isEmpty(int node) {
+
+    return m_empty[node];
+  }
+
+  /**
+   * Returns the probability of a class at a leaf.
+   */
+  private double prob(int leaf, int classIndex) {
+
+    int offset = m_first[leaf] + classIndex;
+
+    if (m_probs8 != null) {
+      return (m_probs8[offset] & 0xFF) / m_scale;
+    }
+    return m_probs16[offset] / m_scale;
+  }
+
+  /**
+   * Returns the predicted class of a leaf, or NaN if it predicts none.
+   */
+  double leafClassValue(int leaf, double [] values) {
+
+    return (m_classValue[leaf] < 0) ? Double.NaN : m_classValue[leaf];
+  }
+
+  /**
+   * Adds the weighted class distribution of a leaf.
+   */
+  void addLeafDistribution(int leaf, double [] values, double weight,
+			   double [] distribution) {
+
+    for (int j = 0; j < m_numClasses; j++) {
+      distribution[j] += weight * prob(leaf, j);
+    }
+  }
+}
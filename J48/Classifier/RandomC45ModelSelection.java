@@ -0,0 +1,93 @@
+
+package J48.Classifier;
+
+import weka.core.Instances;
+import weka.core.RevisionUtils;
+import weka.core.Utils;
+
+import java.util.Random;
+
+/**
+ * Class for selecting a C4.5-type split among a random subset of the
+ * attributes, drawn anew at each node (as in random forests).
+ *
+ * @version $Revision$
+ */
+public class RandomC45ModelSelection
+  extends C45ModelSelection {
+
+  /** for serialization */
+  private static final long serialVersionUID = -2398517473407164612L;
+
+  /** Number of attributes to consider at each node. */
+  private int m_numFeatures;
+
+  /** The random number generator for the subsets. */
+  private Random m_random;
+
+  /**
+   * Initializes the split selection method with the given parameters.
+   *
+   * @param minNoObj minimum number of instances that have to occur in at least two
+   * subsets induced by split
+   * @param allData FULL training dataset (necessary for
+   * selection of split points).
+   * @param numFeatures number of attributes considered at each node; if
+   * smaller than one, int(log_2(#attributes)+1) is used
+   * @param seed the seed for drawing the subsets
+   */
+  public RandomC45ModelSelection(int minNoObj, Instances allData,
+				 int numFeatures, long seed) {
+
+    super(minNoObj, allData);
+    m_numFeatures = numFeatures;
+    m_random = new Random(seed);
+  }
+
+  /**
+   * Draws the attributes to consider at the current node.
+   *
+   * @param data the data at the current node
+   */
+  protected boolean [] selectCandidates(Instances data) {
+
+    int numAttributes = data.numAttributes() - 1;
+    int k = m_numFeatures;
+    int [] indices;
+    boolean [] candidates;
+    int i, j, tmp;
+
+    if (k < 1) {
+      k = (int) Utils.log2(numAttributes) + 1;
+    }
+    if (k >= numAttributes) {
+      return null;
+    }
+
+    // Partial Fisher-Yates shuffle of the non-class attributes.
+    indices = new int[numAttributes];
+    for (i = 0, j = 0; i < data.numAttributes(); i++) {
+      if (i != data.classIndex()) {
+	indices[j++] = i;
+      }
+    }
+    candidates = new boolean[data.numAttributes()];
+    for (i = 0; i < k; i++) {
+      j = i + m_random.nextInt(numAttributes - i);
+      tmp = indices[i];
+      indices[i] = indices[j];
+      indices[j] = tmp;
+      candidates[indices[i]] = true;
+    }
+    return candidates;
+  }
+
+  /**
+   * Returns the revision string.
+   * 
+   * @return		the revision
+   */
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+}
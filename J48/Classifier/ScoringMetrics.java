@@ -0,0 +1,249 @@
+package J48.Classifier;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instrumentation of the scoring path of a tree: a latency histogram of
+ * predictions, a histogram of the number of nodes visited per prediction,
+ * how often a missing value made a row take the fractional path down all
+ * branches of a node, and the number of times each node was visited. Nodes
+ * are numbered in prefix order with 0 at the root, as in the printed tree
+ * and graph, so the counts show the hot paths of the tree.
+ *
+ * Counters are LongAdders and histograms are lock-free, so any number of
+ * threads can score while the metrics are read with snapshot(). Trees
+ * only record while metrics are enabled on them; otherwise scoring costs
+ * one extra check per prediction.
+ *
+ * @version $Revision$
+ */
+public class ScoringMetrics {
+
+  /**
+   * Records one prediction. Scoring code starts a probe per prediction,
+   * reports the nodes the row visits and calls finish() when done.
+   */
+  public final class Probe {
+
+    /** The time the prediction started, in nanoseconds. */
+    private final long m_start = System.nanoTime();
+
+    /** Number of nodes visited so far. */
+    private int m_numVisited;
+
+    /** Whether the row took the fractional path anywhere. */
+    private boolean m_fractional;
+
+    /**
+     * Records a visit of a node.
+     *
+     * @param node the number of the node
+     */
+    public void visit(int node) {
+
+      m_numVisited++;
+      if ((node >= 0) && (node < m_nodeHits.length)) {
+	m_nodeHits[node].increment();
+      }
+    }
+
+    /**
+     * Records that the row went down all branches of a node because its
+     * test value was missing.
+     */
+    public void fractional() {
+
+      m_fractional = true;
+      m_fractionalNodes.increment();
+    }
+
+    /**
+     * Records the end of the prediction.
+     */
+    public void finish() {
+
+      m_latency.record(System.nanoTime() - m_start);
+      m_nodesVisited.record(m_numVisited);
+      if (m_fractional) {
+	m_fractionalPredictions.increment();
+      }
+    }
+  }
+
+  /**
+   * The metrics at one point in time.
+   */
+  public static final class Snapshot {
+
+    /** Latencies of predictions in nanoseconds. */
+    private final LogHistogram m_latency;
+
+    /** Nodes visited per prediction. */
+    private final LogHistogram m_nodesVisited;
+
+    /** Number of predictions that took the fractional path. */
+    private final long m_fractionalPredictions;
+
+    /** Number of nodes at which rows took the fractional path. */
+    private final long m_fractionalNodes;
+
+    /** Number of visits of each node. */
+    private final long [] m_nodeHits;
+
+    private Snapshot(ScoringMetrics metrics) {
+
+      m_latency = metrics.m_latency.snapshot();
+      m_nodesVisited = metrics.m_nodesVisited.snapshot();
+      m_fractionalPredictions = metrics.m_fractionalPredictions.sum();
+      m_fractionalNodes = metrics.m_fractionalNodes.sum();
+      m_nodeHits = new long[metrics.m_nodeHits.length];
+      for (int i = 0; i < m_nodeHits.length; i++) {
+	m_nodeHits[i] = metrics.m_nodeHits[i].sum();
+      }
+    }
+
+    /**
+     * Returns the number of predictions.
+     */
+    public long numPredictions() {
+
+      return m_latency.count();
+    }
+
+    /**
+     * Returns the latencies of predictions in nanoseconds.
+     */
+    public LogHistogram latency() {
+
+      return m_latency;
+    }
+
+    /**
+     * Returns the numbers of nodes visited per prediction.
+     */
+    public LogHistogram nodesVisited() {
+
+      return m_nodesVisited;
+    }
+
+    /**
+     * Returns the number of predictions that took the fractional path.
+     */
+    public long fractionalPredictions() {
+
+      return m_fractionalPredictions;
+    }
+
+    /**
+     * Returns the number of nodes at which rows took the fractional path.
+     */
+    public long fractionalNodes() {
+
+      return m_fractionalNodes;
+    }
+
+    /**
+     * Returns the number of visits of a node.
+     *
+     * @param node the number of the node
+     */
+    public long nodeHits(int node) {
+
+      return m_nodeHits[node];
+    }
+
+    /**
+     * Returns the number of nodes.
+     */
+    public int numNodes() {
+
+      return m_nodeHits.length;
+    }
+
+    /**
+     * Returns the snapshot as text: a summary, then one line per node
+     * with its number and visits.
+     */
+    public String toString() {
+
+      StringBuffer text = new StringBuffer();
+      text.append("Predictions: " + numPredictions() + "\n");
+      text.append("Latency (ns): mean " + Math.round(m_latency.mean())
+		  + ", p50 " + m_latency.percentile(0.5)
+		  + ", p99 " + m_latency.percentile(0.99)
+		  + ", p99.9 " + m_latency.percentile(0.999)
+		  + ", max " + m_latency.max() + "\n");
+      text.append("Nodes visited: mean "
+		  + Math.round(m_nodesVisited.mean() * 100) / 100.0
+		  + ", max " + m_nodesVisited.max() + "\n");
+      text.append("Fractional path: " + m_fractionalPredictions
+		  + " predictions, " + m_fractionalNodes + " nodes\n");
+      for (int i = 0; i < m_nodeHits.length; i++) {
+	text.append("N" + i + "\t" + m_nodeHits[i] + "\n");
+      }
+      return text.toString();
+    }
+  }
+
+  /** Latencies of predictions in nanoseconds. */
+  private final LogHistogram m_latency = new LogHistogram();
+
+  /** Nodes visited per prediction. */
+  private final LogHistogram m_nodesVisited = new LogHistogram();
+
+  /** Number of predictions that took the fractional path. */
+  private final LongAdder m_fractionalPredictions = new LongAdder();
+
+  /** Number of nodes at which rows took the fractional path. */
+  private final LongAdder m_fractionalNodes = new LongAdder();
+
+  /** Number of visits of each node. */
+  private final LongAdder [] m_nodeHits;
+
+  /**
+   * Creates metrics for a tree.
+   *
+   * @param numNodes the number of nodes of the tree
+   */
+  public ScoringMetrics(int numNodes) {
+
+    m_nodeHits = new LongAdder[numNodes];
+    for (int i = 0; i < numNodes; i++) {
+      m_nodeHits[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Starts recording a prediction.
+   *
+   * @return the probe to record it with
+   */
+  public Probe start() {
+
+    return new Probe();
+  }
+
+  /**
+   * Returns the metrics as they are now.
+   *
+   * @return the snapshot
+   */
+  public Snapshot snapshot() {
+
+    return new Snapshot(this);
+  }
+
+  /**
+   * Sets all counters to zero.
+   */
+  public void reset() {
+
+    m_latency.reset();
+    m_nodesVisited.reset();
+    m_fractionalPredictions.reset();
+    m_fractionalNodes.reset();
+    for (int i = 0; i < m_nodeHits.length; i++) {
+      m_nodeHits[i].reset();
+    }
+  }
+}
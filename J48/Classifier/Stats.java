@@ -1,9 +1,13 @@
 
 package J48.Classifier;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import weka.core.RevisionHandler;
 import weka.core.RevisionUtils;
 import weka.core.Statistics;
+import weka.core.Utils;
 
 /**
  * Class implementing a statistical routine needed by J48 to
@@ -15,6 +19,70 @@ import weka.core.Statistics;
 public class Stats
   implements RevisionHandler {
 
+  /** Number of instances up to which the base case is precomputed for
+      whole numbers. */
+  private static final int BASE_CASES = 256;
+
+  /** Largest number of confidence values whose engines are kept. */
+  private static final int MAX_ENGINES = 64;
+
+  /** The engines of the confidence values asked for, by value. */
+  private static final ConcurrentMap<Float, Stats> m_engines =
+    new ConcurrentHashMap<Float, Stats>();
+
+  /** The confidence value. */
+  private final float m_CF;
+
+  /** The z-score corresponding to the confidence value. */
+  private final double m_z;
+
+  /** The estimated extra error with no observed error, for 0 to
+      BASE_CASES - 1 instances. */
+  private final double [] m_base;
+
+  /**
+   * Creates the engine of a confidence value.
+   *
+   * @param CF confidence value
+   */
+  private Stats(float CF) {
+
+    m_CF = CF;
+    m_z = Statistics.normalInverse(1 - CF);
+    m_base = new double[BASE_CASES];
+    for (int n = 1; n < BASE_CASES; n++) {
+      m_base[n] = base(n);
+    }
+  }
+
+  /**
+   * Returns the engine computing error estimates for a confidence value,
+   * with the z-score computed once and the base case at the low end
+   * precomputed for small numbers of instances. The engines of up to
+   * MAX_ENGINES values are kept, so trees pruned at the same time with
+   * different values each create theirs once.
+   *
+   * @param CF confidence value
+   * @return the engine
+   */
+  public static Stats forConfidence(float CF) {
+
+    Float key = Float.valueOf(CF);
+    Stats stats = m_engines.get(key);
+
+    if (stats == null) {
+      if (m_engines.size() >= MAX_ENGINES) {
+	m_engines.clear();
+      }
+      stats = new Stats(CF);
+      Stats previous = m_engines.putIfAbsent(key, stats);
+      if (previous != null) {
+	stats = previous;
+      }
+    }
+    return stats;
+  }
+
   /**
    * Computes estimated extra error for given total number of instances
    * and error using normal approximation to binomial distribution
@@ -26,8 +94,22 @@ public class Stats
    */
   public static double addErrs(double N, double e, float CF){
 
+    return forConfidence(CF).addErrs(N, e);
+  }
+
+  /**
+   * Computes estimated extra error for given total number of instances
+   * and error with the confidence value of this engine (see
+   * addErrs(double, double, float)).
+   *
+   * @param N number of instances
+   * @param e observed error
+   * @return the estimated extra error
+   */
+  public double addErrs(double N, double e) {
+
     // Ignore stupid values for CF
-    if (CF > 0.5) {
+    if (m_CF > 0.5) {
       System.err.println("WARNING: confidence value for pruning " +
 			 " too high. Error estimate not modified.");
       return 0;
@@ -39,13 +121,15 @@ public class Stats
 
       // Base case (i.e. e == 0) from documenta Geigy Scientific
       // Tables, 6th edition, page 185
-      double base = N * (1 - Math.pow(CF, 1 / N)); 
+      int n = (int) N;
+      double base = ((n == N) && (n > 0) && (n < BASE_CASES)) ? m_base[n]
+	: base(N);
       if (e == 0) {
 	return base; 
       }
     
       // Use linear interpolation between 0 and 1 like C4.5 does
-      return base + e * (addErrs(N, 1, CF) - base);
+      return base + e * (addErrs(N, 1) - base);
     }
     
     // Use linear interpolation at the high end (i.e. between N - 0.5
@@ -56,10 +140,8 @@ public class Stats
       return Math.max(N - e, 0);
     }
 
-    // Get z-score corresponding to CF
-    double z = Statistics.normalInverse(1 - CF);
-
     // Compute upper limit of confidence interval
+    double z = m_z;
     double  f = (e + 0.5) / N;
     double r = (f + (z * z) / (2 * N) +
 		z * Math.sqrt((f / N) - 
@@ -69,6 +151,52 @@ public class Stats
 
     return (r * N) - e;
   }
+
+  /**
+   * Returns the estimated extra error with no observed error.
+   */
+  private double base(double N) {
+
+    return N * (1 - Math.pow(m_CF, 1 / N));
+  }
+
+  /**
+   * Computes the estimated errors (observed plus extra error) of many
+   * leaves at once, e.g. for trying several confidence values on the same
+   * leaves. Leaves without instances have no errors.
+   *
+   * @param N the number of instances at each leaf
+   * @param e the observed error at each leaf
+   * @return the estimated errors of each leaf
+   */
+  public double [] estimatedErrors(double [] N, double [] e) {
+
+    double [] errors = new double[N.length];
+
+    for (int i = 0; i < N.length; i++) {
+      errors[i] = Utils.eq(N[i], 0) ? 0 : e[i] + addErrs(N[i], e[i]);
+    }
+    return errors;
+  }
+
+  /**
+   * Computes the estimated errors (observed plus extra error) of the
+   * class distributions of many leaves at once.
+   *
+   * @param distributions the distributions of the leaves
+   * @return the estimated errors of each leaf
+   */
+  public double [] estimatedErrors(Distribution [] distributions) {
+
+    double [] N = new double[distributions.length];
+    double [] e = new double[distributions.length];
+
+    for (int i = 0; i < distributions.length; i++) {
+      N[i] = distributions[i].total();
+      e[i] = distributions[i].numIncorrect();
+    }
+    return estimatedErrors(N, e);
+  }
   
   /**
    * Returns the revision string.
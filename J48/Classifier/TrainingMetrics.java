@@ -0,0 +1,328 @@
+package J48.Classifier;
+
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Timers and counters for tree induction. Records the wall time and the
+ * number of calls of each phase, the number of candidate splits evaluated,
+ * the rows touched by evaluating candidates and splitting, the sorts
+ * performed and the bytes allocated by the building thread. The model
+ * selection of a tree holds the metrics it records into (see
+ * ModelSelection.setMetrics()); times of a phase include the phases it
+ * calls, e.g. selectModel includes the nominal and numeric handlers.
+ *
+ * The counters can be read while a tree is being built, e.g. over JMX
+ * after register() has been called.
+ *
+ * @version $Revision$
+ */
+public class TrainingMetrics
+  implements TrainingMetricsMXBean, Serializable {
+
+  /** for serialization */
+  private static final long serialVersionUID = -5398154163720542931L;
+
+  /**
+   * The phases of tree induction.
+   */
+  public enum Phase {
+
+    /** C45ModelSelection.selectModel(). */
+    SELECT_MODEL("SelectModel"),
+
+    /** Evaluating a candidate split on a nominal attribute. */
+    NOMINAL_SPLIT("NominalSplit"),
+
+    /** Evaluating a candidate split on a numeric attribute. */
+    NUMERIC_SPLIT("NumericSplit"),
+
+    /** ClassifierSplitModel.split(). */
+    SPLIT("Split"),
+
+    /** Collapsing the tree. */
+    COLLAPSE("Collapse"),
+
+    /** Pruning the tree, including subtree raising. */
+    PRUNE("Prune"),
+
+    /** Re-estimating the errors of a raised subtree. */
+    SUBTREE_RAISING("SubtreeRaising"),
+
+    /** Cleaning up the training data of the tree. */
+    CLEANUP("Cleanup");
+
+    /** The name used in measures and over JMX. */
+    private final String m_name;
+
+    Phase(String name) {
+      m_name = name;
+    }
+
+    /**
+     * Returns the name used in measures and over JMX.
+     */
+    public String getName() {
+      return m_name;
+    }
+  }
+
+  /** Metrics that record nothing. */
+  public static final TrainingMetrics NONE = new TrainingMetrics(false);
+
+  /** Whether anything is recorded. */
+  private final boolean m_enabled;
+
+  /** Wall time of each phase in nanoseconds. */
+  private final LongAdder [] m_nanos;
+
+  /** Number of calls of each phase. */
+  private final LongAdder [] m_calls;
+
+  /** Number of candidate splits evaluated. */
+  private final LongAdder m_candidates = new LongAdder();
+
+  /** Number of rows touched. */
+  private final LongAdder m_rows = new LongAdder();
+
+  /** Number of sorts performed. */
+  private final LongAdder m_sorts = new LongAdder();
+
+  /** Number of bytes allocated (-1 if not measurable). */
+  private final LongAdder m_bytes = new LongAdder();
+
+  /** Bytes the building thread had allocated when allocation tracking
+      started (-1 if not tracking). */
+  private transient long m_bytesAtStart = -1;
+
+  /**
+   * Creates metrics that record.
+   */
+  public TrainingMetrics() {
+
+    this(true);
+  }
+
+  private TrainingMetrics(boolean enabled) {
+
+    m_enabled = enabled;
+    m_nanos = new LongAdder[Phase.values().length];
+    m_calls = new LongAdder[Phase.values().length];
+    for (int i = 0; i < m_nanos.length; i++) {
+      m_nanos[i] = new LongAdder();
+      m_calls[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Returns the start time of a phase, to be passed to record().
+   *
+   * @return the current time in nanoseconds, or 0 if nothing is recorded
+   */
+  public final long start() {
+
+    return m_enabled ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Records one call of a phase.
+   *
+   * @param phase the phase
+   * @param startNanos the time returned by start() when the phase began
+   */
+  public final void record(Phase phase, long startNanos) {
+
+    if (m_enabled) {
+      m_nanos[phase.ordinal()].add(System.nanoTime() - startNanos);
+      m_calls[phase.ordinal()].increment();
+    }
+  }
+
+  /**
+   * Counts an evaluated candidate split.
+   *
+   * @param numRows the number of rows it was evaluated on
+   * @param sorted whether the rows were sorted for it
+   */
+  public final void countCandidate(int numRows, boolean sorted) {
+
+    if (m_enabled) {
+      m_candidates.increment();
+      m_rows.add(numRows);
+      if (sorted) {
+	m_sorts.increment();
+      }
+    }
+  }
+
+  /**
+   * Counts rows touched other than by evaluating candidates.
+   *
+   * @param numRows the number of rows
+   */
+  public final void countRows(int numRows) {
+
+    if (m_enabled) {
+      m_rows.add(numRows);
+    }
+  }
+
+  /**
+   * Starts counting the bytes allocated by the current thread.
+   */
+  public void startAllocation() {
+
+    if (m_enabled) {
+      m_bytesAtStart = threadAllocatedBytes();
+    }
+  }
+
+  /**
+   * Stops counting the bytes allocated by the current thread, which must
+   * be the one that called startAllocation().
+   */
+  public void stopAllocation() {
+
+    if (m_enabled && (m_bytesAtStart >= 0)) {
+      long bytes = threadAllocatedBytes();
+      if (bytes >= 0) {
+	m_bytes.add(bytes - m_bytesAtStart);
+      }
+      m_bytesAtStart = -1;
+    }
+  }
+
+  /**
+   * Returns the number of bytes allocated by the current thread, or -1 if
+   * the JVM can't measure it.
+   */
+  private static long threadAllocatedBytes() {
+
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean sunThreads =
+	(com.sun.management.ThreadMXBean) threads;
+      if (sunThreads.isThreadAllocatedMemorySupported()
+	  && sunThreads.isThreadAllocatedMemoryEnabled()) {
+	return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the wall time spent in a phase.
+   *
+   * @param phase the phase
+   * @return the time in nanoseconds
+   */
+  public long nanos(Phase phase) {
+
+    return m_nanos[phase.ordinal()].sum();
+  }
+
+  /**
+   * Returns the number of calls of a phase.
+   *
+   * @param phase the phase
+   * @return the number of calls
+   */
+  public long calls(Phase phase) {
+
+    return m_calls[phase.ordinal()].sum();
+  }
+
+  public Map<String, Long> getPhaseNanos() {
+
+    Map<String, Long> result = new LinkedHashMap<String, Long>();
+    for (Phase phase : Phase.values()) {
+      result.put(phase.getName(), nanos(phase));
+    }
+    return result;
+  }
+
+  public Map<String, Long> getPhaseCalls() {
+
+    Map<String, Long> result = new LinkedHashMap<String, Long>();
+    for (Phase phase : Phase.values()) {
+      result.put(phase.getName(), calls(phase));
+    }
+    return result;
+  }
+
+  public long getCandidatesEvaluated() {
+
+    return m_candidates.sum();
+  }
+
+  public long getRowsTouched() {
+
+    return m_rows.sum();
+  }
+
+  public long getSorts() {
+
+    return m_sorts.sum();
+  }
+
+  public long getBytesAllocated() {
+
+    return (threadAllocatedBytes() < 0) ? -1 : m_bytes.sum();
+  }
+
+  public void reset() {
+
+    for (int i = 0; i < m_nanos.length; i++) {
+      m_nanos[i].reset();
+      m_calls[i].reset();
+    }
+    m_candidates.reset();
+    m_rows.reset();
+    m_sorts.reset();
+    m_bytes.reset();
+  }
+
+  /**
+   * Registers the metrics with the platform MBean server, replacing any
+   * registered under the same name.
+   *
+   * @param name the name to register under
+   * @return the object name registered
+   * @throws Exception if registration fails
+   */
+  public ObjectName register(String name) throws Exception {
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName objectName =
+      new ObjectName("J48:type=TrainingMetrics,name=" + ObjectName.quote(name));
+    if (server.isRegistered(objectName)) {
+      server.unregisterMBean(objectName);
+    }
+    server.registerMBean(this, objectName);
+    return objectName;
+  }
+
+  /**
+   * Returns a description of the metrics.
+   */
+  public String toString() {
+
+    StringBuffer text = new StringBuffer();
+    for (Phase phase : Phase.values()) {
+      text.append(phase.getName() + ": " + calls(phase) + " calls, "
+		  + (nanos(phase) / 1000000) + " ms\n");
+    }
+    text.append("Candidates evaluated: " + getCandidatesEvaluated() + "\n");
+    text.append("Rows touched: " + getRowsTouched() + "\n");
+    text.append("Sorts: " + getSorts() + "\n");
+    text.append("Bytes allocated: " + getBytesAllocated() + "\n");
+    return text.toString();
+  }
+}
@@ -0,0 +1,48 @@
+package J48.Classifier;
+
+import java.util.Map;
+
+/**
+ * Management interface of TrainingMetrics, for reading the timers and
+ * counters of tree induction over JMX.
+ *
+ * @version $Revision$
+ */
+public interface TrainingMetricsMXBean {
+
+  /**
+   * Returns the wall time spent in each phase, in nanoseconds.
+   */
+  Map<String, Long> getPhaseNanos();
+
+  /**
+   * Returns the number of calls of each phase.
+   */
+  Map<String, Long> getPhaseCalls();
+
+  /**
+   * Returns the number of candidate splits evaluated.
+   */
+  long getCandidatesEvaluated();
+
+  /**
+   * Returns the number of rows touched by split evaluation and splitting.
+   */
+  long getRowsTouched();
+
+  /**
+   * Returns the number of sorts performed.
+   */
+  long getSorts();
+
+  /**
+   * Returns the number of bytes allocated by the building thread, or -1
+   * if the JVM can't measure it.
+   */
+  long getBytesAllocated();
+
+  /**
+   * Sets all timers and counters to zero.
+   */
+  void reset();
+}
@@ -0,0 +1,167 @@
+package J48;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import J48.Classifier.CompiledTree;
+import J48.Classifier.NBTreeClassifierTree;
+import J48.Classifier.NBTreeModelSelection;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+
+/**
+ * Checks that trained models can be shared by scoring threads. Trains
+ * MyJ48 and an NBTree, takes frozen snapshots of both with compile(), and
+ * has a number of threads score all instances at the same time, over and
+ * over, against the snapshots and the trained MyJ48 itself. Every class
+ * distribution must equal the one computed beforehand by a single thread.
+ * Reports the number of mismatches per model and exits with status 1 if
+ * there are any.
+ * <p>
+ * Usage: java J48.ConcurrentScoringCheck -t file [-threads n] [-rounds n]
+ *
+ * @version $Revision$
+ */
+public class ConcurrentScoringCheck {
+
+  /**
+   * A model being checked.
+   */
+  private static abstract class Scorer {
+
+    /** The name of the model. */
+    final String m_name;
+
+    Scorer(String name) {
+      m_name = name;
+    }
+
+    /**
+     * Returns the class distribution for an instance.
+     */
+    abstract double [] score(Instance instance) throws Exception;
+  }
+
+  /**
+   * Runs the check.
+   *
+   * @param args the commandline options
+   * @throws Exception if something goes wrong
+   */
+  public static void main(String [] args) throws Exception {
+
+    String file = Utils.getOption('t', args);
+    String option = Utils.getOption("threads", args);
+    int numThreads = (option.length() == 0) ? 4 : Integer.parseInt(option);
+    option = Utils.getOption("rounds", args);
+    int numRounds = (option.length() == 0) ? 20 : Integer.parseInt(option);
+
+    if (file.length() == 0) {
+      System.err.println("Usage: java J48.ConcurrentScoringCheck -t file "
+			 + "[-threads n] [-rounds n]");
+      return;
+    }
+
+    Instances data = new DataSource(file).getDataSet();
+    if (data.classIndex() < 0) {
+      data.setClassIndex(data.numAttributes() - 1);
+    }
+    data.deleteWithMissingClass();
+
+    final MyJ48 j48 = new MyJ48();
+    j48.buildClassifier(data);
+    final CompiledTree j48Snapshot = j48.compile();
+    NBTreeClassifierTree nbTree =
+      new NBTreeClassifierTree(new NBTreeModelSelection(30, data));
+    nbTree.buildClassifier(data);
+    final CompiledTree nbTreeSnapshot = nbTree.compile(false);
+
+    List<Scorer> scorers = new ArrayList<Scorer>();
+    scorers.add(new Scorer("MyJ48") {
+	double [] score(Instance instance) throws Exception {
+	  return j48.distributionForInstance(instance);
+	}
+      });
+    scorers.add(new Scorer("MyJ48 snapshot") {
+	double [] score(Instance instance) {
+	  return j48Snapshot.distribution(instance);
+	}
+      });
+    scorers.add(new Scorer("NBTree snapshot") {
+	double [] score(Instance instance) {
+	  return nbTreeSnapshot.distribution(instance);
+	}
+      });
+
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    boolean failed = false;
+    try {
+      for (Scorer scorer : scorers) {
+	long mismatches = check(scorer, data, pool, numThreads, numRounds);
+	System.out.println(scorer.m_name + "\t" + numThreads + " threads x "
+			   + numRounds + " rounds x " + data.numInstances()
+			   + " instances\tmismatches " + mismatches);
+	failed |= mismatches > 0;
+      }
+    } finally {
+      pool.shutdown();
+    }
+    if (failed) {
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Scores all instances from a number of threads at once and returns the
+   * number of distributions that differ from single-threaded scoring.
+   */
+  private static long check(final Scorer scorer, final Instances data,
+			    ExecutorService pool, int numThreads,
+			    final int numRounds) throws Exception {
+
+    final double [][] expected = new double[data.numInstances()][];
+    for (int i = 0; i < data.numInstances(); i++) {
+      expected[i] = scorer.score(data.instance(i));
+    }
+
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Future<Long>> results = new ArrayList<Future<Long>>();
+    for (int t = 0; t < numThreads; t++) {
+      final int offset = t * data.numInstances() / numThreads;
+      results.add(pool.submit(new Callable<Long>() {
+	  public Long call() throws Exception {
+	    long mismatches = 0;
+	    start.await();
+	    for (int r = 0; r < numRounds; r++) {
+	      // threads start at different instances to mix up the paths
+	      for (int k = 0; k < data.numInstances(); k++) {
+		int i = (offset + k) % data.numInstances();
+		double [] actual = scorer.score(data.instance(i));
+		for (int j = 0; j < actual.length; j++) {
+		  if (actual[j] != expected[i][j]) {
+		    mismatches++;
+		    break;
+		  }
+		}
+	      }
+	    }
+	    return mismatches;
+	  }
+	}));
+    }
+    start.countDown();
+
+    long mismatches = 0;
+    for (Future<Long> result : results) {
+      mismatches += result.get();
+    }
+    return mismatches;
+  }
+}
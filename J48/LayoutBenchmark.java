@@ -0,0 +1,127 @@
+package J48;
+
+import J48.Classifier.CompiledTree;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+
+/**
+ * Compares scoring with a compiled MyJ48 tree in the order it was compiled
+ * in against the same tree laid out hot path first (see
+ * CompiledTree.layout()). The visit counts are taken from the first half
+ * of the data (the calibration set), and all rows are scored, one at a
+ * time and as a batch, for a number of rounds, alternating between the
+ * two layouts. Reports the best time per row of each, and the number of
+ * rows the two classify differently, which should be zero. Unpruned trees
+ * with a small minimum number of instances per leaf (-U -M 1) are deep and
+ * show the effect of the layout best.
+ * <p>
+ * Usage: java J48.LayoutBenchmark -t file [-U] [-M n] [-rounds n]
+ *
+ * @version $Revision$
+ */
+public class LayoutBenchmark {
+
+  /** Sum of all predictions, kept so scoring can't be optimised away. */
+  private static volatile double m_sink;
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args the commandline options
+   * @throws Exception if something goes wrong
+   */
+  public static void main(String [] args) throws Exception {
+
+    String file = Utils.getOption('t', args);
+    MyJ48 j48 = new MyJ48();
+    j48.setUnpruned(Utils.getFlag('U', args));
+    String option = Utils.getOption('M', args);
+    if (option.length() != 0) {
+      j48.setMinNumObj(Integer.parseInt(option));
+    }
+    option = Utils.getOption("rounds", args);
+    int numRounds = (option.length() == 0) ? 20 : Integer.parseInt(option);
+
+    if (file.length() == 0) {
+      System.err.println("Usage: java J48.LayoutBenchmark -t file [-U] "
+			 + "[-M n] [-rounds n]");
+      return;
+    }
+
+    Instances data = new DataSource(file).getDataSet();
+    if (data.classIndex() < 0) {
+      data.setClassIndex(data.numAttributes() - 1);
+    }
+    data.deleteWithMissingClass();
+    double [][] rows = new double[data.numInstances()][];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = data.instance(i).toDoubleArray();
+    }
+
+    j48.buildClassifier(data);
+    CompiledTree naive = j48.compile();
+    long [] visits = naive.profile(rows, rows.length / 2);
+    CompiledTree hot = naive.layout(visits);
+    long numVisits = 0;
+    for (int i = 0; i < visits.length; i++) {
+      numVisits += visits[i];
+    }
+
+    long [] best = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE,
+		    Long.MAX_VALUE};
+    double sink = 0;
+    for (int r = 0; r < numRounds; r++) {
+      long start = System.nanoTime();
+      sink += classifyAll(naive, rows);
+      best[0] = Math.min(best[0], System.nanoTime() - start);
+      start = System.nanoTime();
+      sink += classifyAll(hot, rows);
+      best[1] = Math.min(best[1], System.nanoTime() - start);
+      start = System.nanoTime();
+      sink += naive.classify(rows, rows.length)[0];
+      best[2] = Math.min(best[2], System.nanoTime() - start);
+      start = System.nanoTime();
+      sink += hot.classify(rows, rows.length)[0];
+      best[3] = Math.min(best[3], System.nanoTime() - start);
+    }
+
+    int changed = 0;
+    for (int i = 0; i < rows.length; i++) {
+      if (naive.classify(rows[i]) != hot.classify(rows[i])) {
+	changed++;
+      }
+    }
+
+    System.out.println("Nodes: " + naive.numNodes() + ", calibration rows: "
+		       + (rows.length / 2) + ", nodes visited per row: "
+		       + Utils.doubleToString((double) numVisits
+					      / Math.max(1, rows.length / 2), 2));
+    System.out.println("Compiled order\trow " + nanosPerRow(best[0], rows)
+		       + " ns\tbatch " + nanosPerRow(best[2], rows) + " ns");
+    System.out.println("Hot path first\trow " + nanosPerRow(best[1], rows)
+		       + " ns\tbatch " + nanosPerRow(best[3], rows) + " ns");
+    System.out.println("Changed predictions: " + changed);
+    m_sink = sink;
+  }
+
+  /**
+   * Classifies all rows one at a time and returns the sum of the classes.
+   */
+  private static double classifyAll(CompiledTree tree, double [][] rows) {
+
+    double sum = 0;
+    for (int i = 0; i < rows.length; i++) {
+      sum += tree.classify(rows[i]);
+    }
+    return sum;
+  }
+
+  /**
+   * Returns the time per row.
+   */
+  private static String nanosPerRow(long nanos, double [][] rows) {
+
+    return Utils.doubleToString((double) nanos / Math.max(1, rows.length), 1);
+  }
+}
@@ -0,0 +1,125 @@
+package J48;
+
+import J48.Classifier.CompiledTree;
+import J48.Classifier.NBTreeClassifierTree;
+import J48.Classifier.NBTreeModelSelection;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+
+/**
+ * Reports how much space trained trees take when serialized, before and
+ * after compaction, and in compiled form with double and float leaf
+ * distributions. Trains MyJ48, optionally saving instance data (-L), with
+ * reduced-error pruning (-R) or unpruned (-U), and an NBTree. The
+ * number of training instances classified differently after compaction
+ * is reported as well, and should be zero.
+ * <p>
+ * Usage: java J48.ModelSizeReport -t file [-L] [-R] [-U]
+ *
+ * @version $Revision$
+ */
+public class ModelSizeReport {
+
+  /**
+   * Runs the report.
+   *
+   * @param args the commandline options
+   * @throws Exception if something goes wrong
+   */
+  public static void main(String [] args) throws Exception {
+
+    String file = Utils.getOption('t', args);
+    MyJ48 j48 = new MyJ48();
+    j48.setSaveInstanceData(Utils.getFlag('L', args));
+    j48.setReducedErrorPruning(Utils.getFlag('R', args));
+    j48.setUnpruned(Utils.getFlag('U', args));
+
+    if (file.length() == 0) {
+      System.err.println("Usage: java J48.ModelSizeReport -t file "
+			 + "[-L] [-R] [-U]");
+      return;
+    }
+
+    Instances data = new DataSource(file).getDataSet();
+    if (data.classIndex() < 0) {
+      data.setClassIndex(data.numAttributes() - 1);
+    }
+    data.deleteWithMissingClass();
+
+    j48.buildClassifier(data);
+    double [] before = classify(j48, data);
+    long trained = MyJ48.serializedSize(j48);
+    j48.compact();
+    report("MyJ48", trained, MyJ48.serializedSize(j48), j48.compile(),
+	   countChanged(before, classify(j48, data)));
+
+    NBTreeClassifierTree nbTree =
+      new NBTreeClassifierTree(new NBTreeModelSelection(30, data));
+    nbTree.buildClassifier(data);
+    before = classify(nbTree, data);
+    trained = MyJ48.serializedSize(nbTree);
+    nbTree.compact();
+    report("NBTree", trained, MyJ48.serializedSize(nbTree),
+	   nbTree.compile(false), countChanged(before, classify(nbTree, data)));
+    System.out.println("Training data: " + MyJ48.serializedSize(data)
+		       + " bytes, header: "
+		       + MyJ48.serializedSize(new Instances(data, 0))
+		       + " bytes");
+  }
+
+  /**
+   * Prints the sizes of a tree.
+   */
+  private static void report(String name, long trained, long compacted,
+			     CompiledTree compiled, int changed) {
+
+    System.out.println(name + "\ttrained " + trained + " bytes"
+		       + "\tcompacted " + compacted + " bytes"
+		       + "\tcompiled " + MyJ48.serializedSize(compiled)
+		       + " bytes"
+		       + "\tcompiled (float) "
+		       + MyJ48.serializedSize(compiled.toFloat()) + " bytes"
+		       + "\tchanged predictions " + changed);
+  }
+
+  /**
+   * Classifies all instances with MyJ48.
+   */
+  private static double [] classify(MyJ48 j48, Instances data)
+    throws Exception {
+
+    double [] predictions = new double[data.numInstances()];
+    for (int i = 0; i < predictions.length; i++) {
+      predictions[i] = j48.classifyInstance(data.instance(i));
+    }
+    return predictions;
+  }
+
+  /**
+   * Classifies all instances with an NBTree.
+   */
+  private static double [] classify(NBTreeClassifierTree tree, Instances data)
+    throws Exception {
+
+    double [] predictions = new double[data.numInstances()];
+    for (int i = 0; i < predictions.length; i++) {
+      predictions[i] = tree.classifyInstance(data.instance(i));
+    }
+    return predictions;
+  }
+
+  /**
+   * Returns the number of predictions that differ.
+   */
+  private static int countChanged(double [] before, double [] after) {
+
+    int changed = 0;
+    for (int i = 0; i < before.length; i++) {
+      if (before[i] != after[i]) {
+	changed++;
+      }
+    }
+    return changed;
+  }
+}
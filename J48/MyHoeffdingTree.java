@@ -0,0 +1,709 @@
+package J48;
+
+import java.util.Enumeration;
+import java.util.Vector;
+
+import J48.Classifier.Distribution;
+import J48.Classifier.InfoGainSplitCrit;
+import weka.classifiers.Classifier;
+import weka.classifiers.UpdateableClassifier;
+import weka.core.AdditionalMeasureProducer;
+import weka.core.Capabilities;
+import weka.core.Capabilities.Capability;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.RevisionUtils;
+import weka.core.Statistics;
+import weka.core.Utils;
+import weka.core.WeightedInstancesHandler;
+
+/**
+ * Incrementally grown decision tree for streams of labelled instances
+ * (Hoeffding tree). Every leaf keeps Distribution statistics: its class
+ * distribution, a value/class distribution per nominal attribute and a
+ * normal estimate per class for each numeric attribute, so the memory per
+ * node does not grow with the stream. Each time a leaf has seen another
+ * gracePeriod worth of weight, the information gain of the attributes is
+ * evaluated, and the leaf is split when the Hoeffding bound shows that the
+ * best attribute is better than the second best, or when the two are too
+ * close to tell apart.
+ *
+ * @version $Revision$
+ */
+public class MyHoeffdingTree extends Classifier implements
+  UpdateableClassifier, WeightedInstancesHandler, AdditionalMeasureProducer {
+
+  /** for serialization */
+  static final long serialVersionUID = -2739480261373640371L;
+
+  /** The split criterion. */
+  protected static final InfoGainSplitCrit INFO_GAIN_CRIT =
+    new InfoGainSplitCrit();
+
+  /** Weight a leaf has to see between evaluations of its splits. */
+  protected double m_gracePeriod = 200;
+
+  /** Probability of choosing the wrong attribute (delta). */
+  protected double m_splitConfidence = 1e-7;
+
+  /** Difference in gain below which the best attribute is taken anyway. */
+  protected double m_tieThreshold = 0.05;
+
+  /** Minimum number of instances in at least two subsets of a split. */
+  protected int m_minNumObj = 2;
+
+  /** Number of candidate split points for numeric attributes. */
+  protected int m_numSplitPoints = 10;
+
+  /** The dataset structure. */
+  protected Instances m_header;
+
+  /** The root of the tree. */
+  protected Node m_root;
+
+  /**
+   * A node of the tree. Leaves keep the statistics for choosing a split.
+   */
+  protected static class Node implements java.io.Serializable {
+
+    /** for serialization */
+    static final long serialVersionUID = 3427491862318573018L;
+
+    /** Class distribution of the instances that reached the node. */
+    Distribution m_classDist;
+
+    /** Attribute the node splits on (-1 for a leaf). */
+    int m_attIndex = -1;
+
+    /** Split point for a numeric attribute. */
+    double m_splitPoint;
+
+    /** The sons of an inner node. */
+    Node [] m_sons;
+
+    /** Value/class distributions of nominal attributes at a leaf. */
+    Distribution [] m_nominalStats;
+
+    /** Per class weight, mean, sum of squared deviations, minimum and
+        maximum of numeric attributes at a leaf. */
+    double [][][] m_numericStats;
+
+    /** Weight the leaf has seen itself, without the class distribution
+        it started with. */
+    double m_weightSeen;
+
+    /** Weight seen by the leaf when its splits were last evaluated. */
+    double m_weightAtLastEvaluation;
+
+    /**
+     * Creates a leaf with the given class distribution, which is only used
+     * for predictions: the statistics for choosing a split start empty.
+     */
+    Node(Instances header, double [] classCounts) {
+
+      m_classDist = new Distribution(1, header.numClasses());
+      m_classDist.add(0, classCounts);
+      m_nominalStats = new Distribution[header.numAttributes()];
+      m_numericStats = new double[header.numAttributes()][][];
+      for (int i = 0; i < header.numAttributes(); i++) {
+	if (i == header.classIndex()) {
+	  continue;
+	}
+	if (header.attribute(i).isNominal()) {
+	  m_nominalStats[i] = new Distribution(header.attribute(i).numValues(),
+					       header.numClasses());
+	} else {
+	  m_numericStats[i] = new double[header.numClasses()][5];
+	}
+      }
+    }
+
+    /**
+     * Returns true if the node is a leaf.
+     */
+    boolean isLeaf() {
+
+      return m_sons == null;
+    }
+
+    /**
+     * Adds a weighted instance to the statistics of a leaf.
+     */
+    void addToLeaf(Instance instance, double weight) {
+
+      int classValue = (int) instance.classValue();
+
+      m_classDist.add(0, classValue, weight);
+      m_weightSeen += weight;
+      for (int i = 0; i < m_nominalStats.length; i++) {
+	if ((i == instance.classIndex()) || instance.isMissing(i)) {
+	  continue;
+	}
+	if (m_nominalStats[i] != null) {
+	  m_nominalStats[i].add((int) instance.value(i), classValue, weight);
+	} else {
+	  double [] stats = m_numericStats[i][classValue];
+	  double value = instance.value(i);
+	  if (stats[0] == 0) {
+	    stats[3] = value;
+	    stats[4] = value;
+	  } else {
+	    stats[3] = Math.min(stats[3], value);
+	    stats[4] = Math.max(stats[4], value);
+	  }
+	  // weighted Welford update
+	  stats[0] += weight;
+	  double delta = value - stats[1];
+	  stats[1] += delta * weight / stats[0];
+	  stats[2] += weight * delta * (value - stats[1]);
+	}
+      }
+    }
+
+    /**
+     * Returns the subset of a son an instance belongs to, or -1 if the
+     * split attribute is missing.
+     */
+    int whichSubset(Instance instance) {
+
+      if (instance.isMissing(m_attIndex)) {
+	return -1;
+      }
+      if (instance.attribute(m_attIndex).isNominal()) {
+	return (int) instance.value(m_attIndex);
+      }
+      return (instance.value(m_attIndex) <= m_splitPoint) ? 0 : 1;
+    }
+
+    /**
+     * Returns the fractions of an instance with a missing split value that
+     * go to each son: the sons' shares of the weight seen by the node.
+     */
+    double [] weights() {
+
+      double [] weights = new double[m_sons.length];
+
+      for (int i = 0; i < m_sons.length; i++) {
+	weights[i] = m_sons[i].m_classDist.total();
+      }
+      if (Utils.eq(Utils.sum(weights), 0)) {
+	for (int i = 0; i < m_sons.length; i++) {
+	  weights[i] = 1.0 / m_sons.length;
+	}
+      } else {
+	Utils.normalize(weights);
+      }
+      return weights;
+    }
+  }
+
+  /**
+   * Returns default capabilities of the classifier.
+   * 
+   * @return the capabilities of this classifier
+   */
+  @Override
+  public Capabilities getCapabilities() {
+    Capabilities result = super.getCapabilities();
+    result.disableAll();
+
+    // attributes
+    result.enable(Capability.NOMINAL_ATTRIBUTES);
+    result.enable(Capability.NUMERIC_ATTRIBUTES);
+    result.enable(Capability.DATE_ATTRIBUTES);
+    result.enable(Capability.MISSING_VALUES);
+
+    // class
+    result.enable(Capability.NOMINAL_CLASS);
+    result.enable(Capability.MISSING_CLASS_VALUES);
+
+    // instances
+    result.setMinimumNumberInstances(0);
+
+    return result;
+  }
+
+  /**
+   * Generates the classifier by updating an empty tree with each of the
+   * given instances.
+   * 
+   * @param instances the data to train the classifier with
+   * @throws Exception if classifier can't be built successfully
+   */
+  @Override
+  public void buildClassifier(Instances instances) throws Exception {
+
+    getCapabilities().testWithFail(instances);
+
+    m_header = new Instances(instances, 0);
+    m_root = new Node(m_header, new double[m_header.numClasses()]);
+    for (int i = 0; i < instances.numInstances(); i++) {
+      updateClassifier(instances.instance(i));
+    }
+  }
+
+  /**
+   * Updates the classifier with the given instance. Instances with a
+   * missing class are ignored.
+   * 
+   * @param instance the instance to learn from
+   * @throws Exception if the instance can't be learned
+   */
+  public void updateClassifier(Instance instance) throws Exception {
+
+    if (instance.classIsMissing()) {
+      return;
+    }
+    update(m_root, instance, instance.weight());
+  }
+
+  /**
+   * Routes a weighted instance to the leaves below a node and evaluates
+   * the splits of the leaves it reaches.
+   */
+  protected void update(Node node, Instance instance, double weight)
+    throws Exception {
+
+    if (!node.isLeaf()) {
+      node.m_classDist.add(0, (int) instance.classValue(), weight);
+      int subset = node.whichSubset(instance);
+      if (subset > -1) {
+	update(node.m_sons[subset], instance, weight);
+      } else {
+	double [] weights = node.weights();
+	for (int i = 0; i < weights.length; i++) {
+	  if (Utils.gr(weights[i], 0)) {
+	    update(node.m_sons[i], instance, weights[i] * weight);
+	  }
+	}
+      }
+      return;
+    }
+    node.addToLeaf(instance, weight);
+    if (node.m_weightSeen - node.m_weightAtLastEvaluation >= m_gracePeriod) {
+      node.m_weightAtLastEvaluation = node.m_weightSeen;
+      attemptSplit(node);
+    }
+  }
+
+  /**
+   * Splits a leaf on its best attribute if the Hoeffding bound allows it.
+   * The gains and the bound only use the weight the leaf has seen, as its
+   * attribute statistics do.
+   */
+  protected void attemptSplit(Node leaf) throws Exception {
+
+    double total = leaf.m_weightSeen;
+    int bestAtt = -1;
+    double bestGain = 0;
+    double secondGain = 0;
+    Distribution bestBags = null;
+    double bestSplitPoint = 0;
+
+    // pure leaves are not split
+    if (Utils.eq(leaf.m_classDist.perClass(leaf.m_classDist.maxClass()),
+		 leaf.m_classDist.total())) {
+      return;
+    }
+
+    for (int i = 0; i < m_header.numAttributes(); i++) {
+      if (i == m_header.classIndex()) {
+	continue;
+      }
+      Distribution bags = null;
+      double splitPoint = 0;
+      double gain = 0;
+      if (leaf.m_nominalStats[i] != null) {
+	bags = leaf.m_nominalStats[i];
+	if (bags.check(m_minNumObj)) {
+	  gain = INFO_GAIN_CRIT.splitCritValue(bags, total);
+	}
+      } else {
+	double [][] stats = leaf.m_numericStats[i];
+	double min = Double.MAX_VALUE;
+	double max = -Double.MAX_VALUE;
+	for (int j = 0; j < stats.length; j++) {
+	  if (stats[j][0] > 0) {
+	    min = Math.min(min, stats[j][3]);
+	    max = Math.max(max, stats[j][4]);
+	  }
+	}
+	for (int k = 1; (min < max) && (k <= m_numSplitPoints); k++) {
+	  double candidate = min + (max - min) * k / (m_numSplitPoints + 1);
+	  Distribution candidateBags = numericBags(stats, candidate);
+	  if (!candidateBags.check(m_minNumObj)) {
+	    continue;
+	  }
+	  double candidateGain =
+	    INFO_GAIN_CRIT.splitCritValue(candidateBags, total);
+	  if (candidateGain > gain) {
+	    gain = candidateGain;
+	    bags = candidateBags;
+	    splitPoint = candidate;
+	  }
+	}
+      }
+      if (gain > bestGain) {
+	secondGain = bestGain;
+	bestGain = gain;
+	bestAtt = i;
+	bestBags = bags;
+	bestSplitPoint = splitPoint;
+      } else if (gain > secondGain) {
+	secondGain = gain;
+      }
+    }
+    if ((bestAtt < 0) || Utils.eq(bestGain, 0)) {
+      return;
+    }
+
+    double range = Utils.log2(Math.max(2, m_header.numClasses()));
+    double epsilon = Math.sqrt(range * range * Math.log(1 / m_splitConfidence)
+			       / (2 * total));
+    if ((bestGain - secondGain > epsilon) || (epsilon < m_tieThreshold)) {
+      leaf.m_attIndex = bestAtt;
+      leaf.m_splitPoint = bestSplitPoint;
+      leaf.m_sons = new Node[bestBags.numBags()];
+      for (int i = 0; i < leaf.m_sons.length; i++) {
+	double [] counts = new double[m_header.numClasses()];
+	for (int j = 0; j < counts.length; j++) {
+	  counts[j] = bestBags.perClassPerBag(i, j);
+	}
+	leaf.m_sons[i] = new Node(m_header, counts);
+      }
+      leaf.m_nominalStats = null;
+      leaf.m_numericStats = null;
+    }
+  }
+
+  /**
+   * Estimates the class distributions on both sides of a split point from
+   * the normal estimates of a numeric attribute.
+   */
+  protected static Distribution numericBags(double [][] stats,
+					    double splitPoint) {
+
+    Distribution bags = new Distribution(2, stats.length);
+
+    for (int j = 0; j < stats.length; j++) {
+      double weight = stats[j][0];
+      if (weight <= 0) {
+	continue;
+      }
+      double below;
+      if (splitPoint < stats[j][3]) {
+	below = 0;
+      } else if (splitPoint >= stats[j][4]) {
+	below = weight;
+      } else {
+	double sd = (weight > 1) ? Math.sqrt(stats[j][2] / (weight - 1)) : 0;
+	if (sd > 0) {
+	  below = weight
+	    * Statistics.normalProbability((splitPoint - stats[j][1]) / sd);
+	} else {
+	  below = (stats[j][1] <= splitPoint) ? weight : 0;
+	}
+      }
+      bags.add(0, j, below);
+      bags.add(1, j, weight - below);
+    }
+    return bags;
+  }
+
+  /**
+   * Returns class probabilities for an instance.
+   * 
+   * @param instance the instance to calculate the class probabilities for
+   * @return the class probabilities
+   * @throws Exception if distribution can't be computed successfully
+   */
+  @Override
+  public final double[] distributionForInstance(Instance instance)
+    throws Exception {
+
+    double [] probs = new double[m_header.numClasses()];
+
+    addProbs(m_root, m_root, instance, 1, probs);
+    if (Utils.gr(Utils.sum(probs), 0)) {
+      Utils.normalize(probs);
+    }
+    return probs;
+  }
+
+  /**
+   * Adds the weighted class distribution of the leaves an instance reaches
+   * below a node. Leaves that have not seen any weight use their parent's
+   * distribution.
+   */
+  private void addProbs(Node node, Node parent, Instance instance,
+			double weight, double [] probs) {
+
+    if (node.isLeaf()) {
+      Distribution dist = Utils.gr(node.m_classDist.total(), 0)
+	? node.m_classDist : parent.m_classDist;
+      for (int j = 0; j < probs.length; j++) {
+	probs[j] += weight * dist.prob(j);
+      }
+      return;
+    }
+    int subset = node.whichSubset(instance);
+    if (subset > -1) {
+      addProbs(node.m_sons[subset], node, instance, weight, probs);
+    } else {
+      double [] weights = node.weights();
+      for (int i = 0; i < weights.length; i++) {
+	if (Utils.gr(weights[i], 0)) {
+	  addProbs(node.m_sons[i], node, instance, weights[i] * weight, probs);
+	}
+      }
+    }
+  }
+
+  /**
+   * Returns a description of the classifier.
+   * 
+   * @return a description of the classifier
+   */
+  @Override
+  public String toString() {
+
+    if (m_root == null) {
+      return "No classifier built";
+    }
+    StringBuffer text = new StringBuffer();
+    text.append("Hoeffding tree\n------------------\n");
+    dumpTree(m_root, 0, text);
+    text.append("\n\nNumber of Leaves  : \t" + numLeaves(m_root) + "\n");
+    text.append("\nSize of the tree : \t" + numNodes(m_root) + "\n");
+    return text.toString();
+  }
+
+  /**
+   * Help method for printing tree structure.
+   */
+  private void dumpTree(Node node, int depth, StringBuffer text) {
+
+    if (node.isLeaf()) {
+      text.append(": " + m_header.classAttribute()
+		  .value(node.m_classDist.maxClass()) + " ("
+		  + Utils.roundDouble(node.m_classDist.total(), 2) + ")");
+      return;
+    }
+    for (int i = 0; i < node.m_sons.length; i++) {
+      text.append("\n");
+      for (int j = 0; j < depth; j++) {
+	text.append("|   ");
+      }
+      text.append(m_header.attribute(node.m_attIndex).name());
+      if (m_header.attribute(node.m_attIndex).isNominal()) {
+	text.append(" = " + m_header.attribute(node.m_attIndex).value(i));
+      } else {
+	text.append(((i == 0) ? " <= " : " > ")
+		    + Utils.doubleToString(node.m_splitPoint, 6));
+      }
+      dumpTree(node.m_sons[i], depth + 1, text);
+    }
+  }
+
+  /**
+   * Returns the number of nodes below and including a node.
+   */
+  private static int numNodes(Node node) {
+
+    int num = 1;
+
+    if (!node.isLeaf()) {
+      for (int i = 0; i < node.m_sons.length; i++) {
+	num += numNodes(node.m_sons[i]);
+      }
+    }
+    return num;
+  }
+
+  /**
+   * Returns the number of leaves below and including a node.
+   */
+  private static int numLeaves(Node node) {
+
+    int num = 0;
+
+    if (node.isLeaf()) {
+      return 1;
+    }
+    for (int i = 0; i < node.m_sons.length; i++) {
+      num += numLeaves(node.m_sons[i]);
+    }
+    return num;
+  }
+
+  /**
+   * Returns the size of the tree
+   * 
+   * @return the size of the tree
+   */
+  public double measureTreeSize() {
+    return numNodes(m_root);
+  }
+
+  /**
+   * Returns the number of leaves
+   * 
+   * @return the number of leaves
+   */
+  public double measureNumLeaves() {
+    return numLeaves(m_root);
+  }
+
+  /**
+   * Returns an enumeration of the additional measure names
+   * 
+   * @return an enumeration of the measure names
+   */
+  public Enumeration<String> enumerateMeasures() {
+    Vector<String> newVector = new Vector<String>(2);
+    newVector.addElement("measureTreeSize");
+    newVector.addElement("measureNumLeaves");
+    return newVector.elements();
+  }
+
+  /**
+   * Returns the value of the named measure
+   * 
+   * @param additionalMeasureName the name of the measure to query for its
+   *          value
+   * @return the value of the named measure
+   * @throws IllegalArgumentException if the named measure is not supported
+   */
+  public double getMeasure(String additionalMeasureName) {
+    if (additionalMeasureName.compareToIgnoreCase("measureTreeSize") == 0) {
+      return measureTreeSize();
+    } else if (additionalMeasureName
+      .compareToIgnoreCase("measureNumLeaves") == 0) {
+      return measureNumLeaves();
+    } else {
+      throw new IllegalArgumentException(additionalMeasureName
+        + " not supported (MyHoeffdingTree)");
+    }
+  }
+
+  /**
+   * Get the value of gracePeriod.
+   * 
+   * @return Value of gracePeriod.
+   */
+  public double getGracePeriod() {
+
+    return m_gracePeriod;
+  }
+
+  /**
+   * Set the weight a leaf has to see between evaluations of its splits.
+   * 
+   * @param v Value to assign to gracePeriod.
+   */
+  public void setGracePeriod(double v) {
+
+    m_gracePeriod = v;
+  }
+
+  /**
+   * Get the value of splitConfidence.
+   * 
+   * @return Value of splitConfidence.
+   */
+  public double getSplitConfidence() {
+
+    return m_splitConfidence;
+  }
+
+  /**
+   * Set the allowed probability of splitting on the wrong attribute.
+   * 
+   * @param v Value to assign to splitConfidence.
+   */
+  public void setSplitConfidence(double v) {
+
+    m_splitConfidence = v;
+  }
+
+  /**
+   * Get the value of tieThreshold.
+   * 
+   * @return Value of tieThreshold.
+   */
+  public double getTieThreshold() {
+
+    return m_tieThreshold;
+  }
+
+  /**
+   * Set the difference in gain below which the best attribute is chosen
+   * anyway.
+   * 
+   * @param v Value to assign to tieThreshold.
+   */
+  public void setTieThreshold(double v) {
+
+    m_tieThreshold = v;
+  }
+
+  /**
+   * Get the value of minNumObj.
+   * 
+   * @return Value of minNumObj.
+   */
+  public int getMinNumObj() {
+
+    return m_minNumObj;
+  }
+
+  /**
+   * Set the minimum number of instances in at least two subsets of a
+   * split.
+   * 
+   * @param v Value to assign to minNumObj.
+   */
+  public void setMinNumObj(int v) {
+
+    m_minNumObj = v;
+  }
+
+  /**
+   * Get the value of numSplitPoints.
+   * 
+   * @return Value of numSplitPoints.
+   */
+  public int getNumSplitPoints() {
+
+    return m_numSplitPoints;
+  }
+
+  /**
+   * Set the number of candidate split points for numeric attributes.
+   * 
+   * @param v Value to assign to numSplitPoints.
+   */
+  public void setNumSplitPoints(int v) {
+
+    m_numSplitPoints = v;
+  }
+
+  /**
+   * Returns the revision string.
+   * 
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+
+  /**
+   * Main method for testing this class
+   * 
+   * @param argv the commandline options
+   */
+  public static void main(String[] argv) {
+    runClassifier(new MyHoeffdingTree(), argv);
+  }
+}
@@ -1,5 +1,10 @@
 package J48;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Writer;
 import java.util.Enumeration;
 import java.util.Vector;
 
@@ -13,6 +18,7 @@ import weka.core.Matchable;
 import weka.core.OptionHandler;
 import weka.core.RevisionUtils;
 import weka.core.WeightedInstancesHandler;
+import weka.core.converters.ConverterUtils.DataSource;
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
 
@@ -59,12 +65,40 @@ public class MyJ48 extends Classifier implements OptionHandler, Drawable,
   /** Cleanup after the tree has been built. */
   protected boolean m_noCleanup = false;
 
-  /** Random number seed for reduced-error pruning. */
+  /** Random number seed for reduced-error pruning and attribute subsets. */
   protected int m_Seed = 1;
 
   /** Do not relocate split point to actual data value */
   protected boolean m_doNotMakeSplitPointActualValue;
 
+  /** Skip candidate attributes that provably cannot be selected? */
+  protected boolean m_boundedSearch = false;
+
+  /** Number of attributes considered at each node (0 = all). */
+  protected int m_numFeatures = 0;
+
+  /** Grow the tree breadth-first, one pass over the data per level? */
+  protected boolean m_levelWise = false;
+
+  /** Maximum depth of a level-wise grown tree (0 = unlimited). */
+  protected int m_maxDepth = 0;
+
+  /** Maximum number of nodes of a level-wise grown tree (0 = unlimited). */
+  protected int m_maxNodes = 0;
+
+  /** Fraction of a node's weight its delta may have before an update
+      selects its split again. */
+  protected double m_updateTolerance = 0.05;
+
+  /** Number of nodes whose split was selected again by the last update. */
+  protected double m_numReselectedNodes = 0;
+
+  /** Number of candidate attributes skipped during the last build. */
+  protected double m_numSkippedCandidates = 0;
+
+  /** Timers and counters of the last build. */
+  protected TrainingMetrics m_metrics = new TrainingMetrics();
+
   /**
    * Returns default capabilities of the classifier.
    * 
@@ -103,12 +137,152 @@ public class MyJ48 extends Classifier implements OptionHandler, Drawable,
 
     ModelSelection modSelection;
     
-    modSelection = new C45ModelSelection(m_minNumObj, instances);
+    if (m_levelWise && m_reducedErrorPruning) {
+      throw new Exception("Level-wise growth does not support reduced-error "
+        + "pruning.");
+    }
+    if (m_numFeatures > 0) {
+      modSelection = new RandomC45ModelSelection(m_minNumObj, instances,
+        m_numFeatures, m_Seed);
+    } else {
+      modSelection = new C45ModelSelection(m_minNumObj, instances);
+    }
+    ((C45ModelSelection) modSelection).setBoundedSearch(m_boundedSearch);
+    m_metrics.reset();
+    modSelection.setMetrics(m_metrics);
+    m_metrics.startAllocation();
+    try {
+      if (m_levelWise) {
+        buildLevelWise((C45ModelSelection) modSelection, instances);
+      } else {
+        if (m_reducedErrorPruning) {
+          m_root = new PruneableClassifierTree(modSelection, !m_unpruned, m_numFolds, !m_noCleanup, m_Seed);
+        } else {
+          m_root = new C45PruneableClassifierTree(modSelection, !m_unpruned, m_CF, m_subtreeRaising, !m_noCleanup);
+        }
+        m_root.buildClassifier(instances);
+      }
+      m_numSkippedCandidates = ((C45ModelSelection) modSelection).numSkipped();
+    } finally {
+      // the nodes keep the split selection method, which must not keep
+      // the training data
+      ((C45ModelSelection) modSelection).cleanup();
+      m_metrics.stopAllocation();
+      modSelection.setMetrics(null);
+    }
+  }
+
+  /**
+   * Updates the classifier with appended and removed rows instead of
+   * rebuilding it, keeping the subtrees whose splits are stable (see
+   * C45PruneableClassifierTree.update()). Requires a tree built with
+   * saveInstanceData and C4.5 pruning.
+   * 
+   * @param added the rows to add
+   * @param removed the rows to remove
+   * @throws Exception if the classifier can't be updated
+   */
+  public void updateClassifier(Instances added, Instances removed)
+    throws Exception {
+
+    if (!(m_root instanceof C45PruneableClassifierTree)) {
+      throw new Exception("Only trees using C4.5 pruning can be updated.");
+    }
+    m_root.disableScoringMetrics();
+    m_root.disablePredictionCache();
+    m_numReselectedNodes = ((C45PruneableClassifierTree) m_root).update(
+      added, removed, m_updateTolerance);
+  }
+
+  /**
+   * Grows the tree breadth-first (see LevelWiseTreeBuilder), bounded by
+   * maxDepth and maxNodes, then collapses and prunes it. Subtree raising
+   * is not performed, since the nodes do not keep their training data,
+   * and reduced-error pruning is not supported.
+   * 
+   * @param modSelection the split selection method
+   * @param instances the data to train the classifier with
+   * @throws Exception if classifier can't be built successfully
+   */
+  protected void buildLevelWise(C45ModelSelection modSelection,
+    Instances instances) throws Exception {
+
+    C45PruneableClassifierTree root;
     
-    m_root = new C45PruneableClassifierTree(modSelection, !m_unpruned, m_CF, m_subtreeRaising, !m_noCleanup);
+    getCapabilities().testWithFail(instances);
+    root = new C45PruneableClassifierTree(modSelection, !m_unpruned, m_CF,
+      false, true);
+    new LevelWiseTreeBuilder(modSelection, m_maxDepth, m_maxNodes)
+      .buildTree(instances, root);
+    finishTree(root, new Instances(instances, 0));
+  }
+
+  /**
+   * Collapses, prunes and cleans up a grown tree and makes it the
+   * classifier's tree.
+   * 
+   * @param root the root of the grown tree
+   * @param header the structure of the training data
+   * @throws Exception if the tree can't be pruned
+   */
+  private void finishTree(C45PruneableClassifierTree root, Instances header)
+    throws Exception {
+
+    long start = m_metrics.start();
+    root.collapse();
+    m_metrics.record(TrainingMetrics.Phase.COLLAPSE, start);
+    if (!m_unpruned) {
+      start = m_metrics.start();
+      root.prune();
+      m_metrics.record(TrainingMetrics.Phase.PRUNE, start);
+    }
+    start = m_metrics.start();
+    root.cleanup(header);
+    m_metrics.record(TrainingMetrics.Phase.CLEANUP, start);
+    m_root = root;
+  }
+
+  /**
+   * Generates the classifier from a source that is read only once, growing
+   * the tree out of core (see OutOfCoreTreeBuilder). Subtree raising is not
+   * performed, since the nodes do not keep their training data.
+   * 
+   * @param source the source of the training data
+   * @param spillDir directory for the spill files (null = default
+   * temporary directory)
+   * @param maxInMemoryRows partitions with at most this many rows are grown
+   * in memory
+   * @throws Exception if classifier can't be built successfully
+   */
+  public void buildClassifier(DataSource source, File spillDir,
+    int maxInMemoryRows) throws Exception {
+
+    C45ModelSelection modSelection;
+    C45PruneableClassifierTree root;
+    OutOfCoreTreeBuilder builder;
     
-    m_root.buildClassifier(instances);
-    ((C45ModelSelection) modSelection).cleanup();
+    if (m_numFeatures > 0) {
+      modSelection = new RandomC45ModelSelection(m_minNumObj, null,
+        m_numFeatures, m_Seed);
+    } else {
+      modSelection = new C45ModelSelection(m_minNumObj, null);
+    }
+    modSelection.setBoundedSearch(m_boundedSearch);
+    m_metrics.reset();
+    modSelection.setMetrics(m_metrics);
+    m_metrics.startAllocation();
+    try {
+      root = new C45PruneableClassifierTree(modSelection, !m_unpruned, m_CF,
+        false, true);
+      builder = new OutOfCoreTreeBuilder(modSelection, spillDir,
+        maxInMemoryRows);
+      builder.buildTree(source, root);
+      finishTree(root, builder.header());
+      m_numSkippedCandidates = modSelection.numSkipped();
+    } finally {
+      m_metrics.stopAllocation();
+      modSelection.setMetrics(null);
+    }
   }
 
   /**
@@ -138,6 +312,71 @@ public class MyJ48 extends Classifier implements OptionHandler, Drawable,
     return m_root.distributionForInstance(instance, m_useLaplace);
   }
 
+  /**
+   * Drops everything the tree only keeps for training, such as the
+   * training data of every node if instance data is saved, so the model
+   * takes less space in memory and when serialized. The tree classifies
+   * as before, but can no longer be updated.
+   */
+  public void compact() {
+
+    m_root.compact();
+  }
+
+  /**
+   * Returns the tree in compiled form, for scoring many rows. The compiled
+   * tree scores rows given as arrays or packed in a buffer, without an
+   * Instance per row.
+   * 
+   * @return the compiled tree
+   * @throws Exception if the tree can't be compiled
+   */
+  public CompiledTree compile() throws Exception {
+
+    return m_root.compile(m_useLaplace);
+  }
+
+  /**
+   * Starts recording scoring metrics for the tree (see
+   * ClassifierTree.enableScoringMetrics()). Rebuilding or updating the
+   * classifier stops them.
+   *
+   * @return the metrics predictions are recorded into
+   */
+  public ScoringMetrics enableScoringMetrics() {
+
+    return m_root.enableScoringMetrics();
+  }
+
+  /**
+   * Stops recording scoring metrics.
+   */
+  public void disableScoringMetrics() {
+
+    m_root.disableScoringMetrics();
+  }
+
+  /**
+   * Starts caching predictions of the tree (see
+   * ClassifierTree.enablePredictionCache()). Distributions with laplace
+   * are not cached. Rebuilding or updating the classifier stops caching.
+   *
+   * @param capacity the largest number of cached distributions
+   * @return the cache
+   */
+  public PredictionCache<double []> enablePredictionCache(int capacity) {
+
+    return m_root.enablePredictionCache(capacity);
+  }
+
+  /**
+   * Stops caching predictions.
+   */
+  public void disablePredictionCache() {
+
+    m_root.disablePredictionCache();
+  }
+
   /**
    * Returns the type of graph this classifier represents.
    * 
@@ -172,6 +411,37 @@ public class MyJ48 extends Classifier implements OptionHandler, Drawable,
     return m_root.prefix();
   }
 
+  /**
+   * Writes the tree, or the subtree of a node, to a writer as it is
+   * printed, node by node (see ClassifierTree.writeTree).
+   * 
+   * @param out the writer to write to
+   * @param nodeId the ID of the node to start at (0 for the root)
+   * @param maxDepth the number of levels of tests to write (0 for all)
+   * @throws Exception if something goes wrong
+   */
+  public void writeTree(Writer out, int nodeId, int maxDepth)
+    throws Exception {
+
+    m_root.writeTree(out, nodeId, maxDepth);
+  }
+
+  /**
+   * Writes the graph of the tree, or of the subtree of a node, to a
+   * writer, node by node (see ClassifierTree.writeGraph).
+   * 
+   * @param out the writer to write to
+   * @param nodeId the ID of the node to start at (0 for the root)
+   * @param maxDepth the number of levels of tests to write (0 for all)
+   * @param withData whether to include the training data kept at nodes
+   * @throws Exception if something goes wrong
+   */
+  public void writeGraph(Writer out, int nodeId, int maxDepth,
+    boolean withData) throws Exception {
+
+    m_root.writeGraph(out, nodeId, maxDepth, withData);
+  }
+
   /**
    * Get the value of Seed.
    * 
@@ -259,6 +529,123 @@ public class MyJ48 extends Classifier implements OptionHandler, Drawable,
     return m_root.numLeaves();
   }
 
+  /**
+   * Returns the number of candidate attributes skipped by the bounded
+   * search
+   * 
+   * @return the number of skipped candidates
+   */
+  public double measureNumSkippedCandidates() {
+    return m_numSkippedCandidates;
+  }
+
+  /**
+   * Returns the number of nodes whose split was selected again by the
+   * last update
+   * 
+   * @return the number of nodes
+   */
+  public double measureNumReselectedNodes() {
+    return m_numReselectedNodes;
+  }
+
+  /**
+   * Returns the timers and counters of the last build. They can also be
+   * read over JMX after TrainingMetrics.register() has been called.
+   * 
+   * @return the metrics
+   */
+  public TrainingMetrics getTrainingMetrics() {
+    return m_metrics;
+  }
+
+  /**
+   * Returns the wall time a phase of the last build took
+   * 
+   * @param phase the phase
+   * @return the time in milliseconds
+   */
+  public double measureTime(TrainingMetrics.Phase phase) {
+    return m_metrics.nanos(phase) / 1e6;
+  }
+
+  /**
+   * Returns the number of calls of a phase in the last build
+   * 
+   * @param phase the phase
+   * @return the number of calls
+   */
+  public double measureCalls(TrainingMetrics.Phase phase) {
+    return m_metrics.calls(phase);
+  }
+
+  /**
+   * Returns the number of candidate splits evaluated in the last build
+   * 
+   * @return the number of candidates
+   */
+  public double measureCandidatesEvaluated() {
+    return m_metrics.getCandidatesEvaluated();
+  }
+
+  /**
+   * Returns the number of rows touched by evaluating candidates and
+   * splitting in the last build
+   * 
+   * @return the number of rows
+   */
+  public double measureRowsTouched() {
+    return m_metrics.getRowsTouched();
+  }
+
+  /**
+   * Returns the number of sorts performed in the last build
+   * 
+   * @return the number of sorts
+   */
+  public double measureSorts() {
+    return m_metrics.getSorts();
+  }
+
+  /**
+   * Returns the number of bytes the building thread allocated in the last
+   * build
+   * 
+   * @return the number of bytes, or -1 if the JVM can't measure it
+   */
+  public double measureBytesAllocated() {
+    return m_metrics.getBytesAllocated();
+  }
+
+  /**
+   * Returns the size of the classifier when serialized, in bytes.
+   * 
+   * @return the serialized size
+   */
+  public double measureModelSize() {
+
+    return serializedSize(this);
+  }
+
+  /**
+   * Returns the number of bytes an object takes when serialized.
+   * 
+   * @param object the object
+   * @return the serialized size, or -1 if it can't be serialized
+   */
+  public static long serializedSize(Object object) {
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      ObjectOutputStream out = new ObjectOutputStream(bytes);
+      out.writeObject(object);
+      out.close();
+    } catch (IOException e) {
+      return -1;
+    }
+    return bytes.size();
+  }
+
   /**
    * Returns an enumeration of the additional measure names
    * 
@@ -266,10 +653,21 @@ public class MyJ48 extends Classifier implements OptionHandler, Drawable,
    */
   @Override
   public Enumeration<String> enumerateMeasures() {
-    Vector<String> newVector = new Vector<String>(3);
+    Vector<String> newVector = new Vector<String>(5);
     newVector.addElement("measureTreeSize");
     newVector.addElement("measureNumLeaves");
     newVector.addElement("measureNumRules");
+    newVector.addElement("measureNumSkippedCandidates");
+    newVector.addElement("measureNumReselectedNodes");
+    newVector.addElement("measureModelSize");
+    for (TrainingMetrics.Phase phase : TrainingMetrics.Phase.values()) {
+      newVector.addElement("measureTime" + phase.getName());
+      newVector.addElement("measureCalls" + phase.getName());
+    }
+    newVector.addElement("measureCandidatesEvaluated");
+    newVector.addElement("measureRowsTouched");
+    newVector.addElement("measureSorts");
+    newVector.addElement("measureBytesAllocated");
     return newVector.elements();
   }
 
@@ -288,10 +686,30 @@ public class MyJ48 extends Classifier implements OptionHandler, Drawable,
       return measureTreeSize();
     } else if (additionalMeasureName.compareToIgnoreCase("measureNumLeaves") == 0) {
       return measureNumLeaves();
-    } else {
-      throw new IllegalArgumentException(additionalMeasureName
-        + " not supported (j48)");
+    } else if (additionalMeasureName.compareToIgnoreCase("measureNumSkippedCandidates") == 0) {
+      return measureNumSkippedCandidates();
+    } else if (additionalMeasureName.compareToIgnoreCase("measureNumReselectedNodes") == 0) {
+      return measureNumReselectedNodes();
+    } else if (additionalMeasureName.compareToIgnoreCase("measureModelSize") == 0) {
+      return measureModelSize();
+    } else if (additionalMeasureName.compareToIgnoreCase("measureCandidatesEvaluated") == 0) {
+      return measureCandidatesEvaluated();
+    } else if (additionalMeasureName.compareToIgnoreCase("measureRowsTouched") == 0) {
+      return measureRowsTouched();
+    } else if (additionalMeasureName.compareToIgnoreCase("measureSorts") == 0) {
+      return measureSorts();
+    } else if (additionalMeasureName.compareToIgnoreCase("measureBytesAllocated") == 0) {
+      return measureBytesAllocated();
+    }
+    for (TrainingMetrics.Phase phase : TrainingMetrics.Phase.values()) {
+      if (additionalMeasureName.compareToIgnoreCase("measureTime" + phase.getName()) == 0) {
+        return measureTime(phase);
+      } else if (additionalMeasureName.compareToIgnoreCase("measureCalls" + phase.getName()) == 0) {
+        return measureCalls(phase);
+      }
     }
+    throw new IllegalArgumentException(additionalMeasureName
+      + " not supported (j48)");
   }
 
   /**
@@ -499,6 +917,131 @@ public class MyJ48 extends Classifier implements OptionHandler, Drawable,
     this.m_doNotMakeSplitPointActualValue = m_doNotMakeSplitPointActualValue;
   }
 
+  /**
+   * Gets whether candidate attributes are bounded before being evaluated.
+   * 
+   * @return the value
+   */
+  public boolean getBoundedSearch() {
+    return m_boundedSearch;
+  }
+
+  /**
+   * Sets whether candidate attributes are bounded before being evaluated.
+   * Numeric attributes whose upper bounds show that they cannot be selected
+   * are then skipped; the selected splits stay the same.
+   * 
+   * @param v the value to set
+   */
+  public void setBoundedSearch(boolean v) {
+    m_boundedSearch = v;
+  }
+
+  /**
+   * Get the value of numFeatures.
+   * 
+   * @return Value of numFeatures.
+   */
+  public int getNumFeatures() {
+
+    return m_numFeatures;
+  }
+
+  /**
+   * Set the number of randomly chosen attributes considered at each node.
+   * Zero considers all attributes; the subsets are drawn using the seed.
+   * 
+   * @param v Value to assign to numFeatures.
+   */
+  public void setNumFeatures(int v) {
+
+    m_numFeatures = v;
+  }
+
+  /**
+   * Get the value of levelWise.
+   * 
+   * @return Value of levelWise.
+   */
+  public boolean getLevelWise() {
+
+    return m_levelWise;
+  }
+
+  /**
+   * Set whether the tree is grown breadth-first, with one pass over the
+   * data per level. Level-wise trees are pruned with C4.5 pruning;
+   * building one with reducedErrorPruning set fails.
+   * 
+   * @param v Value to assign to levelWise.
+   */
+  public void setLevelWise(boolean v) {
+
+    m_levelWise = v;
+  }
+
+  /**
+   * Get the value of maxDepth.
+   * 
+   * @return Value of maxDepth.
+   */
+  public int getMaxDepth() {
+
+    return m_maxDepth;
+  }
+
+  /**
+   * Set the maximum depth of a level-wise grown tree (0 = unlimited).
+   * 
+   * @param v Value to assign to maxDepth.
+   */
+  public void setMaxDepth(int v) {
+
+    m_maxDepth = v;
+  }
+
+  /**
+   * Get the value of maxNodes.
+   * 
+   * @return Value of maxNodes.
+   */
+  public int getMaxNodes() {
+
+    return m_maxNodes;
+  }
+
+  /**
+   * Set the maximum number of nodes of a level-wise grown tree
+   * (0 = unlimited).
+   * 
+   * @param v Value to assign to maxNodes.
+   */
+  public void setMaxNodes(int v) {
+
+    m_maxNodes = v;
+  }
+
+  /**
+   * Get the value of updateTolerance.
+   * 
+   * @return Value of updateTolerance.
+   */
+  public double getUpdateTolerance() {
+
+    return m_updateTolerance;
+  }
+
+  /**
+   * Set the fraction of a node's weight the rows added to and removed from
+   * it may have before an update selects its split again.
+   * 
+   * @param v Value to assign to updateTolerance.
+   */
+  public void setUpdateTolerance(double v) {
+
+    m_updateTolerance = v;
+  }
+
   /**
    * Returns the revision string.
    * 
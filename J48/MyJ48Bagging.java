@@ -0,0 +1,218 @@
+package J48;
+
+import J48.Classifier.BootstrapSample;
+import J48.Classifier.ParallelBagging;
+import weka.classifiers.Classifier;
+import weka.core.Capabilities;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.RevisionUtils;
+import weka.core.WeightedInstancesHandler;
+
+/**
+ * Bagged ensemble of MyJ48 trees, trained in parallel. Every tree is grown
+ * on a bootstrap sample of one shared dataset; the samples are weighted
+ * views over the shared rows, so the dataset itself is never copied. With
+ * numFeatures set on the template tree, each tree only considers a random
+ * subset of the attributes at each node, as in random forests.
+ *
+ * @version $Revision$
+ */
+public class MyJ48Bagging extends Classifier implements
+  WeightedInstancesHandler {
+
+  /** for serialization */
+  static final long serialVersionUID = 4307913524516734126L;
+
+  /** The template for the trees in the ensemble. */
+  protected MyJ48 m_template = new MyJ48();
+
+  /** The number of trees. */
+  protected int m_numIterations = 10;
+
+  /** The number of threads to train with (0 = one per core). */
+  protected int m_numThreads = 0;
+
+  /** The random number seed. */
+  protected int m_Seed = 1;
+
+  /** The trees of the ensemble. */
+  protected MyJ48 [] m_trees;
+
+  /**
+   * Returns default capabilities of the classifier.
+   * 
+   * @return the capabilities of this classifier
+   */
+  @Override
+  public Capabilities getCapabilities() {
+
+    return m_template.getCapabilities();
+  }
+
+  /**
+   * Builds the ensemble.
+   * 
+   * @param instances the data to train the ensemble with
+   * @throws Exception if the ensemble can't be built successfully
+   */
+  @Override
+  public void buildClassifier(Instances instances) throws Exception {
+
+    getCapabilities().testWithFail(instances);
+
+    // remove instances with missing class once for all trees
+    final Instances data = new Instances(instances);
+    data.deleteWithMissingClass();
+
+    Classifier [] copies = Classifier.makeCopies(m_template, m_numIterations);
+    m_trees = new MyJ48[m_numIterations];
+    for (int i = 0; i < m_numIterations; i++) {
+      m_trees[i] = (MyJ48) copies[i];
+      m_trees[i].setSeed(m_Seed + i);
+    }
+
+    ParallelBagging.train(data.numInstances(), m_numIterations, m_numThreads,
+      m_Seed,
+      new ParallelBagging.Trainer() {
+        public void train(int member, BootstrapSample sample)
+          throws Exception {
+          m_trees[member].buildClassifier(sample.weightedView(data));
+        }
+      });
+  }
+
+  /**
+   * Returns class probabilities for an instance, averaged over the trees.
+   * 
+   * @param instance the instance to calculate the class probabilities for
+   * @return the class probabilities
+   * @throws Exception if distribution can't be computed successfully
+   */
+  @Override
+  public double[] distributionForInstance(final Instance instance)
+    throws Exception {
+
+    return ParallelBagging.vote(m_trees.length, instance.numClasses(),
+      new ParallelBagging.Voter() {
+        public double [] distribution(int member) throws Exception {
+          return m_trees[member].distributionForInstance(instance);
+        }
+      });
+  }
+
+  /**
+   * Get the template tree.
+   * 
+   * @return the template tree
+   */
+  public MyJ48 getTemplate() {
+
+    return m_template;
+  }
+
+  /**
+   * Set the template tree. Its options are used for every tree in the
+   * ensemble; its seed is replaced by the seed of the ensemble plus the
+   * index of the tree.
+   * 
+   * @param v the template tree
+   */
+  public void setTemplate(MyJ48 v) {
+
+    m_template = v;
+  }
+
+  /**
+   * Get the value of numIterations.
+   * 
+   * @return Value of numIterations.
+   */
+  public int getNumIterations() {
+
+    return m_numIterations;
+  }
+
+  /**
+   * Set the number of trees.
+   * 
+   * @param v Value to assign to numIterations.
+   */
+  public void setNumIterations(int v) {
+
+    m_numIterations = v;
+  }
+
+  /**
+   * Get the value of numThreads.
+   * 
+   * @return Value of numThreads.
+   */
+  public int getNumThreads() {
+
+    return m_numThreads;
+  }
+
+  /**
+   * Set the number of threads used for training (0 = one per core).
+   * 
+   * @param v Value to assign to numThreads.
+   */
+  public void setNumThreads(int v) {
+
+    m_numThreads = v;
+  }
+
+  /**
+   * Get the value of Seed.
+   * 
+   * @return Value of Seed.
+   */
+  public int getSeed() {
+
+    return m_Seed;
+  }
+
+  /**
+   * Set the value of Seed.
+   * 
+   * @param newSeed Value to assign to Seed.
+   */
+  public void setSeed(int newSeed) {
+
+    m_Seed = newSeed;
+  }
+
+  /**
+   * Returns a description of the ensemble.
+   * 
+   * @return a description of the ensemble
+   */
+  @Override
+  public String toString() {
+
+    if (m_trees == null) {
+      return "MyJ48Bagging: No model built yet.";
+    }
+    return "MyJ48Bagging\n\nNumber of trees : \t" + m_trees.length + "\n";
+  }
+
+  /**
+   * Returns the revision string.
+   * 
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+
+  /**
+   * Main method for testing this class
+   * 
+   * @param argv the commandline options
+   */
+  public static void main(String[] argv) {
+    runClassifier(new MyJ48Bagging(), argv);
+  }
+}
@@ -0,0 +1,267 @@
+package J48;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import J48.Classifier.CompiledTree;
+import J48.Classifier.OffHeapTree;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializedObject;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+
+/**
+ * Measures what keeping many models in a scoring JVM costs the garbage
+ * collector, with the models stored as MyJ48 trees, as compiled trees, as
+ * off-heap trees in direct buffers, and as off-heap trees mapped from
+ * files (see OffHeapTree). Trains MyJ48 on the data, unpruned (-U) or with
+ * a minimum number of instances per leaf (-M), and for each form keeps a
+ * number of copies of the model (-models) alive while all rows are scored
+ * for a number of rounds (-rounds), each row by the next model in turn.
+ * Every row is copied before it is scored, as a server reading requests
+ * would, so the collector has garbage to collect.
+ * <p>
+ * Reports per form the heap the models take, the time of a full
+ * collection with the models alive (which grows with the live heap, as
+ * old generation pauses do), the number and total time of the
+ * collections during scoring, the time per row, and the number of rows
+ * classified differently from the compiled tree, which should be zero.
+ * Run with a fixed heap and the collector of the scoring JVMs (e.g.
+ * -XX:+UseG1GC -Xms2g -Xmx2g) for comparable numbers.
+ * <p>
+ * Usage: java J48.OffHeapBenchmark -t file [-U] [-M n] [-models n]
+ * [-rounds n] [-d directory]
+ *
+ * @version $Revision$
+ */
+public class OffHeapBenchmark {
+
+  /** Sum of all predictions, kept so scoring can't be optimised away. */
+  private static volatile double m_sink;
+
+  /**
+   * A form models are stored in.
+   */
+  private static abstract class Form {
+
+    /** The name of the form. */
+    final String m_name;
+
+    Form(String name) {
+      m_name = name;
+    }
+
+    /**
+     * Creates the models.
+     */
+    abstract void load(int numModels) throws Exception;
+
+    /**
+     * Classifies a row with a model.
+     */
+    abstract double classify(int model, double [] values) throws Exception;
+
+    /**
+     * Drops the models.
+     */
+    abstract void unload();
+  }
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args the commandline options
+   * @throws Exception if something goes wrong
+   */
+  public static void main(String [] args) throws Exception {
+
+    String file = Utils.getOption('t', args);
+    final MyJ48 j48 = new MyJ48();
+    j48.setUnpruned(Utils.getFlag('U', args));
+    String option = Utils.getOption('M', args);
+    if (option.length() != 0) {
+      j48.setMinNumObj(Integer.parseInt(option));
+    }
+    option = Utils.getOption("models", args);
+    int numModels = (option.length() == 0) ? 500 : Integer.parseInt(option);
+    option = Utils.getOption("rounds", args);
+    int numRounds = (option.length() == 0) ? 20 : Integer.parseInt(option);
+    option = Utils.getOption('d', args);
+    final File directory = (option.length() == 0)
+      ? new File(System.getProperty("java.io.tmpdir")) : new File(option);
+
+    if (file.length() == 0) {
+      System.err.println("Usage: java J48.OffHeapBenchmark -t file [-U] "
+			 + "[-M n] [-models n] [-rounds n] [-d directory]");
+      return;
+    }
+
+    Instances data = new DataSource(file).getDataSet();
+    if (data.classIndex() < 0) {
+      data.setClassIndex(data.numAttributes() - 1);
+    }
+    data.deleteWithMissingClass();
+    final double [][] rows = new double[data.numInstances()][];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = data.instance(i).toDoubleArray();
+    }
+    final Instances header = new Instances(data, 0);
+
+    j48.buildClassifier(data);
+    j48.compact();
+    final CompiledTree compiled = j48.compile();
+    final SerializedObject serialized = new SerializedObject(j48);
+    final File mapped = new File(directory, "offheap-benchmark.tree");
+    compiled.toOffHeap().write(mapped);
+    mapped.deleteOnExit();
+
+    System.out.println("Nodes: " + compiled.numNodes() + ", models: "
+		       + numModels + ", rows: " + rows.length + ", rounds: "
+		       + numRounds + ", off-heap bytes per model: "
+		       + compiled.toOffHeap().byteSize());
+    System.out.println("Form\tHeap MB\tFull GC ms\tGCs\tGC ms\tns/row"
+		       + "\tChanged");
+
+    run(new Form("MyJ48") {
+	MyJ48 [] m_models;
+	void load(int numModels) throws Exception {
+	  m_models = new MyJ48[numModels];
+	  for (int i = 0; i < numModels; i++) {
+	    m_models[i] = (MyJ48) serialized.getObject();
+	  }
+	}
+	double classify(int model, double [] values) throws Exception {
+	  Instance instance = new Instance(1, values);
+	  instance.setDataset(header);
+	  return m_models[model].classifyInstance(instance);
+	}
+	void unload() {
+	  m_models = null;
+	}
+      }, numModels, numRounds, rows, compiled);
+    run(new Form("Compiled") {
+	CompiledTree [] m_models;
+	void load(int numModels) throws Exception {
+	  m_models = new CompiledTree[numModels];
+	  for (int i = 0; i < numModels; i++) {
+	    m_models[i] = ((MyJ48) serialized.getObject()).compile();
+	  }
+	}
+	double classify(int model, double [] values) {
+	  return m_models[model].classify(values);
+	}
+	void unload() {
+	  m_models = null;
+	}
+      }, numModels, numRounds, rows, compiled);
+    run(new Form("Off-heap") {
+	OffHeapTree [] m_models;
+	void load(int numModels) {
+	  m_models = new OffHeapTree[numModels];
+	  for (int i = 0; i < numModels; i++) {
+	    m_models[i] = compiled.toOffHeap();
+	  }
+	}
+	double classify(int model, double [] values) {
+	  return m_models[model].classify(values);
+	}
+	void unload() {
+	  m_models = null;
+	}
+      }, numModels, numRounds, rows, compiled);
+    run(new Form("Mapped") {
+	OffHeapTree [] m_models;
+	void load(int numModels) throws Exception {
+	  m_models = new OffHeapTree[numModels];
+	  for (int i = 0; i < numModels; i++) {
+	    m_models[i] = OffHeapTree.map(mapped);
+	  }
+	}
+	double classify(int model, double [] values) {
+	  return m_models[model].classify(values);
+	}
+	void unload() {
+	  m_models = null;
+	}
+      }, numModels, numRounds, rows, compiled);
+  }
+
+  /**
+   * Loads the models of a form, scores the rows with them and prints the
+   * measurements.
+   */
+  private static void run(Form form, int numModels, int numRounds,
+			  double [][] rows, CompiledTree compiled)
+    throws Exception {
+
+    long before = usedHeap();
+    form.load(numModels);
+    long heap = usedHeap() - before;
+
+    long start = System.nanoTime();
+    System.gc();
+    long fullGC = System.nanoTime() - start;
+
+    // the first pass over the rows checks the predictions and warms up
+    int changed = 0;
+    for (int i = 0; i < rows.length; i++) {
+      if (form.classify(i % numModels, rows[i]) != compiled.classify(rows[i])) {
+	changed++;
+      }
+    }
+
+    long [] gc = collections();
+    double sink = 0;
+    start = System.nanoTime();
+    for (int r = 0; r < numRounds; r++) {
+      for (int i = 0; i < rows.length; i++) {
+	sink += form.classify((r * rows.length + i) % numModels,
+			      rows[i].clone());
+      }
+    }
+    long nanos = System.nanoTime() - start;
+    long [] after = collections();
+
+    form.unload();
+    m_sink = sink;
+
+    System.out.println(form.m_name + "\t"
+		       + Utils.doubleToString(heap / 1048576.0, 1) + "\t"
+		       + Utils.doubleToString(fullGC / 1e6, 1) + "\t"
+		       + (after[0] - gc[0]) + "\t" + (after[1] - gc[1]) + "\t"
+		       + Utils.doubleToString((double) nanos
+					      / Math.max(1, (long) numRounds
+							 * rows.length), 1)
+		       + "\t" + changed);
+  }
+
+  /**
+   * Returns the heap in use after a full collection.
+   */
+  private static long usedHeap() {
+
+    Runtime runtime = Runtime.getRuntime();
+
+    System.gc();
+    System.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /**
+   * Returns the number and total time in milliseconds of the collections
+   * so far.
+   */
+  private static long [] collections() {
+
+    long [] totals = new long[2];
+
+    for (GarbageCollectorMXBean bean
+	   : ManagementFactory.getGarbageCollectorMXBeans()) {
+      totals[0] += Math.max(0, bean.getCollectionCount());
+      totals[1] += Math.max(0, bean.getCollectionTime());
+    }
+    return totals;
+  }
+}
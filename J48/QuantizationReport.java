@@ -0,0 +1,166 @@
+package J48;
+
+import J48.Classifier.CompiledTree;
+import J48.Classifier.QuantizedTree;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+
+/**
+ * Reports the size and accuracy of quantised trees against the full
+ * model. Trains MyJ48 on the data, reduced-error pruned (-R), unpruned
+ * (-U) or with a minimum number of instances per leaf (-M), and compares
+ * the compacted tree with its compiled form and its 16 and 8 bit
+ * quantised forms (see QuantizedTree): the serialized size and how many
+ * times smaller it is than the compacted tree, the accuracy on the data,
+ * the number of instances classified differently from the full model,
+ * and the largest difference of a class probability.
+ * <p>
+ * Usage: java J48.QuantizationReport -t file [-R] [-U] [-M n]
+ *
+ * @version $Revision$
+ */
+public class QuantizationReport {
+
+  /**
+   * A form of the model being compared.
+   */
+  private static abstract class Form {
+
+    /** The name of the form. */
+    final String m_name;
+
+    Form(String name) {
+      m_name = name;
+    }
+
+    /**
+     * Returns the class distribution for an instance.
+     */
+    abstract double [] distribution(Instance instance) throws Exception;
+
+    /**
+     * Classifies an instance.
+     */
+    abstract double classify(Instance instance) throws Exception;
+  }
+
+  /**
+   * Runs the report.
+   *
+   * @param args the commandline options
+   * @throws Exception if something goes wrong
+   */
+  public static void main(String [] args) throws Exception {
+
+    String file = Utils.getOption('t', args);
+    final MyJ48 j48 = new MyJ48();
+    j48.setReducedErrorPruning(Utils.getFlag('R', args));
+    j48.setUnpruned(Utils.getFlag('U', args));
+    String option = Utils.getOption('M', args);
+    if (option.length() != 0) {
+      j48.setMinNumObj(Integer.parseInt(option));
+    }
+
+    if (file.length() == 0) {
+      System.err.println("Usage: java J48.QuantizationReport -t file "
+			 + "[-R] [-U] [-M n]");
+      return;
+    }
+
+    Instances data = new DataSource(file).getDataSet();
+    if (data.classIndex() < 0) {
+      data.setClassIndex(data.numAttributes() - 1);
+    }
+    data.deleteWithMissingClass();
+
+    j48.buildClassifier(data);
+    j48.compact();
+    final CompiledTree compiled = j48.compile();
+    final QuantizedTree q16 = compiled.quantize(16);
+    final QuantizedTree q8 = compiled.quantize(8);
+    long full = MyJ48.serializedSize(j48);
+
+    System.out.println("Nodes: " + compiled.numNodes() + ", instances: "
+		       + data.numInstances());
+    report(new Form("MyJ48 (compacted)") {
+	double [] distribution(Instance instance) throws Exception {
+	  return j48.distributionForInstance(instance);
+	}
+	double classify(Instance instance) throws Exception {
+	  return j48.classifyInstance(instance);
+	}
+      }, full, full, j48, data);
+    report(new Form("Compiled") {
+	double [] distribution(Instance instance) {
+	  return compiled.distribution(instance);
+	}
+	double classify(Instance instance) {
+	  return compiled.classify(instance);
+	}
+      }, MyJ48.serializedSize(compiled), full, j48, data);
+    report(new Form("Compiled (float)") {
+	final CompiledTree m_float = compiled.toFloat();
+	double [] distribution(Instance instance) {
+	  return m_float.distribution(instance);
+	}
+	double classify(Instance instance) {
+	  return m_float.classify(instance);
+	}
+      }, MyJ48.serializedSize(compiled.toFloat()), full, j48, data);
+    report(new Form("Quantised (16 bit)") {
+	double [] distribution(Instance instance) {
+	  return q16.distribution(instance);
+	}
+	double classify(Instance instance) {
+	  return q16.classify(instance);
+	}
+      }, MyJ48.serializedSize(q16), full, j48, data);
+    report(new Form("Quantised (8 bit)") {
+	double [] distribution(Instance instance) {
+	  return q8.distribution(instance);
+	}
+	double classify(Instance instance) {
+	  return q8.classify(instance);
+	}
+      }, MyJ48.serializedSize(q8), full, j48, data);
+  }
+
+  /**
+   * Prints the size and parity of a form of the model.
+   */
+  private static void report(Form form, long size, long fullSize, MyJ48 j48,
+			     Instances data) throws Exception {
+
+    double correct = 0;
+    double total = 0;
+    int changed = 0;
+    double maxDiff = 0;
+
+    for (int i = 0; i < data.numInstances(); i++) {
+      Instance instance = data.instance(i);
+      double predicted = form.classify(instance);
+      if (predicted == instance.classValue()) {
+	correct += instance.weight();
+      }
+      total += instance.weight();
+      if (predicted != j48.classifyInstance(instance)) {
+	changed++;
+      }
+      double [] expected = j48.distributionForInstance(instance);
+      double [] actual = form.distribution(instance);
+      for (int j = 0; j < expected.length; j++) {
+	maxDiff = Math.max(maxDiff, Math.abs(expected[j] - actual[j]));
+      }
+    }
+    System.out.println(form.m_name + "\t" + size + " bytes ("
+		       + Utils.doubleToString((double) fullSize / size, 1)
+		       + "x smaller)\taccuracy "
+		       + Utils.doubleToString(100 * correct / Math.max(total, 1e-6),
+					      6, 2)
+		       + "%\tchanged predictions " + changed
+		       + "\tmax probability difference "
+		       + Utils.doubleToString(maxDiff, 6));
+  }
+}
@@ -0,0 +1,137 @@
+package J48;
+
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+
+/**
+ * Compares learning from a stream with MyHoeffdingTree, which is updated
+ * with every instance, against periodically retraining MyJ48 on all
+ * instances seen so far. Both are evaluated prequentially: each instance
+ * is classified before it is learned. Reports accuracy, training time and
+ * tree size.
+ * <p>
+ * Usage: java J48.StreamingBenchmark -t file [-retrain rows]
+ *
+ * @version $Revision$
+ */
+public class StreamingBenchmark {
+
+  /**
+   * Accuracy and time of one learner.
+   */
+  private static class Result {
+
+    /** Weight of correctly classified instances. */
+    double m_correct;
+
+    /** Weight of classified instances. */
+    double m_total;
+
+    /** Nanoseconds spent learning. */
+    long m_trainTime;
+
+    /** Nanoseconds spent classifying. */
+    long m_testTime;
+
+    /**
+     * Classifies an instance and records whether it was correct.
+     */
+    void test(Classifier classifier, Instance instance) throws Exception {
+
+      long start = System.nanoTime();
+      double predicted = classifier.classifyInstance(instance);
+      m_testTime += System.nanoTime() - start;
+      if (predicted == instance.classValue()) {
+	m_correct += instance.weight();
+      }
+      m_total += instance.weight();
+    }
+
+    /**
+     * Returns a line describing the result.
+     */
+    String toString(String name, double treeSize) {
+
+      return name + "\taccuracy " + Utils.doubleToString(
+	100 * m_correct / Math.max(m_total, 1e-6), 6, 2) + "%"
+	+ "\ttrain " + (m_trainTime / 1000000) + " ms"
+	+ "\ttest " + (m_testTime / 1000000) + " ms"
+	+ "\tnodes " + (int) treeSize;
+    }
+  }
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args the commandline options
+   * @throws Exception if something goes wrong
+   */
+  public static void main(String [] args) throws Exception {
+
+    String file = Utils.getOption('t', args);
+    String retrain = Utils.getOption("retrain", args);
+    int retrainEvery = (retrain.length() == 0) ? 1000
+      : Integer.parseInt(retrain);
+
+    if (file.length() == 0) {
+      System.err.println("Usage: java J48.StreamingBenchmark -t file "
+			 + "[-retrain rows]");
+      return;
+    }
+
+    DataSource source = new DataSource(file);
+    Instances structure = source.getStructure();
+    if (structure.classIndex() < 0) {
+      structure.setClassIndex(structure.numAttributes() - 1);
+    }
+
+    MyHoeffdingTree hoeffding = new MyHoeffdingTree();
+    hoeffding.buildClassifier(new Instances(structure, 0));
+    MyJ48 j48 = null;
+    Instances seen = new Instances(structure, 0);
+    Result hoeffdingResult = new Result();
+    Result j48Result = new Result();
+    int numRows = 0;
+    int numRetrains = 0;
+
+    while (source.hasMoreElements(structure)) {
+      Instance instance = source.nextElement(structure);
+      if (instance.classIsMissing()) {
+	continue;
+      }
+
+      // prequential evaluation: test first, then learn; both learners are
+      // only compared once the retrained tree exists
+      if (j48 != null) {
+	hoeffdingResult.test(hoeffding, instance);
+	j48Result.test(j48, instance);
+      }
+
+      long start = System.nanoTime();
+      hoeffding.updateClassifier(instance);
+      hoeffdingResult.m_trainTime += System.nanoTime() - start;
+
+      seen.add(instance);
+      numRows++;
+      if (numRows % retrainEvery == 0) {
+	start = System.nanoTime();
+	j48 = new MyJ48();
+	j48.buildClassifier(seen);
+	j48Result.m_trainTime += System.nanoTime() - start;
+	numRetrains++;
+      }
+    }
+
+    System.out.println("Rows: " + numRows + ", MyJ48 retrained every "
+		       + retrainEvery + " rows (" + numRetrains + " times)");
+    System.out.println(hoeffdingResult.toString("MyHoeffdingTree",
+						hoeffding.measureTreeSize()));
+    if (j48 != null) {
+      System.out.println(j48Result.toString("MyJ48 (retrained)",
+					    j48.measureTreeSize()));
+    }
+  }
+}
@@ -24,6 +24,7 @@ public class Main {
   static Instance unseenData = null;
   static Classifier classifier = null;
   static Boolean isModelLoaded = false;
+  static Boolean isModelTrained = false;
 
   Boolean isUseTestData = false;
 
@@ -68,6 +69,24 @@ public class Main {
       return new J48();
     }
 
+    if (modelType.equalsIgnoreCase("myid3")) {
+      return new MyID3();
+    }
+
+    if (modelType.equalsIgnoreCase("bagging")) {
+      String base = params.get("bagging-base") != null ? params.get("bagging-base").get(0) : "myid3";
+      // MyJ48 is built on the weka 3.6 API of the J48 package; its ensembles are built with J48.MyJ48Bagging
+      if (!base.equalsIgnoreCase("myid3") && !base.equalsIgnoreCase("id3") && !base.equalsIgnoreCase("j48")) {
+        throw new IllegalArgumentException("bagging-base must be myid3, id3 or j48 (weka's J48), not " + base
+          + "; MyJ48 trees are bagged with J48.MyJ48Bagging");
+      }
+      MyBagging bagging = new MyBagging();
+      bagging.setClassifier(loadModel(base));
+      bagging.setNumIterations(params.get("bagging-iterations") != null ? Integer.parseInt(params.get("bagging-iterations").get(0)) : 10);
+      bagging.setNumThreads(params.get("bagging-threads") != null ? Integer.parseInt(params.get("bagging-threads").get(0)) : 0);
+      return bagging;
+    }
+
     return new Id3();
   }
 
@@ -115,6 +134,7 @@ public class Main {
         System.out.println(evaluation.toMatrixString());
       }
     }
+    isModelTrained = true;
   }
 
   private static void saveModel() throws Exception {
@@ -168,6 +188,44 @@ public class Main {
     System.out.println("Class : " + classifier.classifyInstance(unseenData));
   }
 
+  private static void scoreBatch(String input, String output) throws Exception {
+    int threads = params.get("batch-threads") != null ? Integer.parseInt(params.get("batch-threads").get(0)) : Runtime.getRuntime().availableProcessors();
+    int chunkSize = params.get("batch-chunk") != null ? Integer.parseInt(params.get("batch-chunk").get(0)) : 4096;
+
+    long start = System.nanoTime();
+    long rows = new BatchScorer(classifier, threads, chunkSize).score(input, new File(output));
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    System.out.println("Scored " + rows + " rows in " + Utils.doubleToString(seconds, 3) + " s ("
+      + Utils.doubleToString(rows / Math.max(seconds, 1e-9), 0) + " rows/s) with " + threads + " threads");
+  }
+
+  private static void serve(int port) throws Exception {
+    Instances header = params.get("header") != null ? loadData(params.get("header").get(0)) : trainData;
+
+    // serve the model main loaded or trained, if any
+    if (params.get("load-model") != null) {
+      if (!isModelLoaded) {
+        classifier = loadModelFromExternal();
+        isModelLoaded = true;
+      }
+    } else if (!isModelTrained) {
+      classifier.buildClassifier(trainData);
+      isModelTrained = true;
+    }
+
+    ScoringServer server = new ScoringServer(header, classifier, port);
+    if (params.get("models") != null) {
+      long cacheBytes = (params.get("models-cache-mb") != null ? Long.parseLong(params.get("models-cache-mb").get(0)) : 256) << 20;
+      server.setRegistry(new ModelRegistry(ModelRegistry.directory(new File(params.get("models").get(0))), cacheBytes));
+    }
+    if (params.get("load-dir") != null) {
+      server.setModelDirectory(new File(params.get("load-dir").get(0)));
+    }
+    System.out.println("Serving on port " + server.getPort());
+    server.serve();
+  }
+
   public static void main(String[] args) throws Exception {
     getArgumentsList(args);
 
@@ -206,16 +264,21 @@ public class Main {
     }
 
     if (isUnseenDataArff) {
-      unseenData = loadUnseenData(params.get("unseen-data").get(0));
-
       if (isLoadModel) {
         classifier = loadModelFromExternal();
+        isModelLoaded = true;
       } else {
         classifier = loadModel(params.get("model") != null ? params.get("model").get(0) : "id3");
         classifier.buildClassifier(trainData);
+        isModelTrained = true;
       }
 
-      classifyUnseenData(classifier, unseenData);
+      if (params.get("batch-output") != null) {
+        scoreBatch(params.get("unseen-data").get(0), params.get("batch-output").get(0));
+      } else {
+        unseenData = loadUnseenData(params.get("unseen-data").get(0));
+        classifyUnseenData(classifier, unseenData);
+      }
     } else {
       classifier = loadModel(params.get("model") != null ? params.get("model").get(0) : "id3");
       testModel();
@@ -224,5 +287,9 @@ public class Main {
     if (isSaveModel) {
       saveModel();
     }
+
+    if (params.get("serve") != null) {
+      serve(Integer.parseInt(params.get("serve").get(0)));
+    }
   }
 }
\ No newline at end of file
@@ -0,0 +1,311 @@
+import java.io.*;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import weka.core.Utils;
+
+import J48.Classifier.CompiledTree;
+
+/**
+ * Keeps compiled trees of many models, e.g. one per tenant, loading them
+ * from a store when first asked for and evicting the least recently used
+ * ones when their estimated heap size (CompiledTree.heapSize()) exceeds a
+ * bound. A store holds serialized models by key: compiled trees (e.g.
+ * from MyJ48.compile()), or MyID3 and Id3 classifiers, which are compiled
+ * as they are loaded.
+ *
+ * Threads asking for a model that is being loaded wait for that load
+ * instead of starting their own. The registry counts hits, misses, loads,
+ * failed loads and evictions.
+ */
+public class ModelRegistry {
+
+  /**
+   * Where serialized models are read from.
+   */
+  public interface Store {
+
+    /**
+     * Opens the serialized model of a key.
+     *
+     * @param key the key
+     * @return the stream to read the model from
+     * @throws FileNotFoundException if there is no model for the key
+     * @throws IOException if the model can't be read
+     */
+    InputStream open(String key) throws IOException;
+  }
+
+  /**
+   * Returns a store reading the model of key k from the file k.model in a
+   * directory. Keys may only hold letters, digits, '.', '_' and '-', and
+   * may not start with '.'.
+   *
+   * @param directory the directory
+   * @return the store
+   */
+  public static Store directory(final File directory) {
+    return key -> {
+      if (!key.matches("[A-Za-z0-9_\\-][A-Za-z0-9._\\-]*")) {
+        throw new FileNotFoundException("invalid model key " + key);
+      }
+      return new FileInputStream(new File(directory, key + ".model"));
+    };
+  }
+
+  /** A cached model. */
+  private static final class Entry {
+
+    /** The compiled tree. */
+    final CompiledTree tree;
+
+    /** Its estimated heap size in bytes. */
+    final long bytes;
+
+    Entry(CompiledTree tree) {
+      this.tree = tree;
+      this.bytes = tree.heapSize();
+    }
+  }
+
+  /** The store models are loaded from. */
+  private final Store m_store;
+
+  /** The largest total size of the cached models in bytes. */
+  private final long m_maxBytes;
+
+  /** The cached models, least recently used first (guarded by itself). */
+  private final LinkedHashMap<String, Entry> m_cache =
+    new LinkedHashMap<>(16, 0.75f, true);
+
+  /** The total size of the cached models (guarded by m_cache). */
+  private long m_bytes;
+
+  /** The loads in progress. */
+  private final ConcurrentHashMap<String, CompletableFuture<CompiledTree>> m_loading =
+    new ConcurrentHashMap<>();
+
+  /** Number of requests served from the cache. */
+  private final LongAdder m_hits = new LongAdder();
+
+  /** Number of requests not served from the cache. */
+  private final LongAdder m_misses = new LongAdder();
+
+  /** Number of models loaded from the store. */
+  private final LongAdder m_loads = new LongAdder();
+
+  /** Number of loads that failed. */
+  private final LongAdder m_failedLoads = new LongAdder();
+
+  /** Number of models evicted. */
+  private final LongAdder m_evictions = new LongAdder();
+
+  /** Time spent in successful loads, in nanoseconds. */
+  private final LongAdder m_loadNanos = new LongAdder();
+
+  /**
+   * Creates a registry.
+   *
+   * @param store the store to load models from
+   * @param maxBytes the largest total estimated heap size of the cached
+   * models
+   */
+  public ModelRegistry(Store store, long maxBytes) {
+    m_store = store;
+    m_maxBytes = maxBytes;
+  }
+
+  /**
+   * Returns the compiled tree of a model, loading it if it isn't cached.
+   *
+   * @param key the key of the model
+   * @return the compiled tree
+   * @throws IOException if the model can't be loaded or compiled
+   */
+  public CompiledTree get(String key) throws IOException {
+    CompiledTree tree = cached(key);
+    if (tree != null) {
+      m_hits.increment();
+      return tree;
+    }
+    m_misses.increment();
+
+    CompletableFuture<CompiledTree> future = new CompletableFuture<>();
+    CompletableFuture<CompiledTree> loading = m_loading.putIfAbsent(key, future);
+    if (loading != null) {
+      return await(loading);
+    }
+    try {
+      // a load may have finished since the cache was checked
+      tree = cached(key);
+      if (tree == null) {
+        tree = load(key);
+        put(key, tree);
+      }
+      future.complete(tree);
+      return tree;
+    } catch (IOException | RuntimeException e) {
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      m_loading.remove(key, future);
+    }
+  }
+
+  /**
+   * Removes a model from the cache, so the next get() loads it again.
+   *
+   * @param key the key of the model
+   */
+  public void invalidate(String key) {
+    synchronized (m_cache) {
+      Entry entry = m_cache.remove(key);
+      if (entry != null) {
+        m_bytes -= entry.bytes;
+      }
+    }
+  }
+
+  /**
+   * Returns a cached model and marks it as used, or null.
+   */
+  private CompiledTree cached(String key) {
+    synchronized (m_cache) {
+      Entry entry = m_cache.get(key);
+      return (entry == null) ? null : entry.tree;
+    }
+  }
+
+  /**
+   * Caches a model, evicting the least recently used ones to make room.
+   * Models larger than the whole cache are not cached.
+   */
+  private void put(String key, CompiledTree tree) {
+    Entry entry = new Entry(tree);
+    if (entry.bytes > m_maxBytes) {
+      return;
+    }
+    synchronized (m_cache) {
+      Entry old = m_cache.put(key, entry);
+      m_bytes += entry.bytes - ((old == null) ? 0 : old.bytes);
+      Iterator<Map.Entry<String, Entry>> eldest = m_cache.entrySet().iterator();
+      while (m_bytes > m_maxBytes) {
+        Entry evicted = eldest.next().getValue();
+        eldest.remove();
+        m_bytes -= evicted.bytes;
+        m_evictions.increment();
+      }
+    }
+  }
+
+  /**
+   * Waits for a load started by another thread.
+   */
+  private static CompiledTree await(CompletableFuture<CompiledTree> loading)
+    throws IOException {
+    try {
+      return loading.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted waiting for a model");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Loads and compiles a model from the store.
+   */
+  private CompiledTree load(String key) throws IOException {
+    long start = System.nanoTime();
+    m_loads.increment();
+    try (ObjectInputStream ois = new ObjectInputStream(
+           new BufferedInputStream(m_store.open(key)))) {
+      CompiledTree tree = compile(ois.readObject());
+      m_loadNanos.add(System.nanoTime() - start);
+      return tree;
+    } catch (IOException e) {
+      m_failedLoads.increment();
+      throw e;
+    } catch (Exception e) {
+      m_failedLoads.increment();
+      throw new IOException("can't load model " + key + ": " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Returns the compiled tree of a deserialized model.
+   */
+  private static CompiledTree compile(Object model) throws Exception {
+    if (model instanceof CompiledTree) {
+      return (CompiledTree) model;
+    }
+    if (model instanceof AbstractId3) {
+      return ((AbstractId3) model).compile();
+    }
+    throw new Exception(model.getClass().getName() + " can't be compiled");
+  }
+
+  /** Returns the number of requests served from the cache. */
+  public long hits() {
+    return m_hits.sum();
+  }
+
+  /** Returns the number of requests not served from the cache. */
+  public long misses() {
+    return m_misses.sum();
+  }
+
+  /** Returns the number of models loaded from the store. */
+  public long loads() {
+    return m_loads.sum();
+  }
+
+  /** Returns the number of loads that failed. */
+  public long failedLoads() {
+    return m_failedLoads.sum();
+  }
+
+  /** Returns the number of models evicted from the cache. */
+  public long evictions() {
+    return m_evictions.sum();
+  }
+
+  /** Returns the number of cached models. */
+  public int size() {
+    synchronized (m_cache) {
+      return m_cache.size();
+    }
+  }
+
+  /** Returns the total estimated heap size of the cached models. */
+  public long bytes() {
+    synchronized (m_cache) {
+      return m_bytes;
+    }
+  }
+
+  /**
+   * Returns the counters on one line.
+   */
+  @Override
+  public String toString() {
+    long hits = hits();
+    long requests = hits + misses();
+    long loads = loads() - failedLoads();
+    return "models " + size() + ", bytes " + bytes() + "/" + m_maxBytes
+      + ", hits " + hits + ", misses " + misses()
+      + ", hit ratio " + ((requests == 0) ? "-" : Utils.doubleToString((double) hits / requests, 3))
+      + ", loads " + loads() + ", failed " + failedLoads()
+      + ", evictions " + evictions()
+      + ", mean load " + ((loads <= 0) ? "-" : Utils.doubleToString(m_loadNanos.sum() / 1e6 / loads, 2) + " ms");
+  }
+}
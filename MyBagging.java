@@ -0,0 +1,186 @@
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.WeightedInstancesHandler;
+
+import J48.Classifier.BootstrapSample;
+import J48.Classifier.ParallelBagging;
+
+public class MyBagging extends AbstractClassifier {
+
+  /** for serialization */
+  private static final long serialVersionUID = -3516542091260812974L;
+
+  /** The base classifier (MyID3, Id3 or weka's J48; MyJ48 trees, built
+      on the weka 3.6 API, are bagged by J48.MyJ48Bagging). */
+  private Classifier m_Classifier = new MyID3();
+
+  /** The members of the ensemble. */
+  private Classifier[] m_Members;
+
+  /** Number of members. */
+  private int m_NumIterations = 10;
+
+  /** Maximum number of members trained at the same time (0 = one per core). */
+  private int m_NumThreads = 0;
+
+  /** Seed for the bootstrap samples. */
+  private int m_Seed = 1;
+
+  /**
+   * Builds the ensemble. All members are trained on bootstrap samples of
+   * the same dataset: a sample is a vector of draw counts, and only the
+   * members currently being trained hold a view over the shared rows.
+   * Learners that handle instance weights see each drawn row once with its
+   * count as weight, the others see it repeated.
+   *
+   * @param data the training data
+   * @exception Exception if classifier can't be built successfully
+   */
+  public void buildClassifier(Instances data) throws Exception {
+
+    // remove instances with missing class once for all members
+    final Instances shared = new Instances(data);
+    shared.deleteWithMissingClass();
+
+    final boolean weighted = m_Classifier instanceof WeightedInstancesHandler;
+    m_Members = AbstractClassifier.makeCopies(m_Classifier, m_NumIterations);
+
+    ParallelBagging.train(shared.numInstances(), m_NumIterations, m_NumThreads, m_Seed,
+      (member, sample) -> m_Members[member].buildClassifier(view(shared, sample, weighted)));
+  }
+
+  /**
+   * Returns the rows of a bootstrap sample. Learners that handle instance
+   * weights get every drawn row once with its count as weight, the others
+   * get it repeated. The rows share their attribute values with the given
+   * dataset, which is not modified. (BootstrapSample's own views are built
+   * on the weka 3.6 API of the J48 package.)
+   *
+   * @param data the shared dataset the sample was drawn from
+   * @param sample the sample
+   * @param weighted whether to weight the rows instead of repeating them
+   * @return the rows of the sample
+   */
+  private static Instances view(Instances data, BootstrapSample sample, boolean weighted) {
+    Instances view = new Instances(data, weighted ? sample.numDistinct() : data.numInstances());
+
+    for (int i = 0; i < data.numInstances(); i++) {
+      int count = sample.count(i);
+      if (weighted && count > 0) {
+        view.add(data.instance(i));
+        view.lastInstance().setWeight(count * data.instance(i).weight());
+      } else {
+        for (int j = 0; j < count; j++) {
+          view.add(data.instance(i));
+        }
+      }
+    }
+    return view;
+  }
+
+  /**
+   * Computes class distribution for instance by averaging the members'
+   * distributions.
+   *
+   * @param instance the instance for which distribution is to be computed
+   * @return the class distribution for the given instance
+   * @throws Exception if a member fails to compute its distribution
+   */
+  public double[] distributionForInstance(Instance instance) throws Exception {
+
+    return ParallelBagging.vote(m_Members.length, instance.numClasses(),
+      member -> m_Members[member].distributionForInstance(instance));
+  }
+
+  /**
+   * Gets the base classifier.
+   *
+   * @return the base classifier
+   */
+  public Classifier getClassifier() {
+    return m_Classifier;
+  }
+
+  /**
+   * Sets the base classifier.
+   *
+   * @param classifier the base classifier
+   */
+  public void setClassifier(Classifier classifier) {
+    m_Classifier = classifier;
+  }
+
+  /**
+   * Gets the number of members.
+   *
+   * @return the number of members
+   */
+  public int getNumIterations() {
+    return m_NumIterations;
+  }
+
+  /**
+   * Sets the number of members.
+   *
+   * @param numIterations the number of members
+   */
+  public void setNumIterations(int numIterations) {
+    m_NumIterations = numIterations;
+  }
+
+  /**
+   * Gets the maximum number of members trained at the same time.
+   *
+   * @return the number of threads
+   */
+  public int getNumThreads() {
+    return m_NumThreads;
+  }
+
+  /**
+   * Sets the maximum number of members trained at the same time (0 = one
+   * per core).
+   *
+   * @param numThreads the number of threads
+   */
+  public void setNumThreads(int numThreads) {
+    m_NumThreads = numThreads;
+  }
+
+  /**
+   * Gets the seed for the bootstrap samples.
+   *
+   * @return the seed
+   */
+  public int getSeed() {
+    return m_Seed;
+  }
+
+  /**
+   * Sets the seed for the bootstrap samples.
+   *
+   * @param seed the seed
+   */
+  public void setSeed(int seed) {
+    m_Seed = seed;
+  }
+
+  /**
+   * Prints the members of the ensemble.
+   *
+   * @return a textual description of the classifier
+   */
+  public String toString() {
+
+    if (m_Members == null) {
+      return "MyBagging: No model built yet.";
+    }
+    StringBuffer text = new StringBuffer("MyBagging\n\n");
+    for (int i = 0; i < m_Members.length; i++) {
+      text.append(m_Members[i].toString() + "\n\n");
+    }
+    return text.toString();
+  }
+}
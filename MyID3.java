@@ -1,28 +1,14 @@
-import weka.classifiers.AbstractClassifier;
-import weka.classifiers.Classifier;
 import weka.core.Attribute;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Utils;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.Enumeration;
 
-public class MyID3 extends AbstractClassifier {
-
-  /** The node's successors. */
-  private MyID3[] m_Successors;
-
-  /** Attribute used for splitting. */
-  private Attribute m_Attribute;
-
-  /** Class value if node is leaf. */
-  private double m_ClassValue;
-
-  /** Class distribution if node is leaf. */
-  private double[] m_Distribution;
-
-  /** Class attribute of dataset. */
-  private Attribute m_ClassAttribute;
+public class MyID3 extends AbstractId3 {
 
   /**
    * Builds MyID3 decision tree classifier.
@@ -52,93 +38,17 @@ public class MyID3 extends AbstractClassifier {
       }
     }
 
-    // remove instances with missing class
-    data = new Instances(data);
-    data.deleteWithMissingClass();
-
-    makeTree(data);
-  }
-
-  /**
-   * Method for building an MyID3 tree.
-   *
-   * @param data the training data
-   * @exception Exception if decision tree can't be built successfully
-   */
-  private void makeTree(Instances data) throws Exception {
-
-    // Check if no instances have reached this node.
-    if (data.numInstances() == 0) {
-      m_Attribute = null;
-      m_ClassValue = Utils.missingValue();
-      m_Distribution = new double[data.numClasses()];
-      return;
-    }
-
-    // Compute attribute with maximum information gain.
-    double[] infoGains = new double[data.numAttributes()];
-    Enumeration attEnum = data.enumerateAttributes();
-    while (attEnum.hasMoreElements()) {
-      Attribute att = (Attribute) attEnum.nextElement();
-      infoGains[att.index()] = computeInfoGain(data, att);
-    }
-    m_Attribute = data.attribute(Utils.maxIndex(infoGains));
-
-    // Make leaf if information gain is zero.
-    // Otherwise create successors.
-    if (Utils.eq(infoGains[m_Attribute.index()], 0)) {
-      m_Attribute = null;
-      m_Distribution = new double[data.numClasses()];
-      Enumeration instEnum = data.enumerateInstances();
-      while (instEnum.hasMoreElements()) {
-        Instance inst = (Instance) instEnum.nextElement();
-        m_Distribution[(int) inst.classValue()]++;
-      }
-      Utils.normalize(m_Distribution);
-      m_ClassValue = Utils.maxIndex(m_Distribution);
-      m_ClassAttribute = data.classAttribute();
-    } else {
-      Instances[] splitData = splitData(data, m_Attribute);
-      m_Successors = new MyID3[m_Attribute.numValues()];
-      for (int j = 0; j < m_Attribute.numValues(); j++) {
-        m_Successors[j] = new MyID3();
-        m_Successors[j].makeTree(splitData[j]);
-      }
-    }
+    buildTree(data);
   }
 
   /**
-   * Classifies a given test instance using the decision tree.
+   * Returns a new, empty node.
    *
-   * @param instance the instance to be classified
-   * @return the classification
+   * @return the node
    */
-  public double classifyInstance(Instance instance)
-  {
+  protected AbstractId3 newNode() {
 
-    if (m_Attribute == null) {
-      return m_ClassValue;
-    } else {
-      return m_Successors[(int) instance.value(m_Attribute)].
-        classifyInstance(instance);
-    }
-  }
-
-  /**
-   * Computes class distribution for instance using decision tree.
-   *
-   * @param instance the instance for which distribution is to be computed
-   * @return the class distribution for the given instance
-   */
-  public double[] distributionForInstance(Instance instance)
-  {
-
-    if (m_Attribute == null) {
-      return m_Distribution;
-    } else {
-      return m_Successors[(int) instance.value(m_Attribute)].
-        distributionForInstance(instance);
-    }
+    return new MyID3();
   }
 
   /**
@@ -148,110 +58,62 @@ public class MyID3 extends AbstractClassifier {
    */
   public String toString() {
 
-    if ((m_Distribution == null) && (m_Successors == null)) {
-      return "MyID3: No model built yet.";
-    }
-    return "MyID3\n\n" + toString(0);
-  }
+    StringWriter text = new StringWriter();
 
-  /**
-   * Computes information gain for an attribute.
-   *
-   * @param data the data for which info gain is to be computed
-   * @param att the attribute
-   * @return the information gain for the given attribute and data
-   * @throws Exception if computation fails
-   */
-  private double computeInfoGain(Instances data, Attribute att)
-    throws Exception {
-
-    double infoGain = computeEntropy(data);
-    Instances[] splitData = splitData(data, att);
-    for (int j = 0; j < att.numValues(); j++) {
-      if (splitData[j].numInstances() > 0) {
-        infoGain -= ((double) splitData[j].numInstances() /
-                     (double) data.numInstances()) *
-          computeEntropy(splitData[j]);
-      }
+    try {
+      writeTree(text, 0);
+    } catch (IOException e) {
+      // a StringWriter doesn't fail
     }
-    return infoGain;
-  }
-
-  /**
-   * Computes the entropy of a dataset.
-   *
-   * @param data the data for which entropy is to be computed
-   * @return the entropy of the data's class distribution
-   * @throws Exception if computation fails
-   */
-  private double computeEntropy(Instances data) throws Exception {
-
-    double [] classCounts = new double[data.numClasses()];
-    Enumeration instEnum = data.enumerateInstances();
-    while (instEnum.hasMoreElements()) {
-      Instance inst = (Instance) instEnum.nextElement();
-      classCounts[(int) inst.classValue()]++;
-    }
-    double entropy = 0;
-    for (int j = 0; j < data.numClasses(); j++) {
-      if (classCounts[j] > 0) {
-        entropy -= classCounts[j] * Utils.log2(classCounts[j]);
-      }
-    }
-    entropy /= (double) data.numInstances();
-    return entropy + Utils.log2(data.numInstances());
+    return text.toString();
   }
 
   /**
-   * Splits a dataset according to the values of a nominal attribute.
+   * Writes the tree to a writer as it is printed, node by node, down to
+   * the given depth. Deeper subtrees are replaced by their size.
    *
-   * @param data the data which is to be split
-   * @param att the attribute to be used for splitting
-   * @return the sets of instances produced by the split
+   * @param out the writer to write to
+   * @param maxDepth the number of levels of tests to write (0 for all)
+   * @throws IOException if writing fails
    */
-  private Instances[] splitData(Instances data, Attribute att) {
+  public void writeTree(Writer out, int maxDepth) throws IOException {
 
-    Instances[] splitData = new Instances[att.numValues()];
-    for (int j = 0; j < att.numValues(); j++) {
-      splitData[j] = new Instances(data, data.numInstances());
-    }
-    Enumeration instEnum = data.enumerateInstances();
-    while (instEnum.hasMoreElements()) {
-      Instance inst = (Instance) instEnum.nextElement();
-      splitData[(int) inst.value(att)].add(inst);
-    }
-    for (int i = 0; i < splitData.length; i++) {
-      splitData[i].compactify();
+    if ((m_Distribution == null) && (m_Successors == null)) {
+      out.write("MyID3: No model built yet.");
+      return;
     }
-    return splitData;
+    out.write("MyID3\n\n");
+    writeTree(out, 0, maxDepth);
   }
 
   /**
-   * Outputs a tree at a certain level.
+   * Writes a tree at a certain level.
    *
+   * @param out the writer to write to
    * @param level the level at which the tree is to be printed
-   * @return the tree as string at the given level
+   * @param maxDepth the number of levels of tests to write (0 for all)
+   * @throws IOException if writing fails
    */
-  private String toString(int level) {
-
-    StringBuffer text = new StringBuffer();
+  private void writeTree(Writer out, int level, int maxDepth)
+    throws IOException {
 
     if (m_Attribute == null) {
       if (Utils.isMissingValue(m_ClassValue)) {
-        text.append(": null");
+        out.write(": null");
       } else {
-        text.append(": " + m_ClassAttribute.value((int) m_ClassValue));
+        out.write(": " + m_ClassAttribute.value((int) m_ClassValue));
       }
+    } else if ((maxDepth > 0) && (level >= maxDepth)) {
+      out.write(": ... [" + numNodes() + " nodes]");
     } else {
       for (int j = 0; j < m_Attribute.numValues(); j++) {
-        text.append("\n");
+        out.write("\n");
         for (int i = 0; i < level; i++) {
-          text.append("|  ");
+          out.write("|  ");
         }
-        text.append(m_Attribute.name() + " = " + m_Attribute.value(j));
-        text.append(m_Successors[j].toString(level + 1));
+        out.write(m_Attribute.name() + " = " + m_Attribute.value(j));
+        ((MyID3) m_Successors[j]).writeTree(out, level + 1, maxDepth);
       }
     }
-    return text.toString();
   }
 }
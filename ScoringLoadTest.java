@@ -0,0 +1,113 @@
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Load test client for ScoringServer. Opens a number of connections, each
+ * sending the rows of a data file in turn and waiting for every reply, and
+ * reports the latency percentiles and throughput over all requests.
+ *
+ * Options: -host name (default localhost), -port number, -data file,
+ * -connections number (default 4), -requests number per connection
+ * (default 10000).
+ */
+public class ScoringLoadTest {
+
+  public static void main(String[] args) throws Exception {
+    String host = Utils.getOption("host", args);
+    int port = Integer.parseInt(Utils.getOption("port", args));
+    String dataFile = Utils.getOption("data", args);
+    String option = Utils.getOption("connections", args);
+    int numConnections = (option.length() > 0) ? Integer.parseInt(option) : 4;
+    option = Utils.getOption("requests", args);
+    int numRequests = (option.length() > 0) ? Integer.parseInt(option) : 10000;
+    if (host.length() == 0) {
+      host = "localhost";
+    }
+
+    Instances data = new DataSource(dataFile).getDataSet();
+    List<String> lines = new ArrayList<>(data.numInstances());
+    for (Instance instance : data) {
+      lines.add(instance.toString());
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(numConnections);
+    List<Future<long[]>> results = new ArrayList<>();
+    final String serverHost = host;
+    long start = System.nanoTime();
+    for (int c = 0; c < numConnections; c++) {
+      final int offset = c;
+      results.add(pool.submit(() -> run(serverHost, port, lines, offset,
+                                         numRequests)));
+    }
+    long[] latencies = new long[numConnections * numRequests];
+    int numErrors = 0;
+    for (int c = 0; c < numConnections; c++) {
+      long[] result = results.get(c).get();
+      System.arraycopy(result, 0, latencies, c * numRequests, numRequests);
+      numErrors += (int) result[numRequests];
+    }
+    long elapsed = System.nanoTime() - start;
+    pool.shutdown();
+
+    Arrays.sort(latencies);
+    System.out.println("Requests:   " + latencies.length + " over "
+                       + numConnections + " connections, " + numErrors
+                       + " errors");
+    System.out.println("Throughput: " + Utils.doubleToString(
+                         latencies.length / (elapsed / 1e9), 1) + " requests/s");
+    System.out.println("p50:        " + micros(percentile(latencies, 0.50)) + " us");
+    System.out.println("p99:        " + micros(percentile(latencies, 0.99)) + " us");
+    System.out.println("max:        " + micros(latencies[latencies.length - 1]) + " us");
+  }
+
+  /**
+   * Sends requests over one connection and returns their latencies in
+   * nanoseconds, followed by the number of error replies.
+   */
+  private static long[] run(String host, int port, List<String> lines,
+                            int offset, int numRequests) throws IOException {
+    long[] result = new long[numRequests + 1];
+
+    try (Socket socket = new Socket(host, port);
+         BufferedReader in = new BufferedReader(
+           new InputStreamReader(socket.getInputStream(), "UTF-8"));
+         PrintWriter out = new PrintWriter(new BufferedWriter(
+           new OutputStreamWriter(socket.getOutputStream(), "UTF-8")))) {
+      socket.setTcpNoDelay(true);
+      for (int i = 0; i < numRequests; i++) {
+        String line = lines.get((offset + i) % lines.size());
+        long start = System.nanoTime();
+        out.println(line);
+        out.flush();
+        String reply = in.readLine();
+        result[i] = System.nanoTime() - start;
+        if (reply == null) {
+          throw new EOFException("server closed the connection");
+        }
+        if (reply.startsWith("ERR")) {
+          result[numRequests]++;
+        }
+      }
+      out.println("QUIT");
+      out.flush();
+    }
+    return result;
+  }
+
+  private static long percentile(long[] sorted, double p) {
+    return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+  }
+
+  private static String micros(long nanos) {
+    return Utils.doubleToString(nanos / 1e3, 1);
+  }
+}
@@ -0,0 +1,438 @@
+import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import J48.Classifier.CompiledTree;
+
+/**
+ * Serves predictions of a trained model over a line protocol on a local
+ * port. Each request line holds the attribute values of one row, comma
+ * separated and in the order of the training header, with '?' for missing
+ * values; the class value may be left out. The reply is the predicted
+ * class, or "ERR" and a message. "LOAD key" replaces the model with the
+ * classifier serialized to key.model in the server's model directory (see
+ * setModelDirectory(); without one, LOAD is refused) and "QUIT" closes the
+ * connection.
+ *
+ * If the server has a model registry, "USE key" makes the connection
+ * score its rows against the registry's model of that key instead, until
+ * a plain "USE" switches back, and "STATS" replies with the counters of
+ * the registry. All models are read against the same header. Rows of
+ * registry models are scored on the connection's thread, one at a time.
+ *
+ * Connections are served by a pool of threads, which hand their rows to a
+ * single scoring thread. It scores whatever rows are waiting as one batch
+ * against the model current at that time, so requests arriving together
+ * share a tree traversal and never wait on a lock to read the model; a
+ * replaced model is picked up from the next batch.
+ */
+public class ScoringServer implements Closeable {
+
+  /** The largest number of rows scored as one batch. */
+  private static final int MAX_BATCH_SIZE = 256;
+
+  /**
+   * A trained model with the header its rows are read against. Trees that
+   * can be compiled are scored in compiled form.
+   */
+  static final class Model {
+
+    /** The header of the training data. */
+    final Instances header;
+
+    /** The classifier. */
+    final Classifier classifier;
+
+    /** The compiled tree, or null if the classifier has none. */
+    final CompiledTree tree;
+
+    Model(Instances header, Classifier classifier) {
+      this.header = header;
+      this.classifier = classifier;
+      if (classifier instanceof AbstractId3) {
+        tree = ((AbstractId3) classifier).compile();
+      } else {
+        tree = null;
+      }
+    }
+
+    /**
+     * Classifies one row.
+     */
+    double classify(double[] values) throws Exception {
+      if (tree != null) {
+        return tree.classify(values);
+      }
+      Instance instance = new DenseInstance(1, values);
+      instance.setDataset(header);
+      return classifier.classifyInstance(instance);
+    }
+
+    /**
+     * Classifies a batch of rows.
+     */
+    double[] classify(double[][] rows, int numRows) throws Exception {
+      if (tree != null) {
+        return tree.classify(rows, numRows);
+      }
+      double[] classValues = new double[numRows];
+      for (int i = 0; i < numRows; i++) {
+        classValues[i] = classify(rows[i]);
+      }
+      return classValues;
+    }
+
+    /**
+     * Returns the class distribution of one row.
+     */
+    double[] distribution(Instance instance) throws Exception {
+      if (tree != null) {
+        return tree.distribution(instance.toDoubleArray());
+      }
+      return classifier.distributionForInstance(instance);
+    }
+  }
+
+  /**
+   * A row waiting to be scored.
+   */
+  private static final class Request {
+
+    /** The attribute values of the row. */
+    final double[] values;
+
+    /** The reply. */
+    final CompletableFuture<String> reply = new CompletableFuture<>();
+
+    Request(double[] values) {
+      this.values = values;
+    }
+  }
+
+  /** The model rows are scored against. */
+  private final AtomicReference<Model> m_model;
+
+  /** The rows waiting to be scored. */
+  private final BlockingQueue<Request> m_queue = new LinkedBlockingQueue<>();
+
+  /** The threads serving connections. */
+  private final ExecutorService m_connections;
+
+  /** The thread scoring rows. */
+  private final Thread m_scorer;
+
+  /** The server socket. */
+  private final ServerSocket m_socket;
+
+  /** The registry of per-key models, or null. */
+  private volatile ModelRegistry m_registry;
+
+  /** The store LOAD reads models from, or null to refuse LOAD. */
+  private volatile ModelRegistry.Store m_loadStore;
+
+  /**
+   * Creates a server for a model, listening on a port of this host.
+   *
+   * @param header the header of the training data
+   * @param classifier the trained classifier
+   * @param port the port, or 0 for any free port
+   * @throws IOException if the port can't be opened
+   */
+  public ScoringServer(Instances header, Classifier classifier, int port)
+    throws IOException {
+
+    m_model = new AtomicReference<>(new Model(new Instances(header, 0),
+                                              classifier));
+    m_socket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+    m_connections = Executors.newCachedThreadPool(r -> {
+      Thread thread = new Thread(r, "scoring-connection");
+      thread.setDaemon(true);
+      return thread;
+    });
+    m_scorer = new Thread(this::score, "scoring-batcher");
+    m_scorer.setDaemon(true);
+  }
+
+  /**
+   * Returns the port the server listens on.
+   */
+  public int getPort() {
+    return m_socket.getLocalPort();
+  }
+
+  /**
+   * Replaces the model. Rows already taken into a batch are scored against
+   * the old model.
+   *
+   * @param classifier the new classifier, trained on data with the same
+   * header
+   */
+  public void setClassifier(Classifier classifier) {
+    m_model.set(new Model(m_model.get().header, classifier));
+  }
+
+  /**
+   * Sets the registry connections can take models from with "USE key".
+   *
+   * @param registry the registry, or null for none
+   */
+  public void setRegistry(ModelRegistry registry) {
+    m_registry = registry;
+  }
+
+  /**
+   * Sets the directory "LOAD key" reads the model key.model from. Keys are
+   * checked as in ModelRegistry.directory(), so clients can't read files
+   * outside it.
+   *
+   * @param directory the directory, or null to refuse LOAD
+   */
+  public void setModelDirectory(File directory) {
+    m_loadStore = (directory == null) ? null : ModelRegistry.directory(directory);
+  }
+
+  /**
+   * Accepts connections until the server is closed.
+   *
+   * @throws IOException if accepting fails other than by closing
+   */
+  public void serve() throws IOException {
+    m_scorer.start();
+    try {
+      while (true) {
+        Socket socket = m_socket.accept();
+        m_connections.execute(() -> handle(socket));
+      }
+    } catch (IOException e) {
+      if (!m_socket.isClosed()) {
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Stops accepting connections and scoring rows.
+   */
+  @Override
+  public void close() throws IOException {
+    m_socket.close();
+    m_connections.shutdownNow();
+    m_scorer.interrupt();
+  }
+
+  /**
+   * Serves the requests of one connection.
+   */
+  private void handle(Socket socket) {
+    try (Socket s = socket;
+         BufferedReader in = new BufferedReader(
+           new InputStreamReader(s.getInputStream(), "UTF-8"));
+         PrintWriter out = new PrintWriter(new BufferedWriter(
+           new OutputStreamWriter(s.getOutputStream(), "UTF-8")))) {
+      s.setTcpNoDelay(true);
+      String line;
+      String key = null;
+      while ((line = in.readLine()) != null) {
+        line = line.trim();
+        if (line.equals("QUIT")) {
+          break;
+        }
+        if (line.equals("USE") || line.startsWith("USE ")) {
+          String requested = line.substring(3).trim();
+          String reply = use(requested.isEmpty() ? null : requested);
+          if (reply.equals("OK")) {
+            key = requested.isEmpty() ? null : requested;
+          }
+          out.println(reply);
+        } else if (key != null) {
+          out.println(reply(line, key));
+        } else {
+          out.println(reply(line));
+        }
+        out.flush();
+      }
+    } catch (IOException e) {
+      // the client went away
+    }
+  }
+
+  /**
+   * Returns the reply to switching a connection to the model of a key, or
+   * back to the server's model if the key is null.
+   */
+  private String use(String key) {
+    if (key == null) {
+      return "OK";
+    }
+    if (m_registry == null) {
+      return "ERR no model registry";
+    }
+    try {
+      m_registry.get(key);
+      return "OK";
+    } catch (IOException e) {
+      return "ERR " + e.getMessage();
+    }
+  }
+
+  /**
+   * Returns the reply to a request line of a connection using the
+   * registry's model of a key.
+   */
+  private String reply(String line, String key) {
+    if (line.equals("STATS")) {
+      return m_registry.toString();
+    }
+    Instances header = m_model.get().header;
+    try {
+      return format(header, m_registry.get(key).classify(parse(line, header)));
+    } catch (Exception e) {
+      return "ERR " + e.getMessage();
+    }
+  }
+
+  /**
+   * Returns the reply to a request line.
+   */
+  private String reply(String line) {
+    if (line.equals("STATS")) {
+      return (m_registry == null) ? "ERR no model registry" : m_registry.toString();
+    }
+    if (line.startsWith("LOAD ")) {
+      ModelRegistry.Store store = m_loadStore;
+      if (store == null) {
+        return "ERR no model directory";
+      }
+      try (ObjectInputStream ois = new ObjectInputStream(
+             new BufferedInputStream(store.open(line.substring(5).trim())))) {
+        setClassifier((Classifier) ois.readObject());
+        return "OK";
+      } catch (Exception e) {
+        return "ERR " + e.getMessage();
+      }
+    }
+    Request request;
+    try {
+      request = new Request(parse(line, m_model.get().header));
+    } catch (Exception e) {
+      return "ERR " + e.getMessage();
+    }
+    m_queue.add(request);
+    try {
+      return request.reply.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return "ERR interrupted";
+    } catch (ExecutionException e) {
+      return "ERR " + e.getCause().getMessage();
+    }
+  }
+
+  /**
+   * Scores waiting rows in batches until interrupted.
+   */
+  private void score() {
+    List<Request> batch = new ArrayList<>(MAX_BATCH_SIZE);
+    double[][] rows = new double[MAX_BATCH_SIZE][];
+
+    try {
+      while (true) {
+        batch.add(m_queue.take());
+        m_queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+        Model model = m_model.get();
+        for (int i = 0; i < batch.size(); i++) {
+          rows[i] = batch.get(i).values;
+        }
+        try {
+          double[] classValues = model.classify(rows, batch.size());
+          for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).reply.complete(format(model.header, classValues[i]));
+          }
+        } catch (Exception e) {
+          // score the rows one by one so only the bad ones fail
+          for (Request request : batch) {
+            try {
+              request.reply.complete(format(model.header,
+                                            model.classify(request.values)));
+            } catch (Exception f) {
+              request.reply.completeExceptionally(f);
+            }
+          }
+        }
+        batch.clear();
+      }
+    } catch (InterruptedException e) {
+      for (Request request : batch) {
+        request.reply.completeExceptionally(e);
+      }
+    }
+  }
+
+  /**
+   * Parses a request line into attribute values.
+   *
+   * @param line the request line
+   * @param header the header of the training data
+   * @return the attribute values, with the class missing
+   * @throws Exception if the line doesn't match the header
+   */
+  static double[] parse(String line, Instances header) throws Exception {
+    String[] fields = line.split(",", -1);
+    double[] values = new double[header.numAttributes()];
+    int numFields = header.numAttributes() - 1;
+
+    if (fields.length != numFields && fields.length != numFields + 1) {
+      throw new Exception("expected " + numFields + " values, got "
+                          + fields.length);
+    }
+    int field = 0;
+    for (int i = 0; i < values.length; i++) {
+      if (i == header.classIndex()) {
+        values[i] = Utils.missingValue();
+        if (fields.length > numFields) {
+          field++;
+        }
+        continue;
+      }
+      String value = fields[field++].trim();
+      Attribute attribute = header.attribute(i);
+      if (value.equals("?")) {
+        values[i] = Utils.missingValue();
+      } else if (attribute.isNominal()) {
+        values[i] = attribute.indexOfValue(Utils.unquote(value));
+        if (values[i] < 0) {
+          throw new Exception("unknown value " + value + " of "
+                              + attribute.name());
+        }
+      } else {
+        values[i] = Double.parseDouble(value);
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Formats a prediction.
+   */
+  private static String format(Instances header, double classValue) {
+    if (Utils.isMissingValue(classValue)) {
+      return "?";
+    }
+    if (header.classAttribute().isNominal()) {
+      return header.classAttribute().value((int) classValue);
+    }
+    return Double.toString(classValue);
+  }
+}